@@ -0,0 +1,53 @@
+package sml.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sml.Instruction;
+import sml.InstructionFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures InstructionFactory.getInstruction for each opcode.
+ *
+ * @author Roland Crompton
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InstructionFactoryBenchmark {
+
+    /**
+     * The parameters given for each opcode.
+     */
+    private static final Map<String, List<String>> PARAMETERS = Map.of(
+            "add", List.of("EAX", "EBX"),
+            "sub", List.of("EAX", "EBX"),
+            "mul", List.of("EAX", "EBX"),
+            "div", List.of("EAX", "EBX"),
+            "mov", List.of("EAX", "42"),
+            "out", List.of("EAX"),
+            "jnz", List.of("EAX", "loop"));
+
+    @Param({"add", "sub", "mul", "div", "mov", "out", "jnz"})
+    public String opcode;
+
+    private InstructionFactory factory;
+
+    private List<String> params;
+
+    @Setup
+    public void setUp() {
+        factory = InstructionFactory.getInstance();
+        params = PARAMETERS.get(opcode);
+    }
+
+    @Benchmark
+    public Instruction getInstruction() {
+        return factory.getInstruction(null, opcode, params);
+    }
+}
@@ -0,0 +1,89 @@
+package sml.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sml.Instruction;
+import sml.Labels;
+import sml.Machine;
+import sml.Program;
+import sml.Registers;
+import sml.Translator;
+import sml.engine.Lanes;
+import sml.engine.LockstepEngine;
+import sml.engine.SwitchInterpreter;
+import sml.instruction.MovInstruction;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures evaluating one kernel over many input register sets, with the LockstepEngine and with a Machine per set.
+ * <p></p>
+ * The kernel sums the numbers up to its input, so the lanes loop different numbers of times, and diverge.
+ *
+ * @author Roland Crompton
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LockstepBenchmark {
+
+    private static final String KERNEL = "mov EBX 0\nmov ECX 1\nl: add EBX EAX\nsub EAX ECX\njnz EAX l\n";
+
+    private static final int LANES = 100_000;
+
+    /**
+     * The largest input. Inputs are spread from 1 to this.
+     */
+    @Param({"1", "16"})
+    public int spread;
+
+    private Program program;
+
+    private int[] inputs;
+
+    private Lanes lanes;
+
+    private final LockstepEngine engine = new LockstepEngine();
+
+    @Setup
+    public void setUp() throws IOException {
+        Labels labels = new Labels();
+        List<Instruction> instructions = new ArrayList<>();
+        new Translator(new StringReader(KERNEL)).readAndTranslate(labels, instructions);
+        program = new Program(labels, instructions);
+        inputs = new int[LANES];
+        for (int lane = 0; lane < LANES; lane++)
+            inputs[lane] = 1 + lane % spread;
+        lanes = new Lanes(LANES);
+    }
+
+    @Benchmark
+    public Lanes lockstep() {
+        System.arraycopy(inputs, 0, lanes.getColumn(Registers.Register.EAX), 0, LANES);
+        engine.execute(program, lanes);
+        return lanes;
+    }
+
+    @Benchmark
+    public int machinePerLane() {
+        // The kernel's input is moved into EAX by an extra first instruction, as a Machine clears its registers
+        Machine machine = new Machine(new Registers());
+        machine.setEngine(new SwitchInterpreter());
+        machine.getLabels().addAll(program.getLabels(), 1);
+        machine.getProgram().add(new MovInstruction(null, Registers.Register.EAX, 0));
+        machine.getProgram().addAll(program.getInstructions());
+        int sum = 0;
+        for (int lane = 0; lane < LANES; lane++) {
+            machine.getProgram().set(0, new MovInstruction(null, Registers.Register.EAX, inputs[lane]));
+            machine.execute();
+            sum += machine.getRegisters().get(Registers.Register.EBX);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,70 @@
+package sml.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sml.ExecutionEngine;
+import sml.Machine;
+import sml.Registers;
+import sml.Translator;
+import sml.engine.CompilingEngine;
+import sml.engine.InstructionInterpreter;
+import sml.engine.SealedInterpreter;
+import sml.engine.SwitchInterpreter;
+import sml.engine.TracingEngine;
+import sml.optimiser.SuperinstructionFuser;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Measures Machine.execute on loop-heavy programs, with each ExecutionEngine and with and without superinstructions.
+ *
+ * @author Roland Crompton
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MachineBenchmark {
+
+    private static final Map<String, Supplier<ExecutionEngine>> ENGINES = Map.of(
+            "instruction", () -> InstructionInterpreter.INSTANCE,
+            "switch", SwitchInterpreter::new,
+            "sealed", SealedInterpreter::new,
+            "compiled", CompilingEngine::new,
+            "tracing", TracingEngine::new);
+
+    private static final Map<String, String> PROGRAMS = Map.of(
+            "countdown", Programs.countdown(1_000_000),
+            "factorial", Programs.factorials(100_000));
+
+    @Param({"countdown", "factorial"})
+    public String program;
+
+    @Param({"instruction", "switch", "sealed", "compiled", "tracing"})
+    public String engine;
+
+    @Param({"false", "true"})
+    public boolean fused;
+
+    private Machine machine;
+
+    @Setup
+    public void setUp() throws IOException {
+        machine = new Machine(new Registers());
+        new Translator(Programs.write(PROGRAMS.get(program)).toString())
+                .readAndTranslate(machine.getLabels(), machine.getProgram());
+        if (fused)
+            SuperinstructionFuser.fuse(machine.getLabels(), machine.getProgram());
+        machine.setEngine(ENGINES.get(engine).get());
+    }
+
+    @Benchmark
+    public Registers execute() {
+        machine.execute();
+        return machine.getRegisters();
+    }
+}
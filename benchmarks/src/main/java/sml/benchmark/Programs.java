@@ -0,0 +1,91 @@
+package sml.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Generates the SML programs used by the benchmarks.
+ *
+ * @author Roland Crompton
+ */
+final class Programs {
+
+    private Programs() {}
+
+    /**
+     * A loop counting EAX down from count to zero.
+     *
+     * @param count the number of iterations
+     * @return the program text
+     */
+    static String countdown(int count) {
+        return """
+                    mov EAX %d
+                    mov EBX 1
+                l:  sub EAX EBX
+                    jnz EAX l
+                """.formatted(count);
+    }
+
+    /**
+     * A loop computing the factorial of 12 into EDX, repeated the given number of times.
+     *
+     * @param repeats the number of times the factorial is computed
+     * @return the program text
+     */
+    static String factorials(int repeats) {
+        return """
+                    mov ESI %d
+                    mov ECX 1
+                o:  mov EAX 12
+                    mov EDX 1
+                i:  mul EDX EAX
+                    sub EAX ECX
+                    jnz EAX i
+                    sub ESI ECX
+                    jnz ESI o
+                """.formatted(repeats);
+    }
+
+    /**
+     * A straight-line program of the given number of lines, using every opcode and a label on every tenth line.
+     *
+     * @param lines the number of lines
+     * @return the program text
+     */
+    static String generated(int lines) {
+        String[] registers = {"EAX", "EBX", "ECX", "EDX", "ESP", "EBP", "ESI", "EDI"};
+        StringBuilder program = new StringBuilder(lines * 16);
+        for (int line = 0; line < lines; line++) {
+            String r = registers[line % registers.length];
+            String s = registers[(line / registers.length) % registers.length];
+            if (line % 10 == 0)
+                program.append('l').append(line).append(": ");
+            switch (line % 7) {
+                case 0 -> program.append("mov ").append(r).append(' ').append(line);
+                case 1 -> program.append("add ").append(r).append(' ').append(s);
+                case 2 -> program.append("sub ").append(r).append(' ').append(s);
+                case 3 -> program.append("mul ").append(r).append(' ').append(s);
+                case 4 -> program.append("mov ").append(s).append(" 1");
+                case 5 -> program.append("div ").append(r).append(' ').append(s);
+                default -> program.append("jnz EDI l").append(line - line % 10);
+            }
+            program.append('\n');
+        }
+        return program.toString();
+    }
+
+    /**
+     * Writes a program to a temporary file, deleted when the JVM exits.
+     *
+     * @param program the program text
+     * @return the file
+     * @throws IOException if the file can't be written
+     */
+    static Path write(String program) throws IOException {
+        Path file = Files.createTempFile("sml-benchmark", ".sml");
+        file.toFile().deleteOnExit();
+        return Files.writeString(file, program);
+    }
+}
@@ -0,0 +1,38 @@
+package sml.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sml.Registers;
+
+import java.util.concurrent.TimeUnit;
+
+import static sml.Registers.Register.*;
+
+/**
+ * Measures getting and setting the values of Registers, by RegisterName and by ordinal.
+ *
+ * @author Roland Crompton
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistersBenchmark {
+
+    private final Registers registers = new Registers();
+
+    @Benchmark
+    public int getAndSetByName() {
+        int value = registers.get(EAX) + registers.get(EBX);
+        registers.set(EAX, value);
+        return value;
+    }
+
+    @Benchmark
+    public int getAndSetByOrdinal() {
+        int value = registers.get(0) + registers.get(1);
+        registers.set(0, value);
+        return value;
+    }
+}
@@ -0,0 +1,42 @@
+package sml.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sml.Instruction;
+import sml.Labels;
+import sml.Translator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures Translator.readAndTranslate on small and very large generated programs.
+ *
+ * @author Roland Crompton
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TranslatorBenchmark {
+
+    @Param({"100", "100000"})
+    public int lines;
+
+    private Translator translator;
+
+    @Setup
+    public void setUp() throws IOException {
+        translator = new Translator(Programs.write(Programs.generated(lines)).toString());
+    }
+
+    @Benchmark
+    public List<Instruction> readAndTranslate() throws IOException {
+        List<Instruction> program = new ArrayList<>();
+        translator.readAndTranslate(new Labels(), program);
+        return program;
+    }
+}
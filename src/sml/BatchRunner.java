@@ -0,0 +1,132 @@
+package sml;
+
+import sml.engine.InstructionInterpreter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Translates and executes batches of independent SML programs in parallel.
+ * <p></p>
+ * Each program is translated and executed as a separate task on a work-stealing ForkJoinPool, so a batch is spread
+ * across as many cores as the pool has threads. The final registers and the values output by each program are
+ * collected, rather than printed, and returned in the order the programs were given.
+ *
+ * @author Roland Crompton
+ */
+public final class BatchRunner {
+
+    /**
+     * The outcome of running a single program of a batch.
+     *
+     * @param source the file containing the program
+     * @param registers the registers of the machine once execution stopped. Null if the program couldn't be translated
+     * @param output the values output by the program, in order. Empty if the program couldn't be translated
+     * @param error a message describing why the program couldn't be translated. Null if it was translated
+     */
+    public record Result(Path source, Registers registers, int[] output, String error) {
+
+        /**
+         * Checks whether the program was translated and executed.
+         *
+         * @return true if the program was executed. False if it couldn't be translated
+         */
+        public boolean succeeded() {
+            return error == null;
+        }
+    }
+
+    /**
+     * The pool the programs are translated and executed on.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Supplies the ExecutionEngine each program is executed with.
+     */
+    private final Supplier<ExecutionEngine> engine;
+
+    /**
+     * Constructs a BatchRunner that executes programs with the InstructionInterpreter on the common ForkJoinPool.
+     */
+    public BatchRunner() {
+        this(ForkJoinPool.commonPool(), () -> InstructionInterpreter.INSTANCE);
+    }
+
+    /**
+     * Constructs a BatchRunner.
+     *
+     * @param pool the not null pool the programs are translated and executed on
+     * @param engine the not null supplier of the ExecutionEngine each program is executed with
+     */
+    public BatchRunner(ForkJoinPool pool, Supplier<ExecutionEngine> engine) {
+        this.pool = Objects.requireNonNull(pool);
+        this.engine = Objects.requireNonNull(engine);
+    }
+
+    /**
+     * Translates and executes each of the given programs in parallel.
+     *
+     * @param sources the files containing the programs
+     * @return the Result of each program, in the same order as sources
+     */
+    public List<Result> run(List<Path> sources) {
+        return sources.stream()
+                .map(source -> pool.submit(() -> run(source)))
+                .toList()
+                .stream()
+                .map(ForkJoinTask::join)
+                .toList();
+    }
+
+    /**
+     * Translates and executes each of the ".sml" files in the given directory in parallel.
+     *
+     * @param directory the directory containing the programs
+     * @return the Result of each program, ordered by file name
+     * @throws IOException if the directory can't be read
+     */
+    public List<Result> runDirectory(Path directory) throws IOException {
+        return run(findPrograms(directory));
+    }
+
+    /**
+     * Returns the ".sml" files in the given directory.
+     *
+     * @param directory the directory containing the programs
+     * @return the files, ordered by file name
+     * @throws IOException if the directory can't be read
+     */
+    public static List<Path> findPrograms(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".sml"))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    /**
+     * Translates and executes a single program.
+     */
+    private Result run(Path source) {
+        Program program;
+        try {
+            program = new Translator(source).translate();
+        } catch (IOException e) {
+            return new Result(source, null, new int[0], "Error reading the program from " + source);
+        }
+        Machine machine = program.newMachine();
+        machine.setEngine(engine.get());
+        IntCollector output = new IntCollector();
+        machine.setOutput(output);
+        machine.execute();
+        return new Result(source, machine.getRegisters(), output.toArray(), null);
+    }
+}
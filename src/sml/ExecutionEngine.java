@@ -0,0 +1,22 @@
+package sml;
+
+/**
+ * A strategy for executing the program stored in a Machine.
+ * <p></p>
+ * A Machine hands its program to its ExecutionEngine once the registers have been cleared and the program has been
+ * linked. Every ExecutionEngine must leave the Machine's registers in the same state as executing the program's
+ * Instructions one by one would.
+ *
+ * @author Roland Crompton
+ */
+public interface ExecutionEngine {
+
+    /**
+     * Executes the program of the given machine, beginning at instruction 0.
+     * Precondition: the registers of the machine have been cleared and its program has been linked.
+     *
+     * @param machine the machine whose program is executed, and whose registers it is executed on
+     * @return the value of the program counter when execution stopped
+     */
+    int execute(Machine machine);
+}
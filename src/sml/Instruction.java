@@ -70,6 +70,20 @@ public abstract class Instruction {
 
 	public abstract int execute(Machine machine);
 
+	/**
+	 * Links this Instruction against the labels of the program it is part of, resolving any labels it refers to into
+	 * the addresses of the labelled instructions so that they don't need to be looked up on execution.
+	 * <p></p>
+	 * Instructions that do not refer to any labels need not override this method.
+	 *
+	 * @param labels the labels of the program this Instruction is part of
+	 * @return an equal Instruction with its label references resolved. May be this Instruction.
+	 * Null if this Instruction refers to a label that does not exist
+	 */
+	public Instruction link(Labels labels) {
+		return this;
+	}
+
 	/**
 	 * If this Instruction has a label, returns a String in the format "label: ".
 	 * Otherwise, returns a blank String.
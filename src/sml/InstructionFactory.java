@@ -2,9 +2,16 @@ package sml;
 
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -15,6 +22,13 @@ import java.util.stream.Collectors;
  * This class uses the XML file instructions.xml that lists the available Instructions.
  * As long as an Instruction has been implemented correctly and added to the instructions file,
  * this class will be capable of instantiating it via the getInstruction method.
+ * The instructions file is read once, when the factory is created, into a table of the constructor of each
+ * Instruction.
+ * <p></p>
+ * Unlabeled Instructions are interned: an Instruction equal to one the factory has already created is replaced by
+ * that one, so a line repeated throughout a program shares a single instance. This relies on every Instruction
+ * being immutable, as they must already be for a Program to be shared between Machines. Only Instructions whose
+ * classes override equals are interned.
  *
  * @author Roland Crompton
  */
@@ -22,53 +36,226 @@ import java.util.stream.Collectors;
 public class InstructionFactory {
 
     /**
-     * A flag for checking an instruction's parameters have been
-     * formatted correctly when using getInstruction
+     * A map containing the possible parameter types for
+     * Instructions and the corresponding functions for converting tokens to those types.
+     * <p></p>
+     * Only Strings are copied out of the token: registers and ints are read from it in place.
      */
-    private static boolean correctFormatting;
+    private static final Map<Class<?>, Function<CharSequence, ?>> PARAM_TYPES = Map.of(
+            String.class, CharSequence::toString,
+            RegisterName.class, Registers::forName,
+            int.class, x -> Integer.parseInt(x, 0, x.length(), 10)
+    );
 
     /**
-     * The factory for creating Instructions from beans
+     * The instance of InstructionFactory for use by getInstance
      */
-    private static final ClassPathXmlApplicationContext BEAN_FACTORY =
-            new ClassPathXmlApplicationContext("instructions.xml");
+    private static final InstructionFactory INSTANCE = new InstructionFactory();
 
     /**
-     * The instance of InstructionFactory for use by getInstance
+     * The largest number of distinct Instructions interned. Once this many have been interned, new Instructions are
+     * no longer added, so that programs with many distinct lines don't fill the heap with them.
      */
-    private static InstructionFactory instance;
+    private static final int INTERN_CAPACITY = 1 << 16;
 
     /**
-     * A linked list of parameters for the current attempt to construct an Instruction
+     * Counts of how well interning has worked: how often a created Instruction was replaced by an interned one, how
+     * often it wasn't, and an estimate of the heap saved by the replacements.
+     *
+     * @param hits the number of Instructions replaced by an interned instance
+     * @param misses the number of unlabeled Instructions that were not
+     * @param instances the number of distinct Instructions interned
+     * @param bytesSaved the estimated number of bytes of heap the replaced Instructions would have used
      */
-    private static final LinkedList<String> PARAMETERS = new LinkedList<>();
+    public record InternStatistics(long hits, long misses, int instances, long bytesSaved) {}
 
     /**
-     * A map containing the possible parameter types for
-     * Instructions and the corresponding functions for converting Strings to those types.
+     * How to construct one type of Instruction: its constructor, a MethodHandle for invoking it with an array of
+     * arguments, and the functions for converting tokens to each of its parameters other than the label.
      */
-    private static final Map<Class<?>, Function<String, ?>> PARAM_TYPES = Map.of(
-            String.class, x->x,
-            RegisterName.class, Registers.Register::valueOf,
-            int.class, Integer::parseInt
-    );
+    private record InstructionType(Constructor<?> constructor,
+                                   MethodHandle handle,
+                                   List<Function<CharSequence, ?>> converters,
+                                   boolean internable,
+                                   long instanceSize) {
 
-    /**
-     * A Null Object implementation of RegisterName
-     * for use in autowiring Instructions via getRegisterName
-      */
-    private static class NullRegisterName implements RegisterName {
-        @Override
-        public String name() {
-            return " ";
+        /**
+         * Constructs an Instruction of this type from the label and parameters.
+         *
+         * @param label the label of the instruction (can be null)
+         * @param params the not null parameters for the instruction
+         * @return the Instruction. Null if there are the wrong number of parameters,
+         * or one of them can't be converted to the type of its constructor parameter
+         */
+        private Instruction construct(String label, List<? extends CharSequence> params) {
+            if (params.size() != converters.size())
+                return null;
+            Object[] arguments = new Object[params.size() + 1];
+            arguments[0] = label;
+            for (int i = 0; i < params.size(); i++) {
+                try {
+                    arguments[i + 1] = converters.get(i).apply(params.get(i));
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+            }
+            try {
+                return (Instruction) handle.invokeExact(arguments);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
         }
     }
 
+    /**
+     * The opcodes listed in instructions.xml, in sorted order.
+     */
+    private final String[] opcodes;
+
+    /**
+     * The type of Instruction for each opcode in opcodes, at the same index.
+     * Resolved once, when the factory is created, so constructing an Instruction needs only a binary search,
+     * the conversion of its parameters and a call to its constructor.
+     */
+    private final InstructionType[] instructionTypes;
+
+    /**
+     * The interned Instructions, each mapped to itself.
+     */
+    private final Map<Instruction, Instruction> interned = new ConcurrentHashMap<>();
+
+    private final LongAdder internHits = new LongAdder();
+
+    private final LongAdder internMisses = new LongAdder();
+
+    private final LongAdder bytesSaved = new LongAdder();
+
     /**
      * Private construction method allowing this class to be
-     * a singleton that can only be instantiated via getInstance
+     * a singleton that can only be instantiated via getInstance.
+     * <p></p>
+     * Reads the Instructions listed in instructions.xml and resolves how to construct each of them.
+     */
+    private InstructionFactory() {
+        try (var beanFactory = new ClassPathXmlApplicationContext("instructions.xml")) {
+            opcodes = beanFactory.getBeanNamesForType(Instruction.class);
+            Arrays.sort(opcodes);
+            instructionTypes = new InstructionType[opcodes.length];
+            for (int i = 0; i < opcodes.length; i++)
+                instructionTypes[i] = resolve(opcodes[i], beanFactory.getType(opcodes[i]));
+        }
+    }
+
+    /**
+     * Resolves how to construct the given class of Instruction through its only public constructor.
+     *
+     * @param opcode the opcode the Instruction is listed under
+     * @param instructionClass a concrete class extending Instruction
+     * @return the InstructionType
+     * @throws IllegalStateException if the class does not have a public constructor taking a label followed by
+     * Strings, ints, and RegisterNames
+     */
+    private static InstructionType resolve(String opcode, Class<?> instructionClass) {
+        Constructor<?>[] constructors = instructionClass.getConstructors();
+        if (constructors.length == 0 || constructors[0].getParameterCount() == 0
+                || constructors[0].getParameterTypes()[0] != String.class)
+            throw new IllegalStateException("Instruction " + opcode + " has no constructor taking a label.");
+        Constructor<?> constructor = constructors[0];
+
+        List<Function<CharSequence, ?>> converters = new ArrayList<>();
+        // Skip the first parameter, as that is the label
+        for (Class<?> parameterType : Arrays.asList(constructor.getParameterTypes()).subList(1,
+                constructor.getParameterCount())) {
+            Function<CharSequence, ?> converter = PARAM_TYPES.get(parameterType);
+            if (converter == null)
+                throw new IllegalStateException("Instruction " + opcode + " has a parameter of unsupported type "
+                        + parameterType.getName() + ".");
+            converters.add(converter);
+        }
+
+        try {
+            MethodHandle handle = MethodHandles.publicLookup().unreflectConstructor(constructor)
+                    .asSpreader(Object[].class, constructor.getParameterCount())
+                    .asType(MethodType.methodType(Instruction.class, Object[].class));
+            boolean internable = instructionClass.getMethod("equals", Object.class).getDeclaringClass()
+                    != Object.class;
+            return new InstructionType(constructor, handle, List.copyOf(converters), internable,
+                    estimateSize(instructionClass));
+        } catch (IllegalAccessException | NoSuchMethodException e) {
+            throw new IllegalStateException("Instruction " + opcode + " can't be constructed.", e);
+        }
+    }
+
+    /**
+     * Estimates the number of bytes of heap used by an instance of the class, not counting the objects it refers
+     * to: an object header, then each of its fields, assuming compressed references, rounded up to a multiple of 8.
+     *
+     * @param type the class
+     * @return the estimated size in bytes
      */
-    private InstructionFactory() {}
+    private static long estimateSize(Class<?> type) {
+        long size = 12;
+        for (Class<?> c = type; c != null; c = c.getSuperclass())
+            for (Field field : c.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()))
+                    continue;
+                Class<?> fieldType = field.getType();
+                if (fieldType == long.class || fieldType == double.class)
+                    size += 8;
+                else if (fieldType == short.class || fieldType == char.class)
+                    size += 2;
+                else if (fieldType == byte.class || fieldType == boolean.class)
+                    size += 1;
+                else
+                    size += 4;
+            }
+        return (size + 7) & ~7;
+    }
+
+    /**
+     * Returns the interned Instruction equal to a newly created one, interning it if there is none.
+     *
+     * @param instruction the new Instruction
+     * @param type the type of the Instruction
+     * @return the interned Instruction, or the new Instruction if it is labeled or can't be interned
+     */
+    private Instruction intern(Instruction instruction, InstructionType type) {
+        if (instruction.getLabel() != null || !type.internable())
+            return instruction;
+        Instruction shared = interned.get(instruction);
+        if (shared == null && interned.size() < INTERN_CAPACITY)
+            shared = interned.putIfAbsent(instruction, instruction);
+        if (shared == null || shared.getClass() != instruction.getClass()) {
+            internMisses.increment();
+            return instruction;
+        }
+        internHits.increment();
+        bytesSaved.add(type.instanceSize());
+        return shared;
+    }
+
+    /**
+     * Returns counts of how well interning has worked since the factory was created, or since clearInterned was
+     * last called.
+     *
+     * @return the statistics of interning
+     */
+    public InternStatistics getInternStatistics() {
+        return new InternStatistics(internHits.sum(), internMisses.sum(), interned.size(), bytesSaved.sum());
+    }
+
+    /**
+     * Forgets every interned Instruction, and resets the statistics of interning.
+     * Instructions already created are unaffected.
+     */
+    public void clearInterned() {
+        interned.clear();
+        internHits.reset();
+        internMisses.reset();
+        bytesSaved.reset();
+    }
 
     /**
      * A method for creating an error message for when the parameters
@@ -78,7 +265,7 @@ public class InstructionFactory {
      * @param params the set of parameters given
      * @return the error message
      */
-    private String buildErrorMessage(Constructor<?>[] constructors, List<String> params) {
+    private String buildErrorMessage(Constructor<?>[] constructors, List<? extends CharSequence> params) {
         StringBuilder paramsErrorMessage = new StringBuilder(
                 "Valid parameters for this instruction type:\n");
         if (constructors.length != 0) {
@@ -99,48 +286,44 @@ public class InstructionFactory {
     }
 
     /**
-     * The proper method of instantiating this class.
-     * Returns the stored instance of InstructionFactory.
-     * If there isn't one, creates one and stores it in instance.
-     * @return an InstructionFactory
+     * Finds the type of Instruction for the given opcode, comparing it in place.
+     *
+     * @param opcode the opcode
+     * @return the InstructionType, or null if there is no Instruction with that opcode
      */
-    public static InstructionFactory getInstance() {
-        if (instance == null)
-            instance = new InstructionFactory();
-        return instance;
+    private InstructionType find(CharSequence opcode) {
+        int low = 0;
+        int high = opcodes.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = CharSequence.compare(opcodes[middle], opcode);
+            if (comparison < 0)
+                low = middle + 1;
+            else if (comparison > 0)
+                high = middle - 1;
+            else
+                return instructionTypes[middle];
+        }
+        return null;
     }
 
     /**
-     * Returns an Object representing a String, int,
-     * or RegisterName after attempting to convert the head element of
-     * PARAMETERS into the targetClass. As PARAMETERS is a list of Strings,
-     * it will always succeed in converting to String.
-     * <p></p>
-     * Should not be called directly, only through getString, getRegisterName, and getInt.
-     * These are factory methods for autowiring Instructions using the contents of PARAMETERS.
-     *
-     * @param targetClass must be String.class, int.class, or RegisterName.class (can be null)
-     * @return an object that's been converted to targetClass.
-     * Null if PARAMETERS is empty or if the conversion failed
+     * The proper method of instantiating this class.
+     * Returns the stored instance of InstructionFactory.
+     * @return an InstructionFactory
      */
-    private static Object getObject(Class<?> targetClass) {
-        if (!PARAMETERS.isEmpty()) {
-            try {
-                return PARAM_TYPES.get(targetClass).apply(PARAMETERS.pop());
-            } catch (IllegalArgumentException e) {
-                return null;
-            }
-        }
-        return null;
+    public static InstructionFactory getInstance() {
+        return INSTANCE;
     }
 
     /**
      * Creates a new instance of the Instruction corresponding to the given opcode,
      * constructed with the label and set of parameters.
      * <p></p>
-     * Stores the label and parameters in PARAMETERS, then attempts to instantiate the
-     * Instruction through getBean. The bean will be autowired through the getInt, getRegisterName
-     * and getString methods, emptying PARAMETERS.
+     * Looks up the type of Instruction for the opcode, converts each parameter to the type of the corresponding
+     * parameter of its constructor, then calls the constructor.
+     * The opcode and parameters may be any CharSequence, such as a view of a token in the source text.
+     * They are not kept once this method returns.
      * <p></p>
      * Will return null if: The opcode or any of the parameters are null;
      * The opcode does not match the opcode of a valid Instruction;
@@ -149,6 +332,11 @@ public class InstructionFactory {
      * types corresponding to the parameters of the constructor of the Instruction type.
      * <p></p>
      * In these cases, an appropriate error message will be displayed.
+     * <p></p>
+     * An unlabeled Instruction equal to one created before is not returned: the interned instance is returned
+     * instead.
+     * <p></p>
+     * Safe to call from any number of threads at once.
      *
      * @param label the label of the instruction (can be null)
      * @param opcode the opcode of the instruction
@@ -156,73 +344,31 @@ public class InstructionFactory {
      * @return an appropriate Instruction constructed from the parameters and label.
      * Null if the factory was unable to construct the Instruction for any reason
      */
-    public Instruction getInstruction(String label, String opcode, List<String> params) {
-        PARAMETERS.clear();
-        String errorMessage = "Error with instruction: " +
-                ((label != null) ? label + " : " : "") + opcode + " "  +
-                String.join(" ", params) + "\n";
+    public Instruction getInstruction(String label, CharSequence opcode, List<? extends CharSequence> params) {
+        String error;
+        if (params.stream().anyMatch(Objects::isNull)) {
+            error = "Instruction parameters other than label cannot be null.";
+        } else {
+            // Tests the Instruction exists
+            InstructionType type = (opcode != null) ? find(opcode) : null;
+            if (type != null) {
+                Instruction returnInstruction = type.construct(label, params);
 
-        if (params.contains(null)) {
-            System.err.println(errorMessage +
-                    "Instruction parameters other than label cannot be null.");
-            return null;
-        }
-        // Tests the Instruction exists
-        if (Arrays.stream(BEAN_FACTORY.getBeanNamesForType(Instruction.class))
-                .toList().contains(opcode)) {
-
-            // Set up factory for Instruction construction
-            PARAMETERS.add(label);
-            PARAMETERS.addAll(params);
-            correctFormatting = true;
-
-            Instruction returnInstruction = (Instruction) BEAN_FACTORY.getBean(opcode);
-
-            // Test whether anything went wrong trying to cast the parameter strings
-            // for the instructions' constructor
-            // and whether the correct number of parameters were input
-            if (correctFormatting && PARAMETERS.isEmpty()) {
-                return returnInstruction;
+                // Test whether anything went wrong trying to cast the parameter strings
+                // for the instructions' constructor
+                // and whether the correct number of parameters were input
+                if (returnInstruction != null) {
+                    return intern(returnInstruction, type);
+                }
+                error = buildErrorMessage(new Constructor<?>[] {type.constructor()}, params);
+            } else {
+                error = "No instruction of that name found.";
             }
-            errorMessage = errorMessage + buildErrorMessage(returnInstruction.getClass().getConstructors(), params);
-        } else {
-            errorMessage = errorMessage + "No instruction of that name found.";
         }
-        System.err.println(errorMessage);
-        return null;
-    }
-
-    /**
-     * Safely attempts to get an integer from PARAMETERS. See getObject.
-     * @return an int. If the head of PARAMETERS fails to be cast to int, returns 0.
-     */
-    public static int getInt() {
-        if (getObject(int.class) instanceof Integer integer)
-            return integer;
-        correctFormatting = false;
-        return 0;
-    }
-
-    /**
-     * Safely attempts to get a RegisterName from PARAMETERS. See getObject.
-     * @return a RegisterName.
-     * If the head of PARAMETERS fails to be cast to a RegisterName, returns NullRegisterName
-     */
-    public static RegisterName getRegisterName() {
-        if (getObject(RegisterName.class) instanceof RegisterName regName)
-            return regName;
-        correctFormatting = false;
-        return new NullRegisterName();
-    }
-
-    /**
-     * Attempts to get a String from PARAMETERS.
-     * Will always succeed so long is PARAMETERS is not empty. See getObject.
-     * @return the head of PARAMETERS if PARAMETERS is not empty. Null otherwise
-     */
-    public static String getString() {
-        if (getObject(String.class) instanceof String string)
-            return string;
+        // The message is only built once something has gone wrong, as it copies every token
+        System.err.println("Error with instruction: " +
+                ((label != null) ? label + " : " : "") + opcode + " "  +
+                String.join(" ", params) + "\n" + error);
         return null;
     }
 
@@ -233,9 +379,7 @@ public class InstructionFactory {
      */
     @Override
     public String toString() {
-        return String.join(", ",
-                Arrays.stream(BEAN_FACTORY.getBeanNamesForType(Instruction.class))
-                .sorted().toList());
+        return String.join(", ", opcodes);
     }
 
 }
@@ -0,0 +1,82 @@
+package sml;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * A sink collecting every value output by a program in memory, in order, as ints in a growable array.
+ *
+ * @author Roland Crompton
+ */
+public final class IntCollector implements OutputSink {
+
+    /**
+     * The values collected, from index 0 to size
+     */
+    private int[] values = new int[16];
+
+    /**
+     * The number of values collected
+     */
+    private int size = 0;
+
+    @Override
+    public void accept(int value) {
+        if (size == values.length)
+            values = Arrays.copyOf(values, values.length * 2);
+        values[size++] = value;
+    }
+
+    /**
+     * Returns the number of values collected.
+     *
+     * @return the number of values
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the value collected at the given index.
+     *
+     * @param index the index of the value, counting from 0 for the first value output
+     * @return the value
+     * @throws IndexOutOfBoundsException if there is no value at the index
+     */
+    public int get(int index) {
+        Objects.checkIndex(index, size);
+        return values[index];
+    }
+
+    /**
+     * Returns a copy of the values collected.
+     *
+     * @return the values, in the order they were output
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    /**
+     * Returns a stream of the values collected.
+     *
+     * @return the values, in the order they were output
+     */
+    public IntStream stream() {
+        return Arrays.stream(values, 0, size);
+    }
+
+    /**
+     * Discards every value collected.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    @Override
+    public String toString() {
+        return stream().mapToObj(Integer::toString).collect(Collectors.joining(", ", "[", "]"));
+    }
+}
@@ -1,6 +1,8 @@
 package sml;
 
 import java.util.HashMap;
+import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
 import java.util.Objects;
 import java.util.stream.Collectors;
@@ -22,7 +24,28 @@ public final class Labels {
 	 * The hashmap in which is stored a String representing an Instruction's label,
 	 * and an integer representing the Instruction's location in the program.
 	 */
-	private final Map<String, Integer> labels = new HashMap<>();
+	private final Map<String, Integer> labels;
+
+	/**
+	 * Constructs a new, empty instance of Labels.
+	 */
+	public Labels() {
+		this(new HashMap<>());
+	}
+
+	private Labels(Map<String, Integer> labels) {
+		this.labels = labels;
+	}
+
+	/**
+	 * Returns an unmodifiable copy of this instance of Labels, which may be safely shared between threads.
+	 * Attempting to add, relocate or reset the labels of the copy throws an UnsupportedOperationException.
+	 *
+	 * @return an unmodifiable Labels equal to this instance
+	 */
+	public Labels unmodifiableCopy() {
+		return new Labels(Map.copyOf(labels));
+	}
 
 	/**
 	 * Adds a label with the associated address to the map.
@@ -49,6 +72,24 @@ public final class Labels {
 		}
 	}
 
+	/**
+	 * Adds every label of another instance of Labels to this one, moving each of their addresses by the offset.
+	 * <p></p>
+	 * Used to merge the labels of a part of a program, translated on its own, into the labels of the whole
+	 * program. As with addLabel, a label that already exists will not be added, and an error message will be
+	 * displayed.
+	 *
+	 * @param other the labels to add
+	 * @param offset the address in this program of address 0 in the other
+	 * @return false if any of the labels is already in use. True otherwise
+	 */
+	public boolean addAll(Labels other, int offset) {
+		for (Map.Entry<String, Integer> entry : other.labels.entrySet())
+			if (!addLabel(entry.getKey(), entry.getValue() + offset))
+				return false;
+		return true;
+	}
+
 	/**
 	 * Returns a hash code for this instance of Labels.
 	 * Two Labels will have the same hash code if they have the same elements in their HashMaps.
@@ -84,6 +125,41 @@ public final class Labels {
 		return labels.get(label);
 	}
 
+	/**
+	 * Moves every label to a new address, for use when instructions in the program have been moved.
+	 * Labels with addresses outside newAddresses are left where they are.
+	 *
+	 * @param newAddresses the new address of the instruction at each address in the program,
+	 *                     indexed by the old address
+	 */
+	public void relocate(int[] newAddresses) {
+		labels.replaceAll((label, address) ->
+				(address >= 0 && address < newAddresses.length) ? newAddresses[address] : address);
+	}
+
+	/**
+	 * Links a program against these labels, replacing each Instruction in the program with its linked equivalent.
+	 * See Instruction.link.
+	 * <p></p>
+	 * If an Instruction refers to a label that does not exist, an error message will be displayed and
+	 * linking will stop.
+	 *
+	 * @param program the program to be linked, whose labels are stored in this instance
+	 * @return false if an Instruction in the program refers to a label that does not exist. True otherwise
+	 */
+	public boolean link(List<Instruction> program) {
+		ListIterator<Instruction> instructions = program.listIterator();
+		while (instructions.hasNext()) {
+			Instruction instruction = instructions.next();
+			Instruction linked = instruction.link(this);
+			if (linked == null)
+				return false;
+			if (linked != instruction)
+				instructions.set(linked);
+		}
+		return true;
+	}
+
 	/**
 	 * representation of this instance,
 	 * in the form "[label -> address, label -> address, ..., label -> address]"
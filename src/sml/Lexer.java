@@ -0,0 +1,240 @@
+package sml;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits the text of an SML program into lines, and each line into a label, an opcode and parameters.
+ * <p></p>
+ * Tokens are kept as offsets into the text rather than copied out of it: the opcode and parameters of the
+ * current line are views of the text, which are reused for every line and so are only valid until the next
+ * call to nextLine. Only the label is copied into a String.
+ * <p></p>
+ * Lines are separated by "\n", "\r\n" or "\r", and tokens by whitespace.
+ * A token at the start of a line ending in ":" is the label of that line.
+ *
+ * @author Roland Crompton
+ */
+final class Lexer {
+
+    /**
+     * A view of one token of the text.
+     */
+    private final class Token implements CharSequence {
+
+        /**
+         * The index of the first char of the token
+         */
+        private int start;
+
+        /**
+         * The index after the last char of the token
+         */
+        private int end;
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return text.charAt(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return text.subSequence(this.start + start, this.start + end);
+        }
+
+        @Override
+        public String toString() {
+            return text.subSequence(start, end).toString();
+        }
+    }
+
+    /**
+     * The text being split
+     */
+    private CharSequence text = "";
+
+    /**
+     * The index of the start of the next line
+     */
+    private int position = 0;
+
+    /**
+     * The number of the current line, counting from 1 for the first line of the first text
+     */
+    private int lineNumber = 0;
+
+    /**
+     * The tokens of the current line. Only the first tokenCount are in use.
+     */
+    private Token[] tokens = new Token[4];
+
+    /**
+     * The number of tokens on the current line
+     */
+    private int tokenCount = 0;
+
+    /**
+     * Whether the first token of the current line is a label
+     */
+    private boolean labelled = false;
+
+    /**
+     * The parameters of the current line, as a view of its tokens following the opcode
+     */
+    private final List<CharSequence> parameters = new AbstractList<>() {
+        @Override
+        public CharSequence get(int index) {
+            if (index < 0 || index >= size())
+                throw new IndexOutOfBoundsException(index);
+            return tokens[index + first()];
+        }
+
+        @Override
+        public int size() {
+            return Math.max(tokenCount - first(), 0);
+        }
+
+        private int first() {
+            return labelled ? 2 : 1;
+        }
+    };
+
+    /**
+     * Constructs a Lexer with no text.
+     */
+    Lexer() {
+        for (int i = 0; i < tokens.length; i++)
+            tokens[i] = new Token();
+    }
+
+    /**
+     * Constructs a Lexer over the given text.
+     *
+     * @param text the text of an SML program
+     */
+    Lexer(CharSequence text) {
+        this();
+        reset(text);
+    }
+
+    /**
+     * Starts splitting the given text, which continues the text split so far.
+     * <p></p>
+     * The views of the tokens of the previous text are no longer valid.
+     *
+     * @param text whole lines of the text of an SML program
+     */
+    void reset(CharSequence text) {
+        this.text = text;
+        position = 0;
+        tokenCount = 0;
+        labelled = false;
+    }
+
+    /**
+     * Moves to the next line of the text and splits it into tokens.
+     *
+     * @return false if there are no more lines
+     */
+    boolean nextLine() {
+        int length = text.length();
+        if (position >= length)
+            return false;
+        lineNumber++;
+        tokenCount = 0;
+
+        int i = position;
+        char c = 0;
+        while (i < length && (c = text.charAt(i)) != '\n' && c != '\r') {
+            if (isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < length && !isWhitespace(c = text.charAt(i)) && c != '\n' && c != '\r')
+                i++;
+            addToken(start, i);
+        }
+
+        // Skip the line separator
+        position = i + 1;
+        if (c == '\r' && position < length && text.charAt(position) == '\n')
+            position++;
+
+        labelled = tokenCount > 0 && text.charAt(tokens[0].end - 1) == ':';
+        return true;
+    }
+
+    /**
+     * Returns the number of the current line, counting from 1.
+     *
+     * @return the line number
+     */
+    int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Returns the label of the current line, without its ":".
+     *
+     * @return the label, or null if the line doesn't have one
+     */
+    String getLabel() {
+        if (!labelled)
+            return null;
+        Token token = tokens[0];
+        return text.subSequence(token.start, token.end - 1).toString();
+    }
+
+    /**
+     * Returns the opcode of the current line.
+     *
+     * @return a view of the opcode, or null if the line has no token other than a label
+     */
+    CharSequence getOpcode() {
+        int index = labelled ? 1 : 0;
+        return (index < tokenCount) ? tokens[index] : null;
+    }
+
+    /**
+     * Returns the parameters of the current line: every token following its opcode.
+     *
+     * @return a view of the parameters
+     */
+    List<CharSequence> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Adds a token of the current line.
+     *
+     * @param start the index of the first char of the token
+     * @param end the index after the last char of the token
+     */
+    private void addToken(int start, int end) {
+        if (tokenCount == tokens.length) {
+            tokens = Arrays.copyOf(tokens, tokens.length * 2);
+            for (int i = tokenCount; i < tokens.length; i++)
+                tokens[i] = new Token();
+        }
+        Token token = tokens[tokenCount++];
+        token.start = start;
+        token.end = end;
+    }
+
+    /**
+     * Whether the char separates tokens, as for Character.isWhitespace.
+     *
+     * @param c a char other than a line separator
+     * @return whether it is whitespace
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || Character.isWhitespace(c);
+    }
+}
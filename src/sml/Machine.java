@@ -3,9 +3,12 @@ package sml;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.function.IntConsumer;
 import java.util.stream.Collectors;
 
-import static sml.Instruction.NORMAL_PROGRAM_COUNTER_UPDATE;
+import sml.engine.InstructionInterpreter;
 
 /**
  * Represents the machine, the context in which programs run.
@@ -17,36 +20,177 @@ import static sml.Instruction.NORMAL_PROGRAM_COUNTER_UPDATE;
  */
 public final class Machine {
 
-	private final Labels labels = new Labels();
+	private final Labels labels;
 
-	private final List<Instruction> program = new ArrayList<>();
+	private final List<Instruction> program;
 
 	private final Registers registers;
 
+	/**
+	 * The shared Program this Machine runs, or null if the Machine has its own modifiable program.
+	 */
+	private final Program shared;
+
 	// The program counter; it contains the index (in program)
 	// of the next instruction to be executed.
 	private int programCounter = 0;
 
+	/**
+	 * Whether the program divided by zero since it was last executed.
+	 */
+	private boolean dividedByZero = false;
+
+	/**
+	 * The ExecutionEngine used to execute the program. By default, each Instruction is executed in turn.
+	 */
+	private ExecutionEngine engine = InstructionInterpreter.INSTANCE;
+
+	/**
+	 * Prints each value output by the program on its own line of the console, as soon as it is output.
+	 * Slower than the buffered OutputSink.standardOutput each Machine has by default.
+	 */
+	public static final OutputSink STANDARD_OUTPUT = value -> System.out.println(value);
+
+	/**
+	 * Where values output by the program are sent. By default, they are printed on the console in batches.
+	 */
+	private OutputSink output = OutputSink.standardOutput();
+
+	/**
+	 * Constructs a Machine with an empty, modifiable program and labels.
+	 *
+	 * @param registers the registers of the machine
+	 */
 	public Machine(Registers registers) {
+		this.labels = new Labels();
+		this.program = new ArrayList<>();
+		this.registers = registers;
+		this.shared = null;
+	}
+
+	/**
+	 * Constructs a Machine running a shared Program. The program and labels of the Machine are those of the Program,
+	 * so can't be modified.
+	 *
+	 * @param program the shared Program
+	 * @param registers the registers of the machine
+	 */
+	public Machine(Program program, Registers registers) {
+		this.labels = program.getLabels();
+		this.program = program.getInstructions();
 		this.registers = registers;
+		this.shared = program;
 	}
 
 	/**
 	 * Execute the program in program, beginning at instruction 0.
 	 * Precondition: the program and its labels have been stored properly.
+	 * <p></p>
+	 * Unless it is a shared Program, which is always linked, the program is linked before it is executed.
+	 * If it refers to a label that doesn't exist, it will not be executed.
+	 * Otherwise, it is executed by this Machine's ExecutionEngine.
+	 * <p></p>
+	 * However execution stops, the output is flushed before this method returns.
 	 */
 	public void execute() {
 		programCounter = 0;
+		dividedByZero = false;
 		registers.clear();
-		while (programCounter < program.size()) {
-			Instruction ins = program.get(programCounter);
-			int programCounterUpdate = ins.execute(this);
-			programCounter = (programCounterUpdate == NORMAL_PROGRAM_COUNTER_UPDATE)
-				? programCounter + 1
-				: programCounterUpdate;
+		if (shared == null && !link()) {
+			programCounter = program.size();
+			return;
+		}
+		try {
+			programCounter = engine.execute(this);
+		} finally {
+			output.flush();
 		}
 	}
 
+	/**
+	 * Reports that an Instruction of the program attempted to divide by zero, which stops the program.
+	 * <p></p>
+	 * The output is flushed first, so that the values output before the error appear before it, then the error is
+	 * printed and the registers cleared. Every way of executing a div reports the error through this method.
+	 *
+	 * @param instruction the Instruction that attempted to divide by zero
+	 */
+	public void divideByZero(Instruction instruction) {
+		output.flush();
+		System.err.println("Error with instruction: " + instruction
+				+ "\nCannot divide by zero. Program failed to execute.");
+		registers.clear();
+		dividedByZero = true;
+	}
+
+	/**
+	 * Checks whether an Instruction of the program divided by zero since the program was last executed.
+	 *
+	 * @return true if divideByZero has been called since execute was last called
+	 */
+	public boolean hasDividedByZero() {
+		return this.dividedByZero;
+	}
+
+	/**
+	 * Links the program against its labels, resolving every label an Instruction refers to into an address.
+	 * See Labels.link.
+	 *
+	 * @return false if the program refers to a label that doesn't exist. True otherwise
+	 */
+	public boolean link() {
+		return labels.link(program);
+	}
+
+	public ExecutionEngine getEngine() {
+		return this.engine;
+	}
+
+	/**
+	 * Sets the ExecutionEngine used to execute the program.
+	 *
+	 * @param engine the not null ExecutionEngine
+	 */
+	public void setEngine(ExecutionEngine engine) {
+		this.engine = Objects.requireNonNull(engine);
+	}
+
+	public OutputSink getOutput() {
+		return this.output;
+	}
+
+	/**
+	 * Sets where values output by the program are sent. See OutputSink.of.
+	 *
+	 * @param output the not null IntConsumer accepting each value output, in order
+	 */
+	public void setOutput(IntConsumer output) {
+		this.output = OutputSink.of(output);
+	}
+
+	/**
+	 * Returns a publisher of the values output by the program, which executes the program on the Executor once it
+	 * is subscribed to, pausing it whenever the Subscriber has not requested any more values. See OutputPublisher.
+	 * <p></p>
+	 * While the program executes, its output is sent only to the Subscriber; afterwards the output is restored.
+	 *
+	 * @param executor the not null Executor to execute the program. As the program may be paused, this should not be
+	 *                 a pool with a small number of threads shared with other work
+	 * @return the publisher, to which only one Subscriber may subscribe
+	 */
+	public Flow.Publisher<Integer> publishOutput(Executor executor) {
+		return new OutputPublisher(this, executor);
+	}
+
+	/**
+	 * Returns the shared Program this Machine runs.
+	 *
+	 * @return the Program. Null if this Machine has its own modifiable program
+	 */
+	public Program getSharedProgram() {
+		return this.shared;
+	}
+
 	public Labels getLabels() {
 		return this.labels;
 	}
@@ -1,27 +1,85 @@
 package sml;
 
+import sml.optimiser.ConstantPropagator;
+import sml.optimiser.LoopOptimiser;
+import sml.optimiser.SuperinstructionFuser;
+
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 public class Main {
+	/**
+	 * The option for running a batch of programs in parallel.
+	 */
+	private static final String BATCH_OPTION = "--batch";
+
+	/**
+	 * The option for translating a program and writing it to a file in the binary format of ProgramFile.
+	 */
+	private static final String COMPILE_OPTION = "--compile";
+
+	/**
+	 * The file name for reading the program from standard input.
+	 */
+	private static final String STANDARD_INPUT = "-";
+
 	/**
 	 * Initialises the system and executes the program.
+	 * If the file name is "-", the program is read from standard input. If it ends with ".smlc", the program is
+	 * read from the binary format of ProgramFile instead of being translated.
+	 * <p></p>
+	 * If the first argument is "--compile", translates the program named by the second argument and writes it to
+	 * the file named by the third, in the binary format of ProgramFile.
+	 * <p></p>
+	 * Alternatively, if the first argument is "--batch", translates and executes in parallel each program named by
+	 * the remaining arguments, each of which may be a file or a directory of ".sml" files, then prints the outcome of
+	 * each program.
 	 *
 	 * @param args name of the file containing the program text.
 	 */
 	public static void main(String... args) {
+		if (args.length > 1 && args[0].equals(BATCH_OPTION)) {
+			runBatch(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		if (args.length == 3 && args[0].equals(COMPILE_OPTION)) {
+			compile(args[1], args[2]);
+			return;
+		}
 		if (args.length != 1) {
 			System.err.println("Incorrect number of arguments - Machine <file> - required");
 			System.exit(-1);
 		}
 
 		try {
-			Translator t = new Translator(args[0]);
 			Machine m = new Machine(new Registers());
-			t.readAndTranslate(m.getLabels(), m.getProgram());
+			if (args[0].endsWith(ProgramFile.EXTENSION)) {
+				Program program = ProgramFile.read(Path.of(args[0]));
+				m.getLabels().addAll(program.getLabels(), 0);
+				m.getProgram().addAll(program.getInstructions());
+			} else {
+				Translator t = args[0].equals(STANDARD_INPUT)
+						? new Translator(System.in)
+						: new Translator(args[0]);
+				t.readAndTranslate(m.getLabels(), m.getProgram(), ForkJoinPool.commonPool());
+			}
 
 			System.out.println("Here is the program; it has " + m.getProgram().size() + " instructions.");
 			System.out.println(m);
 
+			int removed = ConstantPropagator.optimise(m.getLabels(), m.getProgram());
+			if (removed > 0)
+				System.out.println("Removed " + removed + " instructions with no effect on the result.");
+			int loops = LoopOptimiser.optimise(m.getLabels(), m.getProgram());
+			if (loops > 0)
+				System.out.println("Replaced " + loops + " counted loops with their closed form.");
+			SuperinstructionFuser.fuse(m.getLabels(), m.getProgram());
+
 			System.out.println("Beginning program execution.");
 			m.execute();
 			System.out.println("Ending program execution.");
@@ -32,4 +90,49 @@ public class Main {
 			System.out.println("Error reading the program from " + args[0]);
 		}
 	}
+
+	/**
+	 * Translates a program and writes it to a file in the binary format of ProgramFile.
+	 *
+	 * @param source name of the file containing the program text.
+	 * @param target name of the file to write.
+	 */
+	private static void compile(String source, String target) {
+		try {
+			Program program = new Translator(source).translate(ForkJoinPool.commonPool());
+			ProgramFile.write(program, Path.of(target));
+			System.out.println("Wrote the program to " + target + "; it has " + program.size() + " instructions.");
+		} catch (IOException e) {
+			System.out.println("Error compiling the program from " + source + " to " + target);
+		}
+	}
+
+	/**
+	 * Translates and executes a batch of programs in parallel, printing the outcome of each.
+	 *
+	 * @param sources names of files containing program text, or of directories containing them.
+	 */
+	private static void runBatch(String... sources) {
+		List<Path> programs = new ArrayList<>();
+		try {
+			for (String source : sources) {
+				Path path = Path.of(source);
+				if (Files.isDirectory(path))
+					programs.addAll(BatchRunner.findPrograms(path));
+				else
+					programs.add(path);
+			}
+		} catch (IOException e) {
+			System.out.println("Error reading the directory " + e.getMessage());
+			return;
+		}
+
+		for (BatchRunner.Result result : new BatchRunner().run(programs)) {
+			if (result.succeeded())
+				System.out.println(result.source() + ": registers " + result.registers()
+						+ ", output " + Arrays.toString(result.output()));
+			else
+				System.out.println(result.source() + ": " + result.error());
+		}
+	}
 }
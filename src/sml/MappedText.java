@@ -0,0 +1,101 @@
+package sml;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The text of a source file, read in place from a memory-mapped buffer of its bytes.
+ * <p></p>
+ * Each byte is one char, so indexing and comparing the ASCII text of SML, its opcodes, register names and
+ * integers, costs no decoding or copying. Only toString decodes the bytes, as UTF-8, so that labels keep
+ * any characters outside ASCII.
+ *
+ * @author Roland Crompton
+ */
+final class MappedText implements CharSequence {
+
+    /**
+     * The bytes of the text
+     */
+    private final ByteBuffer bytes;
+
+    /**
+     * The index in bytes at which this text starts
+     */
+    private final int offset;
+
+    /**
+     * The number of bytes in this text
+     */
+    private final int length;
+
+    /**
+     * Constructs a MappedText over the given bytes.
+     *
+     * @param bytes the bytes of the text
+     * @param offset the index at which the text starts
+     * @param length the number of bytes in the text
+     */
+    private MappedText(ByteBuffer bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Returns a MappedText over all the bytes of the given buffer, from index 0 to its limit.
+     *
+     * @param bytes the bytes of the text
+     * @return the text
+     */
+    static MappedText of(ByteBuffer bytes) {
+        return new MappedText(bytes, 0, bytes.limit());
+    }
+
+    /**
+     * Maps the file at the given path into memory and returns its text.
+     * <p></p>
+     * The file is mapped read only, and stays mapped until the text is garbage collected.
+     *
+     * @param path the path of the file
+     * @return the text of the file
+     * @throws IOException if the file can't be opened, or is too large to be mapped as a single buffer
+     */
+    static MappedText map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException(path + " is too large to be translated.");
+            return of(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (bytes.get(offset + index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new MappedText(bytes, offset + start, end - start);
+    }
+
+    /**
+     * Decodes the text as UTF-8.
+     *
+     * @return the text as a String
+     */
+    @Override
+    public String toString() {
+        return StandardCharsets.UTF_8.decode(bytes.slice(offset, length)).toString();
+    }
+}
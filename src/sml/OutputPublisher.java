@@ -0,0 +1,189 @@
+package sml;
+
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+
+/**
+ * Publishes the values output by a Machine's program to a single Subscriber while the program is running.
+ * <p></p>
+ * The program is executed on the Executor once a Subscriber has subscribed, with each value output delivered to
+ * onNext on the thread executing it. When the Subscriber has no outstanding demand, the program is paused until more
+ * values are requested, so no values are buffered however slow the Subscriber, and however long the program runs.
+ * <p></p>
+ * When the program stops, whether it ran to the end or failed with an error, onComplete is called. If the
+ * subscription is cancelled, the program is stopped at its next output, and no more signals are sent.
+ * onError is called if the program throws an exception, or if a non-positive number of values is requested.
+ * <p></p>
+ * Only one Subscriber may subscribe, as the program is only executed once. The Machine must not be used by any other
+ * thread while its program is executing.
+ *
+ * @author Roland Crompton
+ */
+public final class OutputPublisher implements Flow.Publisher<Integer> {
+
+    /**
+     * The subscription of a Subscriber refused as the output is already published.
+     */
+    private static final Flow.Subscription NO_SUBSCRIPTION = new Flow.Subscription() {
+        @Override
+        public void request(long n) {
+        }
+
+        @Override
+        public void cancel() {
+        }
+    };
+
+    private final Machine machine;
+
+    private final Executor executor;
+
+    /**
+     * Returned by stop if the Subscriber is owed no more signals.
+     */
+    private static final Throwable CANCELLED = new CancellationException();
+
+    private boolean subscribed = false;
+
+    /**
+     * Constructs a publisher of the output of the Machine's program. See Machine.publishOutput.
+     *
+     * @param machine the Machine
+     * @param executor executes the program
+     */
+    OutputPublisher(Machine machine, Executor executor) {
+        this.machine = Objects.requireNonNull(machine);
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Integer> subscriber) {
+        Objects.requireNonNull(subscriber);
+        synchronized (this) {
+            if (subscribed) {
+                subscriber.onSubscribe(NO_SUBSCRIPTION);
+                subscriber.onError(new IllegalStateException("The output of this program is already published."));
+                return;
+            }
+            subscribed = true;
+        }
+        Subscription subscription = new Subscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        executor.execute(subscription::run);
+    }
+
+    /**
+     * The subscription of the Subscriber, which is also the OutputSink of the Machine while its program executes.
+     */
+    private final class Subscription implements Flow.Subscription, OutputSink {
+
+        private final Flow.Subscriber<? super Integer> subscriber;
+
+        /**
+         * The number of values requested but not yet delivered. Guarded by this.
+         */
+        private long demand = 0;
+
+        /**
+         * Whether no more signals are to be sent. Guarded by this.
+         */
+        private boolean cancelled = false;
+
+        /**
+         * The exception to be sent to onError in place of the next value. Guarded by this.
+         */
+        private Throwable error = null;
+
+        private Subscription(Flow.Subscriber<? super Integer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public synchronized void request(long n) {
+            if (cancelled)
+                return;
+            if (n <= 0 && error == null)
+                error = new IllegalArgumentException("A positive number of values must be requested, not " + n + ".");
+            demand = (demand + n < 0) ? Long.MAX_VALUE : demand + n;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void cancel() {
+            cancelled = true;
+            notifyAll();
+        }
+
+        /**
+         * Executes the program, sending its output to the Subscriber, then signals how it stopped.
+         */
+        private void run() {
+            OutputSink previous = machine.getOutput();
+            machine.setOutput(this);
+            try {
+                machine.execute();
+            } catch (CancellationException e) {
+                // Stopped by the Subscriber, which has been sent every signal it is owed
+                return;
+            } catch (RuntimeException | Error e) {
+                // A failure the Subscriber caused before the program threw takes precedence
+                Throwable failure = stop();
+                if (failure != CANCELLED)
+                    subscriber.onError((failure != null) ? failure : e);
+                return;
+            } finally {
+                machine.setOutput(previous);
+            }
+            Throwable failure = stop();
+            if (failure == null)
+                subscriber.onComplete();
+            else if (failure != CANCELLED)
+                subscriber.onError(failure);
+        }
+
+        /**
+         * Waits until the Subscriber has requested a value, then delivers the value.
+         *
+         * @param value the value output
+         * @throws CancellationException if the subscription is cancelled, or has failed, to stop the program
+         */
+        @Override
+        public void accept(int value) {
+            boolean deliver;
+            synchronized (this) {
+                try {
+                    while (demand == 0 && !cancelled && error == null)
+                        wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    cancelled = true;
+                }
+                deliver = !cancelled && error == null;
+                if (deliver)
+                    demand--;
+            }
+            if (!deliver) {
+                Throwable failure = stop();
+                if (failure != CANCELLED)
+                    subscriber.onError(failure);
+                throw new CancellationException();
+            }
+            subscriber.onNext(value);
+        }
+
+        /**
+         * Stops sending signals.
+         *
+         * @return null if the Subscriber is owed a final signal, the exception it is owed if it is owed onError,
+         * or CANCELLED if it is owed nothing
+         */
+        private synchronized Throwable stop() {
+            if (cancelled)
+                return CANCELLED;
+            cancelled = true;
+            return error;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package sml;
+
+import java.util.Objects;
+import java.util.function.IntConsumer;
+
+/**
+ * Where a Machine sends the values output by its program, in order.
+ * <p></p>
+ * A sink may hold values back, for example to write them to the console in batches, so every sink is flushed once
+ * the program has stopped, whether it ran to the end, failed with an error or threw an exception.
+ * <p></p>
+ * The sinks provided are:
+ * <ul>
+ *     <li>standardOutput: a buffered writer of each value on its own line of the console</li>
+ *     <li>IntCollector: an in-memory collector of the values as ints, without boxing</li>
+ *     <li>DISCARD: a sink ignoring every value, for benchmarking</li>
+ * </ul>
+ * Any IntConsumer may also be used as a sink. See of.
+ *
+ * @author Roland Crompton
+ */
+public interface OutputSink extends IntConsumer {
+
+    /**
+     * A sink ignoring every value.
+     */
+    OutputSink DISCARD = value -> {};
+
+    /**
+     * Sends any values held back by this sink on to their destination.
+     * Does nothing by default.
+     */
+    default void flush() {
+    }
+
+    /**
+     * Returns a new sink printing each value on its own line of the console, as System.out.println would.
+     * <p></p>
+     * Values are held in a buffer, and written to System.out in batches, and when the sink is flushed.
+     * Each Machine should have its own.
+     *
+     * @return the sink
+     */
+    static OutputSink standardOutput() {
+        return new StandardOutputSink();
+    }
+
+    /**
+     * Returns the given IntConsumer as a sink, which has nothing to flush unless it is already a sink.
+     *
+     * @param consumer the not null IntConsumer
+     * @return the sink
+     */
+    static OutputSink of(IntConsumer consumer) {
+        Objects.requireNonNull(consumer);
+        return (consumer instanceof OutputSink sink) ? sink : consumer::accept;
+    }
+}
@@ -0,0 +1,148 @@
+package sml;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * An immutable, linked SML program: its Instructions and its labels.
+ * <p></p>
+ * A Program holds no state of any execution of it, so one Program may be shared by any number of Machines, including
+ * Machines running on different threads. Each Machine created with newMachine is a cheap context holding the
+ * registers and program counter of a single run.
+ *
+ * @author Roland Crompton
+ */
+public final class Program {
+
+    /**
+     * The linked Instructions of the program. Unmodifiable.
+     */
+    private final List<Instruction> instructions;
+
+    /**
+     * The labels of the program. Unmodifiable.
+     */
+    private final Labels labels;
+
+    /**
+     * Forms derived from this Program by ExecutionEngines, such as lowered or compiled programs, keyed by their type.
+     * Each is derived once and shared by every run of the Program.
+     */
+    private final Map<Class<?>, Object> derived = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a Program from copies of the given labels and Instructions, linking the Instructions.
+     *
+     * @param labels the labels of the program
+     * @param program the Instructions of the program
+     * @throws IllegalArgumentException if an Instruction refers to a label that does not exist
+     */
+    public Program(Labels labels, List<Instruction> program) {
+        this.labels = labels.unmodifiableCopy();
+        List<Instruction> linked = new ArrayList<>(program);
+        if (!this.labels.link(linked))
+            throw new IllegalArgumentException("Program refers to a label that does not exist.");
+        this.instructions = List.copyOf(linked);
+    }
+
+    /**
+     * Returns the Instructions of this Program.
+     *
+     * @return an unmodifiable list of linked Instructions
+     */
+    public List<Instruction> getInstructions() {
+        return instructions;
+    }
+
+    /**
+     * Returns the labels of this Program.
+     *
+     * @return an unmodifiable Labels
+     */
+    public Labels getLabels() {
+        return labels;
+    }
+
+    /**
+     * Returns the number of Instructions in this Program.
+     *
+     * @return the number of Instructions
+     */
+    public int size() {
+        return instructions.size();
+    }
+
+    /**
+     * Creates a new Machine that runs this Program, with its own Registers.
+     *
+     * @return a Machine sharing this Program
+     */
+    public Machine newMachine() {
+        return new Machine(this, new Registers());
+    }
+
+    /**
+     * Executes this Program on a new Machine.
+     *
+     * @return the Registers of the Machine once execution stopped
+     */
+    public Registers execute() {
+        Machine machine = newMachine();
+        machine.execute();
+        return machine.getRegisters();
+    }
+
+    /**
+     * Returns the form of this Program of the given type, deriving it the first time it is requested.
+     * Intended for ExecutionEngines, so that each run of a shared Program doesn't repeat work such as lowering or
+     * compiling it.
+     *
+     * @param type the type of the derived form, used as its key
+     * @param derivation a function deriving the form from this Program. Must not return null
+     * @param <T> the type of the derived form
+     * @return the derived form
+     */
+    public <T> T derive(Class<T> type, Function<Program, T> derivation) {
+        return type.cast(derived.computeIfAbsent(type, t -> derivation.apply(this)));
+    }
+
+    /**
+     * String representation of the program.
+     *
+     * @return pretty formatted version of the code.
+     */
+    @Override
+    public String toString() {
+        return instructions.stream()
+                .map(Instruction::toString)
+                .collect(Collectors.joining("\n"));
+    }
+
+    /**
+     * Checks if two Programs are equal. Two Programs are equal if their labels and Instructions are the same.
+     *
+     * @param o another object against which this Program will be tested
+     * @return false if o is not a Program or is not equal to this Program. True otherwise
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof Program other) {
+            return labels.equals(other.labels) && instructions.equals(other.instructions);
+        }
+        return false;
+    }
+
+    /**
+     * Returns a hash code for this Program, based on its labels and Instructions.
+     *
+     * @return a hash code for this Program
+     */
+    @Override
+    public int hashCode() {
+        return 31 * labels.hashCode() + instructions.hashCode();
+    }
+}
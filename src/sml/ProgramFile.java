@@ -0,0 +1,337 @@
+package sml;
+
+import sml.instruction.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes translated Programs in a compact binary format, by convention in files with the extension
+ * ".smlc".
+ * <p></p>
+ * A Program read from this format needs neither the text of the program to be parsed nor the Instructions listed in
+ * instructions.xml to be loaded, so starting a program from it is much faster than translating it. The Instructions of
+ * the SML language, and their fused forms, are constructed directly. Any other Instruction is stored as its text, and
+ * translated when it is read.
+ * <p></p>
+ * The format is a header followed by a body. All numbers are big-endian ints unless stated otherwise.
+ * <ul>
+ *     <li>Header: the magic number "SMLC"; the version, a short; a short reserved for flags, always 0;
+ *     the number of Instructions; the number of labels; the number of strings;
+ *     the CRC32 checksum of the rest of the header and the body</li>
+ *     <li>Strings: for each string, the number of bytes of its UTF-8 encoding, followed by those bytes</li>
+ *     <li>Labels: for each label, the index of its string, then its address</li>
+ *     <li>Instructions: for each Instruction in order, a kind followed by three operands. Registers are given as
+ *     the ordinals of their Registers, and labels and text as the index of their string. Unused operands are 0.</li>
+ * </ul>
+ *
+ * @author Roland Crompton
+ */
+public final class ProgramFile {
+
+    /**
+     * The extension of the name of a file in this format.
+     */
+    public static final String EXTENSION = ".smlc";
+
+    /**
+     * "SMLC" in ASCII.
+     */
+    private static final int MAGIC = 0x534D4C43;
+
+    /**
+     * The version of the format written, and the only version that can be read.
+     */
+    private static final short VERSION = 1;
+
+    /**
+     * The number of bytes in the header.
+     */
+    private static final int HEADER_SIZE = 24;
+
+    // The kinds of Instruction and the operands they use
+    private static final int ADD = 0;      // result, source
+    private static final int SUB = 1;      // result, source
+    private static final int MUL = 2;      // result, source
+    private static final int DIV = 3;      // result, source
+    private static final int MOV = 4;      // result, value
+    private static final int OUT = 5;      // source
+    private static final int JNZ = 6;      // source, target label
+    private static final int SUB_JNZ = 7;  // result, source, target label
+    private static final int MOV_ADD = 8;  // temporary, value, result
+    private static final int TEXT = 9;     // text of the Instruction
+
+    private static final Registers.Register[] REGISTERS = Registers.Register.values();
+
+    private ProgramFile() {
+    }
+
+    /**
+     * Writes the Program to a file in this format.
+     *
+     * @param program the Program
+     * @param path the file to write
+     * @throws IOException if the file can't be written
+     */
+    public static void write(Program program, Path path) throws IOException {
+        Files.write(path, toBytes(program));
+    }
+
+    /**
+     * Encodes the Program in this format.
+     *
+     * @param program the Program
+     * @return the encoded Program
+     */
+    public static byte[] toBytes(Program program) {
+        List<Instruction> instructions = program.getInstructions();
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(instructions.size() * 16);
+        try (DataOutputStream body = new DataOutputStream(bytes)) {
+            int[] encoded = new int[instructions.size() * 4];
+            List<int[]> labels = new ArrayList<>();
+            for (int address = 0; address < instructions.size(); address++) {
+                Instruction instruction = instructions.get(address);
+                if (instruction.getLabel() != null)
+                    labels.add(new int[] {index(strings, instruction.getLabel()), address});
+                encode(instruction, strings, encoded, address * 4);
+            }
+
+            for (String string : strings.keySet()) {
+                byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+                body.writeInt(utf8.length);
+                body.write(utf8);
+            }
+            for (int[] label : labels) {
+                body.writeInt(label[0]);
+                body.writeInt(label[1]);
+            }
+            for (int value : encoded)
+                body.writeInt(value);
+
+            byte[] encodedBody = bytes.toByteArray();
+            ByteBuffer file = ByteBuffer.allocate(HEADER_SIZE + encodedBody.length);
+            file.putInt(MAGIC)
+                    .putShort(VERSION)
+                    .putShort((short) 0)
+                    .putInt(instructions.size())
+                    .putInt(labels.size())
+                    .putInt(strings.size())
+                    .putInt(0)
+                    .put(encodedBody);
+            file.putInt(HEADER_SIZE - 4, checksum(file));
+            return file.array();
+        } catch (IOException e) {
+            // A ByteArrayOutputStream can't fail to be written to
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads a Program from a file in this format.
+     *
+     * @param path the file to read
+     * @return the Program
+     * @throws IOException if the file can't be read, is not in this format, or is corrupt
+     */
+    public static Program read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException(path + " is too large to be read.");
+            return fromBytes(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Decodes a Program encoded in this format, from the position of the buffer to its limit.
+     *
+     * @param bytes the encoded Program
+     * @return the Program
+     * @throws IOException if the bytes are not in this format, or are corrupt
+     */
+    public static Program fromBytes(ByteBuffer bytes) throws IOException {
+        try {
+            ByteBuffer file = bytes.slice();
+            if (file.remaining() < HEADER_SIZE || file.getInt() != MAGIC)
+                throw new IOException("Not an SML program file.");
+            short version = file.getShort();
+            if (version != VERSION)
+                throw new IOException("Unsupported SML program file version " + version + ".");
+            file.getShort();
+            int instructionCount = file.getInt();
+            int labelCount = file.getInt();
+            int stringCount = file.getInt();
+            if (file.getInt() != checksum(file))
+                throw new IOException("SML program file is corrupt: its checksum does not match.");
+            if (instructionCount < 0 || labelCount < 0 || stringCount < 0
+                    || instructionCount * 16L + labelCount * 8L + stringCount * 4L > file.remaining())
+                throw new IOException("SML program file is corrupt.");
+
+            String[] strings = new String[stringCount];
+            for (int i = 0; i < stringCount; i++) {
+                byte[] utf8 = new byte[file.getInt()];
+                file.get(utf8);
+                strings[i] = new String(utf8, StandardCharsets.UTF_8);
+            }
+
+            Labels labels = new Labels();
+            String[] labelAt = new String[instructionCount];
+            for (int i = 0; i < labelCount; i++) {
+                String label = strings[file.getInt()];
+                int address = file.getInt();
+                if (address < 0 || address >= instructionCount || !labels.addLabel(label, address))
+                    throw new IOException("SML program file is corrupt: bad label " + label + ".");
+                labelAt[address] = label;
+            }
+
+            Instruction[] instructions = new Instruction[instructionCount];
+            for (int address = 0; address < instructionCount; address++)
+                instructions[address] = decode(labelAt[address], file.getInt(), file.getInt(), file.getInt(),
+                        file.getInt(), strings);
+            return new Program(labels, Arrays.asList(instructions));
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException
+                 | NegativeArraySizeException e) {
+            throw new IOException("SML program file is corrupt.", e);
+        }
+    }
+
+    /**
+     * Encodes an Instruction as a kind and three operands.
+     *
+     * @param instruction the Instruction
+     * @param strings the strings of the file so far, to which any string the Instruction uses is added
+     * @param encoded the array to write the kind and operands to
+     * @param offset the index in encoded of the kind
+     */
+    private static void encode(Instruction instruction, Map<String, Integer> strings, int[] encoded, int offset) {
+        Class<?> type = instruction.getClass();
+        int kind;
+        int a = 0, b = 0, c = 0;
+        if (type == AddInstruction.class) {
+            AddInstruction add = (AddInstruction) instruction;
+            kind = ADD;
+            a = Registers.ordinal(add.getResult());
+            b = Registers.ordinal(add.getSource());
+        } else if (type == SubInstruction.class || type == MulInstruction.class || type == DivInstruction.class) {
+            BiRegisterInstruction arithmetic = (BiRegisterInstruction) instruction;
+            kind = (type == SubInstruction.class) ? SUB : (type == MulInstruction.class) ? MUL : DIV;
+            a = Registers.ordinal(arithmetic.getResult());
+            b = Registers.ordinal(arithmetic.getSource());
+        } else if (type == MovInstruction.class) {
+            MovInstruction mov = (MovInstruction) instruction;
+            kind = MOV;
+            a = Registers.ordinal(mov.getResult());
+            b = mov.getValue();
+        } else if (type == OutInstruction.class) {
+            kind = OUT;
+            a = Registers.ordinal(((OutInstruction) instruction).getSource());
+        } else if (JnzInstruction.isJnz(instruction)) {
+            JnzInstruction jnz = (JnzInstruction) instruction;
+            kind = JNZ;
+            a = Registers.ordinal(jnz.getSource());
+            b = index(strings, jnz.getTargetLabel());
+        } else if (type == SubJnzInstruction.class) {
+            SubJnzInstruction subJnz = (SubJnzInstruction) instruction;
+            kind = SUB_JNZ;
+            a = Registers.ordinal(subJnz.getResult());
+            b = Registers.ordinal(subJnz.getSource());
+            c = index(strings, subJnz.getTargetLabel());
+        } else if (type == MovAddInstruction.class) {
+            MovAddInstruction movAdd = (MovAddInstruction) instruction;
+            kind = MOV_ADD;
+            a = Registers.ordinal(movAdd.getTemporary());
+            b = movAdd.getValue();
+            c = Registers.ordinal(movAdd.getResult());
+        } else {
+            kind = TEXT;
+            a = index(strings, instruction.toString());
+        }
+        encoded[offset] = kind;
+        encoded[offset + 1] = a;
+        encoded[offset + 2] = b;
+        encoded[offset + 3] = c;
+    }
+
+    /**
+     * Constructs an Instruction from its kind and operands.
+     *
+     * @param label the label of the Instruction (can be null)
+     * @param kind the kind of Instruction
+     * @param a the first operand
+     * @param b the second operand
+     * @param c the third operand
+     * @param strings the strings of the file
+     * @return the Instruction
+     * @throws IOException if the kind or an operand is not valid
+     */
+    private static Instruction decode(String label, int kind, int a, int b, int c, String[] strings)
+            throws IOException {
+        return switch (kind) {
+            case ADD -> new AddInstruction(label, register(a), register(b));
+            case SUB -> new SubInstruction(label, register(a), register(b));
+            case MUL -> new MulInstruction(label, register(a), register(b));
+            case DIV -> new DivInstruction(label, register(a), register(b));
+            case MOV -> new MovInstruction(label, register(a), b);
+            case OUT -> new OutInstruction(label, register(a));
+            case JNZ -> new JnzInstruction(label, register(a), strings[b]);
+            case SUB_JNZ -> new SubJnzInstruction(label, register(a), register(b), strings[c]);
+            case MOV_ADD -> new MovAddInstruction(label, register(a), b, register(c));
+            case TEXT -> translate(strings[a]);
+            default -> throw new IOException("SML program file is corrupt: unknown instruction kind " + kind + ".");
+        };
+    }
+
+    /**
+     * Translates the text of an Instruction that has no binary form.
+     *
+     * @param text the text of the Instruction, including its label
+     * @return the Instruction
+     * @throws IOException if the text is not a single valid Instruction
+     */
+    private static Instruction translate(String text) throws IOException {
+        List<Instruction> instructions = new ArrayList<>();
+        new Translator(Stream.of(text)).translate(Integer.MAX_VALUE, instructions::addAll);
+        // A loop replaced by LoopOptimiser is stored as the text of the loop
+        Instruction loop = (instructions.size() > 1) ? CountedLoopInstruction.of(instructions) : null;
+        if (loop != null)
+            return loop;
+        if (instructions.size() != 1)
+            throw new IOException("SML program file is corrupt: bad instruction " + text + ".");
+        return instructions.get(0);
+    }
+
+    private static Registers.Register register(int ordinal) {
+        return REGISTERS[ordinal];
+    }
+
+    /**
+     * Computes the checksum of an encoded Program: the CRC32 of everything but the checksum itself.
+     *
+     * @param file the encoded Program, with its limit at the end of the body
+     * @return the checksum
+     */
+    private static int checksum(ByteBuffer file) {
+        CRC32 crc = new CRC32();
+        crc.update(file.duplicate().position(0).limit(HEADER_SIZE - 4));
+        crc.update(file.duplicate().position(HEADER_SIZE));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Returns the index of a string in the strings of the file, adding it if it is not already there.
+     */
+    private static int index(Map<String, Integer> strings, String string) {
+        return strings.computeIfAbsent(string, s -> strings.size());
+    }
+}
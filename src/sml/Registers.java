@@ -13,11 +13,6 @@ import java.util.stream.Collectors;
  */
 public final class Registers {
 
-    /**
-     * The HashMap in which the Registers and their corresponding integer values are stored.
-     */
-    private final Map<Register, Integer> registers = new HashMap<>();
-
     /**
      * Implementation of interface RegisterName.
      */
@@ -25,6 +20,21 @@ public final class Registers {
         EAX, EBX, ECX, EDX, ESP, EBP, ESI, EDI;
     }
 
+    /**
+     * The number of Registers.
+     */
+    public static final int SIZE = Register.values().length;
+
+    /**
+     * A cached copy of Register.values(), so that it isn't cloned whenever the Registers are iterated over.
+     */
+    private static final Register[] REGISTERS = Register.values();
+
+    /**
+     * The values of the Registers, stored densely and indexed by the ordinal of their Register.
+     */
+    private final int[] registers = new int[SIZE];
+
     /**
      * Constructs a new instance of Registers with the value of all Registers set to zero.
      */
@@ -36,8 +46,7 @@ public final class Registers {
      * Sets the value of all Registers to zero.
      */
     public void clear() {
-        for (Register register : Register.values())
-            registers.put(register, 0);
+        Arrays.fill(registers, 0);
     }
 
     /**
@@ -47,7 +56,7 @@ public final class Registers {
      * @param value new value
      */
     public void set(RegisterName register, int value) {
-        registers.put((Register)register, value);
+        registers[((Register)register).ordinal()] = value;
     }
 
     /**
@@ -57,7 +66,77 @@ public final class Registers {
      * @return value
      */
     public int get(RegisterName register) {
-        return registers.get((Register)register);
+        return registers[((Register)register).ordinal()];
+    }
+
+    /**
+     * Sets the register with the given ordinal to the value.
+     * <p></p>
+     * Intended for execution hot paths that have already resolved their RegisterNames to ordinals.
+     *
+     * @param ordinal the ordinal of a Register
+     * @param value new value
+     */
+    public void set(int ordinal, int value) {
+        registers[ordinal] = value;
+    }
+
+    /**
+     * Returns the value stored in the register with the given ordinal.
+     * <p></p>
+     * Intended for execution hot paths that have already resolved their RegisterNames to ordinals.
+     *
+     * @param ordinal the ordinal of a Register
+     * @return value
+     */
+    public int get(int ordinal) {
+        return registers[ordinal];
+    }
+
+    /**
+     * Copies the values of all Registers into an array, indexed by the ordinals of their Registers.
+     *
+     * @param values an array with room for a value for each Register
+     */
+    public void getAll(int[] values) {
+        System.arraycopy(registers, 0, values, 0, registers.length);
+    }
+
+    /**
+     * Sets the values of all Registers from an array indexed by the ordinals of their Registers.
+     *
+     * @param values an array containing a value for each Register
+     */
+    public void setAll(int[] values) {
+        System.arraycopy(values, 0, registers, 0, registers.length);
+    }
+
+    /**
+     * Returns the ordinal of the Register corresponding to the given RegisterName,
+     * for use with the ordinal-based accessors.
+     *
+     * @param register register name
+     * @return the ordinal of the Register
+     */
+    public static int ordinal(RegisterName register) {
+        return ((Register)register).ordinal();
+    }
+
+    /**
+     * Returns the Register with the given name.
+     * <p></p>
+     * Equivalent to Register.valueOf, but compares the name in place, so that a token can be looked up
+     * without first being copied into a String.
+     *
+     * @param name the name of a Register
+     * @return the Register
+     * @throws IllegalArgumentException if there is no Register with the given name
+     */
+    public static Register forName(CharSequence name) {
+        for (Register register : REGISTERS)
+            if (register.name().contentEquals(name))
+                return register;
+        throw new IllegalArgumentException("No register named " + name);
     }
 
     /**
@@ -72,7 +151,7 @@ public final class Registers {
     @Override
     public boolean equals(Object o) {
         if (o instanceof Registers other) {
-            return registers.equals(other.registers);
+            return Arrays.equals(registers, other.registers);
         }
         return false;
     }
@@ -86,7 +165,7 @@ public final class Registers {
      */
     @Override
     public int hashCode() {
-        return registers.hashCode();
+        return Arrays.hashCode(registers);
     }
 
     /**
@@ -98,9 +177,8 @@ public final class Registers {
      */
     @Override
     public String toString() {
-        return registers.entrySet().stream()
-                .sorted(Map.Entry.comparingByKey())
-                .map(e -> e.getKey() + " = " + e.getValue())
+        return Arrays.stream(REGISTERS)
+                .map(r -> r + " = " + registers[r.ordinal()])
                 .collect(Collectors.joining(", ", "[", "]")) ;
     }
 }
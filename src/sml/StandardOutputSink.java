@@ -0,0 +1,45 @@
+package sml;
+
+/**
+ * A sink printing each value on its own line of System.out, buffering the text so that System.out is only locked
+ * and flushed once per batch of values rather than once per value.
+ *
+ * @author Roland Crompton
+ */
+final class StandardOutputSink implements OutputSink {
+
+    /**
+     * The number of chars buffered before they are written.
+     */
+    private static final int BATCH_SIZE = 1 << 13;
+
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    /**
+     * The text of the values not yet written
+     */
+    private final StringBuilder buffer = new StringBuilder(BATCH_SIZE + 16);
+
+    @Override
+    public void accept(int value) {
+        buffer.append(value).append(LINE_SEPARATOR);
+        if (buffer.length() >= BATCH_SIZE)
+            write();
+    }
+
+    /**
+     * Writes the buffered values and flushes System.out.
+     */
+    @Override
+    public void flush() {
+        write();
+        System.out.flush();
+    }
+
+    private void write() {
+        if (buffer.length() > 0) {
+            System.out.append(buffer);
+            buffer.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package sml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of translated Programs, keyed by the content of their source files.
+ * <p></p>
+ * The key of a source file is the SHA-256 hash of its bytes together with the bytes of instructions.xml, so a
+ * Program is found again whatever the name of its file, and every Program translated with a different set of
+ * Instructions is missed.
+ * <p></p>
+ * The cache has two tiers: the most recently used Programs are kept in memory, and, optionally, every Program is
+ * also written to a directory in the format of ProgramFile, so that it can be found by later runs.
+ * <p></p>
+ * Safe to use from any number of threads at once. Two threads missing the same source at once may both translate
+ * it.
+ *
+ * @author Roland Crompton
+ */
+public final class TranslationCache {
+
+    /**
+     * Translates a source file on a miss.
+     */
+    @FunctionalInterface
+    interface Translation {
+        Program translate() throws IOException;
+    }
+
+    /**
+     * The hash of instructions.xml, which begins the hash of every source.
+     */
+    private final byte[] instructionsHash;
+
+    /**
+     * The Programs kept in memory, by key, in order from least to most recently used.
+     */
+    private final Map<String, Program> memory;
+
+    /**
+     * The directory Programs are written to. Null if Programs are only kept in memory
+     */
+    private final Path directory;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+
+    private final AtomicLong diskHits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Constructs a cache keeping Programs only in memory.
+     *
+     * @param capacity the largest number of Programs to keep in memory
+     */
+    public TranslationCache(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * Constructs a cache keeping the most recently used Programs in memory, and writing every Program to a
+     * directory.
+     *
+     * @param capacity the largest number of Programs to keep in memory
+     * @param directory the directory to write Programs to, which is created if needed. May be null, to keep Programs
+     *                  only in memory
+     * @throws IllegalArgumentException if capacity is not positive
+     * @throws UncheckedIOException if the directory can't be created
+     */
+    public TranslationCache(int capacity, Path directory) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("The capacity must be positive.");
+        this.memory = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Program> eldest) {
+                return size() > capacity;
+            }
+        };
+        this.directory = directory;
+        this.instructionsHash = hashInstructions();
+        if (directory != null) {
+            try {
+                Files.createDirectories(directory);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Returns the key of a source file: the hash of its content and of instructions.xml, in hexadecimal.
+     *
+     * @param source the source file
+     * @return the key
+     * @throws IOException if the file can't be read
+     */
+    public String key(Path source) throws IOException {
+        MessageDigest digest = sha256();
+        digest.update(instructionsHash);
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+            while (channel.read(buffer) >= 0) {
+                digest.update(buffer.flip());
+                buffer.clear();
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Returns the Program translated from the source file, looking it up in memory, then on disk, and translating
+     * it only if it is in neither.
+     *
+     * @param source the source file
+     * @param translation translates the source file on a miss
+     * @return the Program
+     * @throws IOException if the source can't be read or translated
+     */
+    Program get(Path source, Translation translation) throws IOException {
+        String key = key(source);
+        Program program;
+        synchronized (memory) {
+            program = memory.get(key);
+        }
+        if (program != null) {
+            memoryHits.incrementAndGet();
+            return program;
+        }
+
+        program = readFromDisk(key);
+        if (program != null) {
+            diskHits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            program = translation.translate();
+            writeToDisk(key, program);
+        }
+        synchronized (memory) {
+            memory.put(key, program);
+        }
+        return program;
+    }
+
+    /**
+     * Returns the number of lookups found in memory.
+     *
+     * @return the number of memory hits
+     */
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    /**
+     * Returns the number of lookups not found in memory, but found on disk.
+     *
+     * @return the number of disk hits
+     */
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    /**
+     * Returns the number of lookups found in neither tier, so that the source had to be translated.
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Removes every Program kept in memory. Programs written to disk are kept.
+     */
+    public void clear() {
+        synchronized (memory) {
+            memory.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TranslationCache[memory hits = " + getMemoryHits() + ", disk hits = " + getDiskHits()
+                + ", misses = " + getMisses() + "]";
+    }
+
+    /**
+     * Reads the Program with the given key from disk.
+     *
+     * @param key the key
+     * @return the Program, or null if it has not been written, or can't be read
+     */
+    private Program readFromDisk(String key) {
+        if (directory == null)
+            return null;
+        Path file = directory.resolve(key + ProgramFile.EXTENSION);
+        if (!Files.exists(file))
+            return null;
+        try {
+            return ProgramFile.read(file);
+        } catch (IOException e) {
+            // Corrupt or written in an older format: translate it again and replace it
+            return null;
+        }
+    }
+
+    /**
+     * Writes the Program with the given key to disk, replacing the file atomically, so that a reader never sees it
+     * half written. A Program that can't be written is only kept in memory.
+     *
+     * @param key the key
+     * @param program the Program
+     */
+    private void writeToDisk(String key, Program program) {
+        if (directory == null)
+            return;
+        try {
+            Path temporary = Files.createTempFile(directory, key, ".tmp");
+            try {
+                ProgramFile.write(program, temporary);
+                Path file = directory.resolve(key + ProgramFile.EXTENSION);
+                try {
+                    Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to write translated program to " + directory + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Hashes the instructions.xml that InstructionFactory reads.
+     *
+     * @return the hash
+     * @throws IllegalStateException if instructions.xml can't be read
+     */
+    private static byte[] hashInstructions() {
+        try (InputStream instructions = TranslationCache.class.getClassLoader()
+                .getResourceAsStream("instructions.xml")) {
+            if (instructions == null)
+                throw new IllegalStateException("instructions.xml not found.");
+            return sha256().digest(instructions.readAllBytes());
+        } catch (IOException e) {
+            throw new IllegalStateException("instructions.xml can't be read.", e);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,16 +1,39 @@
 package sml;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 
+import java.nio.CharBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 /**
  * The translator of a <b>S</b><b>M</b>al<b>L</b> program.
- * Takes a text file on construction containing an SML program
+ * Takes a source on construction containing an SML program
  * to be translated, converting it into Instructions executable by a Machine.
+ * <p></p>
+ * The source may be a file, a Reader, an InputStream or a Stream of lines.
+ * A file is memory-mapped and split into tokens in place by a Lexer, so that only the labels of the
+ * program and the Instructions themselves are allocated. Any other source is read through a window of a
+ * bounded number of chars, so that a program can be piped in without ever holding all of its text.
+ * A Translator from a Reader, InputStream or Stream can only be read once.
+ * <p></p>
+ * The Instructions can be received all at once, or in chunks as they are translated. See translate(int,
+ * Consumer). A file can also be split into chunks of lines that are translated in parallel. See
+ * readAndTranslate(Labels, List, ForkJoinPool).
+ * <p></p>
+ * A Translator from a file may be given a TranslationCache, so that a file whose content has already been translated
+ * is not translated again.
  *
  * @author ...
  * @author Roland Crompton
@@ -18,14 +41,137 @@ import java.util.stream.Stream;
 public final class Translator {
 
     /**
-     * The source file of the SML code
+     * The number of chars of text read from a Reader at a time.
+     * The window only grows beyond this to hold a single line longer than it.
      */
-    private final String fileName;
+    private static final int WINDOW_SIZE = 1 << 16;
 
     /**
-     * line contains the characters in the current line that's not been processed yet
+     * The number of Instructions in each chunk when the whole program is wanted at once.
      */
-    private String line = "";
+    private static final int DEFAULT_CHUNK_SIZE = 1 << 12;
+
+    /**
+     * The number of chars of a file in each chunk translated in parallel.
+     * Each chunk is extended to the end of its last line.
+     */
+    private static final int PARALLEL_CHUNK_SIZE = 1 << 20;
+
+    /**
+     * Receives text of the program. Unlike Consumer, it may throw an IOException.
+     */
+    @FunctionalInterface
+    private interface TextConsumer {
+        void accept(CharSequence text) throws IOException;
+    }
+
+    /**
+     * Where the text of the SML program comes from.
+     */
+    @FunctionalInterface
+    private interface Source {
+
+        /**
+         * Passes the text of the program, one or more whole lines at a time and in order, to the consumer.
+         *
+         * @param consumer the consumer of the text
+         * @throws IOException if the text can't be read
+         */
+        void read(TextConsumer consumer) throws IOException;
+    }
+
+    /**
+     * Translates text into Instructions, collecting them into chunks.
+     */
+    private static final class Translation implements TextConsumer {
+
+        private final InstructionFactory factory = InstructionFactory.getInstance();
+
+        private final Lexer lexer = new Lexer();
+
+        private final Labels labels;
+
+        private final int chunkSize;
+
+        private final Consumer<? super List<Instruction>> consumer;
+
+        /**
+         * The Instructions translated since the last chunk was passed to the consumer
+         */
+        private List<Instruction> chunk = new ArrayList<>();
+
+        /**
+         * The address of the next Instruction
+         */
+        private int address = 0;
+
+        private Translation(Labels labels, int chunkSize, Consumer<? super List<Instruction>> consumer) {
+            this.labels = labels;
+            this.chunkSize = chunkSize;
+            this.consumer = consumer;
+        }
+
+        /**
+         * Translates each line of the text into an Instruction, adding its label to the labels.
+         *
+         * @param text whole lines of the program
+         * @throws IOException if a line is not a valid Instruction, or repeats a label
+         */
+        @Override
+        public void accept(CharSequence text) throws IOException {
+            lexer.reset(text);
+            while (lexer.nextLine()) {
+                String label = lexer.getLabel();
+                CharSequence opcode = lexer.getOpcode();
+
+                Instruction instruction = (opcode != null)
+                        ? factory.getInstruction(label, opcode, lexer.getParameters())
+                        : null;
+                if (instruction == null)
+                    throw new IOException();
+                if (label != null)
+                    if (!labels.addLabel(label, address))
+                        throw new IOException();
+                address++;
+
+                chunk.add(instruction);
+                if (chunk.size() == chunkSize) {
+                    consumer.accept(chunk);
+                    chunk = new ArrayList<>();
+                }
+            }
+        }
+
+        /**
+         * Passes the last, partly filled, chunk to the consumer.
+         */
+        private void finish() {
+            if (!chunk.isEmpty())
+                consumer.accept(chunk);
+            chunk = new ArrayList<>();
+        }
+    }
+
+    /**
+     * The Instructions and Labels of a chunk of a program, translated on its own.
+     * The addresses of the Labels are relative to the start of the chunk.
+     */
+    private record Chunk(List<Instruction> instructions, Labels labels) {}
+
+    /**
+     * The source of the SML code
+     */
+    private final Source source;
+
+    /**
+     * The source file of the SML code, if it was read from a file. Otherwise null
+     */
+    private final Path path;
+
+    /**
+     * The cache of translated files to use. Null if none
+     */
+    private TranslationCache cache;
 
     /**
      * Constructs a Translator taking the String fileName
@@ -33,7 +179,51 @@ public final class Translator {
      * @param fileName the source file of the SML program.
      */
     public Translator(String fileName) {
-        this.fileName =  fileName;
+        this(Path.of(fileName));
+    }
+
+    /**
+     * Constructs a Translator reading the SML program from the file at the given path.
+     * @param path the source file of the SML program
+     */
+    public Translator(Path path) {
+        this.source = consumer -> consumer.accept(MappedText.map(path));
+        this.path = path;
+    }
+
+    /**
+     * Constructs a Translator reading the SML program from a Reader.
+     * The Reader is read to its end, but not closed.
+     * @param reader the Reader of the SML program
+     */
+    public Translator(Reader reader) {
+        this.source = consumer -> readWindows(reader, consumer);
+        this.path = null;
+    }
+
+    /**
+     * Constructs a Translator reading the SML program from an InputStream of UTF-8 text.
+     * The InputStream is read to its end, but not closed.
+     * @param input the InputStream of the SML program
+     */
+    public Translator(InputStream input) {
+        this(new InputStreamReader(input, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Constructs a Translator reading the SML program from a Stream of its lines, each without its line
+     * separator.
+     * @param lines the lines of the SML program
+     */
+    public Translator(Stream<String> lines) {
+        this.source = consumer -> {
+            for (Iterator<String> iterator = lines.iterator(); iterator.hasNext();) {
+                String line = iterator.next();
+                // An empty line is still a line, and an error, as it is in a file
+                consumer.accept(line.isEmpty() ? "\n" : line);
+            }
+        };
+        this.path = null;
     }
 
 
@@ -44,92 +234,293 @@ public final class Translator {
     /**
      * Translates the SML program in the file into a series of Instructions executable by
      * a Machine. Instructions are stored in program parameter, and Labels in the labels parameter.
+     * <p></p>
+     * Once the whole program has been read, it is linked, resolving every label referred to by
+     * an Instruction into an address. See Labels.link.
      *
      * @param labels an instance of Labels where the labels of
      *               instructions in the program will be stored
      * @param program a list of Instructions where the translated Instructions will be stored
      * @throws IOException if something goes wrong in the process of reading the file,
      * including finding errors in the formatting of the SML file
+     * and references to labels that do not exist
      */
     public void readAndTranslate(Labels labels, List<Instruction> program) throws IOException {
-        try (var sc = new Scanner(new File(fileName), StandardCharsets.UTF_8)) {
-            labels.reset();
-            program.clear();
-
-            // Each iteration processes line and reads the next input line into "line"
-            while (sc.hasNextLine()) {
-                line = sc.nextLine();
-                String label = getLabel();
-
-                Instruction instruction = getInstruction(label);
-                if (instruction != null) {
-                    if (label != null)
-                        if (!labels.addLabel(label, program.size()))
-                            throw new IOException();
-                    program.add(instruction);
-                } else
-                    throw new IOException();
-            }
+        if (readFromCache(labels, program, null))
+            return;
+        labels.reset();
+        program.clear();
+        translate(labels, DEFAULT_CHUNK_SIZE, program::addAll);
+        if (!labels.link(program))
+            throw new IOException();
+    }
+
+    /**
+     * Translates the SML program in the file as readAndTranslate(Labels, List) does, but splits the file into
+     * chunks of whole lines and translates the chunks in parallel on the given pool.
+     * <p></p>
+     * The Instructions of the chunks are then joined in order, and their labels are added at the address of
+     * each Instruction in the whole program, so that a label used in more than one chunk is still found to be a
+     * duplicate.
+     * <p></p>
+     * Only a file can be split: a Translator from any other source translates it in the calling thread.
+     *
+     * @param labels an instance of Labels where the labels of
+     *               instructions in the program will be stored
+     * @param program a list of Instructions where the translated Instructions will be stored
+     * @param pool the pool to translate the chunks on
+     * @throws IOException if something goes wrong in the process of reading the file,
+     * including finding errors in the formatting of the SML file
+     * and references to labels that do not exist
+     */
+    public void readAndTranslate(Labels labels, List<Instruction> program, ForkJoinPool pool) throws IOException {
+        if (path == null) {
+            readAndTranslate(labels, program);
+            return;
+        }
+        if (readFromCache(labels, program, pool))
+            return;
+
+        CharSequence text = MappedText.map(path);
+        List<Callable<Chunk>> tasks = new ArrayList<>();
+        for (int start = 0; start < text.length(); ) {
+            int end = endOfLine(text, start + PARALLEL_CHUNK_SIZE);
+            CharSequence lines = text.subSequence(start, end);
+            tasks.add(() -> translateChunk(lines));
+            start = end;
+        }
+
+        labels.reset();
+        program.clear();
+        for (Future<Chunk> future : pool.invokeAll(tasks)) {
+            Chunk chunk = join(future);
+            if (!labels.addAll(chunk.labels(), program.size()))
+                throw new IOException();
+            program.addAll(chunk.instructions());
         }
+        if (!labels.link(program))
+            throw new IOException();
+    }
+
+    /**
+     * Translates the SML program in the file into an immutable Program, which may be shared by any number of
+     * Machines. Large files are translated in parallel on the given pool. See
+     * readAndTranslate(Labels, List, ForkJoinPool).
+     *
+     * @param pool the pool to translate the file on
+     * @return the translated and linked Program
+     * @throws IOException if something goes wrong in the process of reading the file,
+     * including finding errors in the formatting of the SML file
+     * and references to labels that do not exist
+     */
+    public Program translate(ForkJoinPool pool) throws IOException {
+        Labels labels = new Labels();
+        List<Instruction> program = new ArrayList<>();
+        readAndTranslate(labels, program, pool);
+        return new Program(labels, program);
+    }
+
+    /**
+     * Translates the SML program in the file into an immutable Program, which may be shared by any number of
+     * Machines.
+     *
+     * @return the translated and linked Program
+     * @throws IOException if something goes wrong in the process of reading the file,
+     * including finding errors in the formatting of the SML file
+     * and references to labels that do not exist
+     */
+    public Program translate() throws IOException {
+        Labels labels = new Labels();
+        List<Instruction> program = new ArrayList<>();
+        readAndTranslate(labels, program);
+        return new Program(labels, program);
+    }
+
+    /**
+     * Sets the cache of translated files used by readAndTranslate and translate to look up the file before
+     * translating it. Only a Translator from a file uses a cache; any other source is always translated.
+     * translate(int, Consumer) never uses a cache, as it passes unlinked Instructions as they are translated.
+     *
+     * @param cache the cache, or null to translate the file every time
+     */
+    public void setCache(TranslationCache cache) {
+        this.cache = cache;
     }
 
     /**
-     * Translates the current line into an instruction with the given label
+     * Returns the cache of translated files used by this Translator.
      *
-     * @param label the instruction label
-     * @return the new instruction. Null if the instruction isn't valid for any  reason.
-     * <p>
-     * The input line should consist of a single SML instruction,
-     * with its label already removed.
+     * @return the cache, or null if there is none
      */
-    private Instruction getInstruction(String label) {
-        if (line.isEmpty())
-            return null;
+    public TranslationCache getCache() {
+        return cache;
+    }
 
-        String opcode = scan();
-        int[] l = {line.length()};
+    /**
+     * Translates the SML program incrementally, passing its Instructions to the consumer in chunks as soon as
+     * each chunk has been translated.
+     * <p></p>
+     * Each chunk is a new list of at most chunkSize Instructions, which the consumer may keep. The chunks are
+     * passed in order, so the address of an Instruction is the number of Instructions passed before it.
+     * The Instructions are not linked, as a label may be defined after it is referred to. Once every chunk
+     * has been passed, the Labels of the whole program are returned, for linking the assembled program.
+     * <p></p>
+     * If the program has an error, the chunks before it will already have been passed.
+     *
+     * @param chunkSize the largest number of Instructions in a chunk
+     * @param consumer the consumer of each chunk
+     * @return the Labels of the program
+     * @throws IOException if something goes wrong in the process of reading the source,
+     * including finding errors in the formatting of the SML program
+     * @throws IllegalArgumentException if chunkSize is not positive
+     */
+    public Labels translate(int chunkSize, Consumer<? super List<Instruction>> consumer) throws IOException {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("The chunk size must be positive.");
+        Labels labels = new Labels();
+        translate(labels, chunkSize, consumer);
+        return labels;
+    }
 
-        //Create a list of parameters
-        List<String> params = Stream.generate(this::scan).takeWhile(x -> {
-            boolean y = line.length() != l[0];
-            l[0] = line.length();
-            return y;})
-                .toList();
-        return InstructionFactory.getInstance().getInstruction(label, opcode, params);
+    /**
+     * Translates the source, adding the label of each Instruction to the labels,
+     * and passes the Instructions to the consumer in chunks.
+     *
+     * @param labels the Labels to add the label of each Instruction to
+     * @param chunkSize the largest number of Instructions in a chunk
+     * @param consumer the consumer of each chunk
+     * @throws IOException if the source can't be read, a line is not a valid Instruction, or repeats a label
+     */
+    private void translate(Labels labels, int chunkSize, Consumer<? super List<Instruction>> consumer)
+            throws IOException {
+        Translation translation = new Translation(labels, chunkSize, consumer);
+        source.read(translation);
+        translation.finish();
     }
 
     /**
-     * Checks if the current line of the file contains a label.
-     * @return the label if there is one, null if there is not.
+     * Looks up the file in the cache, translating it on a miss, and stores the Program found in the labels and
+     * program.
+     *
+     * @param labels an instance of Labels where the labels of the Program will be stored
+     * @param program a list where the Instructions of the Program will be stored
+     * @param pool the pool to translate the file on after a miss. Null to translate it in the calling thread
+     * @return false if this Translator has no cache, or isn't from a file
+     * @throws IOException if the file can't be read or translated
      */
-    private String getLabel() {
-        String word = scan();
-        if (word.endsWith(":"))
-            return word.substring(0, word.length() - 1);
+    private boolean readFromCache(Labels labels, List<Instruction> program, ForkJoinPool pool) throws IOException {
+        if (cache == null || path == null)
+            return false;
+        Program cached = cache.get(path, () -> {
+            Translator translator = new Translator(path);
+            return (pool != null) ? translator.translate(pool) : translator.translate();
+        });
+        labels.reset();
+        program.clear();
+        labels.addAll(cached.getLabels(), 0);
+        program.addAll(cached.getInstructions());
+        return true;
+    }
 
-        // undo scanning the word
-        line = word + ((!line.equals(word))
-                ? " " + line
-                :"");
-        return null;
+    /**
+     * Translates a chunk of whole lines of the program on its own.
+     *
+     * @param lines the text of the chunk
+     * @return the Instructions and Labels of the chunk
+     * @throws IOException if a line is not a valid Instruction, or repeats a label within the chunk
+     */
+    private static Chunk translateChunk(CharSequence lines) throws IOException {
+        Labels labels = new Labels();
+        List<Instruction> instructions = new ArrayList<>();
+        Translation translation = new Translation(labels, Integer.MAX_VALUE, instructions::addAll);
+        translation.accept(lines);
+        translation.finish();
+        return new Chunk(instructions, labels);
     }
 
+    /**
+     * Waits for a chunk to be translated.
+     *
+     * @param future the translation of the chunk
+     * @return the translated chunk
+     * @throws IOException if the chunk could not be translated
+     */
+    private static Chunk join(Future<Chunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause)
+                throw cause;
+            if (e.getCause() instanceof RuntimeException cause)
+                throw cause;
+            throw new IllegalStateException(e.getCause());
+        }
+    }
 
     /**
-     * Return the first word of the current line and remove it from the line.
+     * Finds the end of the line containing the given index.
      *
-     * @return the first word of the line if there is one, otherwise the line.
+     * @param text the text
+     * @param index an index in the text, or past its end
+     * @return the index after the next "\n" at or after index, or the length of the text if there is none
      */
-    private String scan() {
-        line = line.trim();
+    private static int endOfLine(CharSequence text, int index) {
+        int length = text.length();
+        if (index < 0)
+            // The index overflowed, so is past the end
+            return length;
+        for (int i = index; i < length; i++)
+            if (text.charAt(i) == '\n')
+                return i + 1;
+        return length;
+    }
 
-        for (int i = 0; i < line.length(); i++)
-            if (Character.isWhitespace(line.charAt(i))) {
-                String word = line.substring(0, i);
-                line = line.substring(i);
-                return word;
+    /**
+     * Reads a Reader to its end through a window of chars, passing the whole lines in the window to the
+     * consumer each time it is filled.
+     *
+     * @param reader the Reader
+     * @param consumer the consumer of the text
+     * @throws IOException if the Reader can't be read
+     */
+    private static void readWindows(Reader reader, TextConsumer consumer) throws IOException {
+        char[] window = new char[WINDOW_SIZE];
+        int filled = 0;
+        boolean end = false;
+        while (!end) {
+            if (filled == window.length)
+                // A single line fills the window
+                window = Arrays.copyOf(window, window.length * 2);
+            int read = reader.read(window, filled, window.length - filled);
+            if (read < 0)
+                end = true;
+            else
+                filled += read;
+
+            int lines = end ? filled : endOfLastLine(window, filled);
+            if (lines > 0) {
+                consumer.accept(CharBuffer.wrap(window, 0, lines));
+                System.arraycopy(window, lines, window, 0, filled - lines);
+                filled -= lines;
             }
+        }
+    }
 
-        return line;
+    /**
+     * Finds the end of the last whole line in the window.
+     * A "\r" at the very end isn't yet known to end a line, as it may be followed by "\n".
+     *
+     * @param window the window of chars
+     * @param filled the number of chars in the window
+     * @return the index after the last line separator, or 0 if there is none
+     */
+    private static int endOfLastLine(char[] window, int filled) {
+        for (int i = filled - 1; i >= 0; i--)
+            if (window[i] == '\n' || (window[i] == '\r' && i != filled - 1))
+                return i + 1;
+        return 0;
     }
 }
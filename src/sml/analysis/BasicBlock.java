@@ -0,0 +1,151 @@
+package sml.analysis;
+
+import sml.Instruction;
+import sml.Registers;
+
+import java.util.*;
+
+/**
+ * A basic block of a program: a run of instructions that is only entered at its first instruction and only left
+ * after its last, so that if one of its instructions is executed, they all are, in order.
+ * <p></p>
+ * Part of a ControlFlowGraph, which links each block to the blocks that may be executed after it.
+ *
+ * @author Roland Crompton
+ */
+public final class BasicBlock {
+
+    private final ControlFlowGraph graph;
+
+    private final int index;
+
+    private final int start;
+
+    private final int end;
+
+    /**
+     * The blocks that may be executed next, and after which this block may be executed. Filled in by the graph.
+     */
+    final List<BasicBlock> successors = new ArrayList<>(2), predecessors = new ArrayList<>(2);
+
+    /**
+     * Whether the program may stop after this block, by falling off its end
+     */
+    boolean exit;
+
+    /**
+     * The registers written by this block, and read by it before being written, as a bit per ordinal
+     */
+    int defs, uses;
+
+    BasicBlock(ControlFlowGraph graph, int index, int start, int end) {
+        this.graph = graph;
+        this.index = index;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Returns the index of this block in its graph. Blocks are numbered in the order of their addresses, from 0 for
+     * the entry block.
+     *
+     * @return the index
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the address of the first instruction of this block.
+     *
+     * @return the address
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * Returns the address after the last instruction of this block.
+     *
+     * @return the address
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     * Returns the instructions of this block.
+     *
+     * @return an unmodifiable view of the instructions, in order
+     */
+    public List<Instruction> getInstructions() {
+        return graph.getInstructions().subList(start, end);
+    }
+
+    /**
+     * Returns the last instruction of this block, which is the only one that may jump.
+     *
+     * @return the instruction
+     */
+    public Instruction getLastInstruction() {
+        return graph.getInstructions().get(end - 1);
+    }
+
+    /**
+     * Returns the blocks that may be executed after this block: the target of its jump, if it ends in one, then the
+     * block following it.
+     *
+     * @return the unmodifiable list of successors
+     */
+    public List<BasicBlock> getSuccessors() {
+        return Collections.unmodifiableList(successors);
+    }
+
+    /**
+     * Returns the blocks that may be executed before this block.
+     *
+     * @return the unmodifiable list of predecessors, in the order of their addresses
+     */
+    public List<BasicBlock> getPredecessors() {
+        return Collections.unmodifiableList(predecessors);
+    }
+
+    /**
+     * Whether the program may stop after this block, by moving on from its last instruction to the end of the
+     * program.
+     *
+     * @return whether the block is an exit of the program
+     */
+    public boolean isExit() {
+        return exit;
+    }
+
+    /**
+     * Returns the registers that may be written by this block.
+     *
+     * @return the registers
+     */
+    public Set<Registers.Register> getDefs() {
+        return RegisterSets.toSet(defs);
+    }
+
+    /**
+     * Returns the registers that may be read by this block before it writes them, whose values on entry to the block
+     * may therefore affect it.
+     *
+     * @return the registers
+     */
+    public Set<Registers.Register> getUses() {
+        return RegisterSets.toSet(uses);
+    }
+
+    /**
+     * Returns the block in the form "B[index] [start, end)".
+     *
+     * @return a String representation of this block
+     */
+    @Override
+    public String toString() {
+        return "B" + index + " [" + start + ", " + end + ")";
+    }
+}
@@ -0,0 +1,354 @@
+package sml.analysis;
+
+import sml.Instruction;
+import sml.Labels;
+import sml.instruction.JnzInstruction;
+import sml.instruction.SubJnzInstruction;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * The control flow graph of a translated program: its basic blocks, linked to the blocks that may be executed after
+ * each of them, with the dominators and natural loops of the graph and the registers each block reads and writes.
+ * <p></p>
+ * A block starts at the first instruction of the program, at every labeled instruction, at the target of every jump,
+ * and after every jump. The jumps are JnzInstructions and SubJnzInstructions, whose targets are looked up in the
+ * labels of the program; every other Instruction is assumed to move on to the next. A div that divides by zero stops
+ * the program, but is not treated as a jump.
+ * <p></p>
+ * Built once, for a program that is not then modified, so that passes over the program can share it rather than
+ * each working out its control flow from its labels. See BasicBlock and Loop.
+ *
+ * @author Roland Crompton
+ */
+public final class ControlFlowGraph {
+
+    /**
+     * The instructions of the program
+     */
+    private final List<Instruction> instructions;
+
+    /**
+     * The blocks, in the order of their addresses
+     */
+    private final List<BasicBlock> blocks = new ArrayList<>();
+
+    /**
+     * The start address of each block, for finding the block containing an address
+     */
+    private final int[] starts;
+
+    /**
+     * The reachable blocks, each before its successors other than along back edges
+     */
+    private final List<BasicBlock> reversePostorder = new ArrayList<>();
+
+    /**
+     * The index of the immediate dominator of each block. -1 for the entry block and blocks that can't be reached
+     */
+    private final int[] immediateDominators;
+
+    /**
+     * The position of each block in reversePostorder. -1 for blocks that can't be reached
+     */
+    private final int[] order;
+
+    private final List<Loop> loops;
+
+    private ControlFlowGraph(List<Instruction> instructions, int[] targets) {
+        this.instructions = instructions;
+        int size = instructions.size();
+
+        BitSet leaders = new BitSet(size + 1);
+        leaders.set(0);
+        for (int address = 0; address < size; address++) {
+            if (instructions.get(address).getLabel() != null)
+                leaders.set(address);
+            if (targets[address] >= 0) {
+                leaders.set(targets[address]);
+                leaders.set(address + 1);
+            }
+        }
+        leaders.clear(size);
+        starts = leaders.stream().toArray();
+        for (int i = 0; i < starts.length; i++)
+            blocks.add(new BasicBlock(this, i, starts[i], (i + 1 < starts.length) ? starts[i + 1] : size));
+
+        for (BasicBlock block : blocks) {
+            int last = block.getEnd() - 1;
+            if (targets[last] >= 0)
+                link(block, getBlock(targets[last]));
+            if (block.getEnd() < size)
+                link(block, blocks.get(block.getIndex() + 1));
+            else
+                block.exit = true;
+            findRegisters(block);
+        }
+
+        order = new int[blocks.size()];
+        immediateDominators = new int[blocks.size()];
+        findReversePostorder();
+        findDominators();
+        loops = findLoops();
+    }
+
+    /**
+     * Builds the control flow graph of a program.
+     *
+     * @param labels the labels of the program
+     * @param program the Instructions of the program, which are copied
+     * @return the graph
+     * @throws IllegalArgumentException if the program jumps to a label that does not exist
+     */
+    public static ControlFlowGraph of(Labels labels, List<Instruction> program) {
+        List<Instruction> instructions = List.copyOf(program);
+        int[] targets = new int[instructions.size()];
+        for (int address = 0; address < instructions.size(); address++) {
+            Instruction instruction = instructions.get(address);
+            String label = JnzInstruction.isJnz(instruction) ? ((JnzInstruction) instruction).getTargetLabel()
+                    : (instruction instanceof SubJnzInstruction subJnz) ? subJnz.getTargetLabel()
+                    : null;
+            targets[address] = (label != null) ? labels.getAddress(label) : -1;
+            if (label != null && (targets[address] < 0 || targets[address] >= instructions.size()))
+                throw new IllegalArgumentException("Instruction " + instruction + " jumps to label " + label
+                        + ", which does not exist.");
+        }
+        return new ControlFlowGraph(instructions, targets);
+    }
+
+    private static void link(BasicBlock from, BasicBlock to) {
+        if (!from.successors.contains(to)) {
+            from.successors.add(to);
+            to.predecessors.add(from);
+        }
+    }
+
+    private void findRegisters(BasicBlock block) {
+        int killed = 0;
+        for (Instruction instruction : block.getInstructions()) {
+            block.uses |= RegisterSets.reads(instruction) & ~killed;
+            block.defs |= RegisterSets.writes(instruction);
+            killed |= RegisterSets.kills(instruction);
+        }
+    }
+
+    private void findReversePostorder() {
+        Arrays.fill(order, -1);
+        if (blocks.isEmpty())
+            return;
+        List<BasicBlock> postorder = new ArrayList<>(blocks.size());
+        boolean[] visited = new boolean[blocks.size()];
+        // Each entry is a block and the index of the next of its successors to visit
+        Deque<int[]> stack = new ArrayDeque<>();
+        stack.push(new int[] {0, 0});
+        visited[0] = true;
+        while (!stack.isEmpty()) {
+            int[] top = stack.peek();
+            BasicBlock block = blocks.get(top[0]);
+            if (top[1] < block.successors.size()) {
+                BasicBlock successor = block.successors.get(top[1]++);
+                if (!visited[successor.getIndex()]) {
+                    visited[successor.getIndex()] = true;
+                    stack.push(new int[] {successor.getIndex(), 0});
+                }
+            } else {
+                stack.pop();
+                postorder.add(block);
+            }
+        }
+        for (int i = postorder.size() - 1; i >= 0; i--) {
+            order[postorder.get(i).getIndex()] = reversePostorder.size();
+            reversePostorder.add(postorder.get(i));
+        }
+    }
+
+    /**
+     * Finds the immediate dominator of each block by the iterative algorithm of Cooper, Harvey and Kennedy.
+     */
+    private void findDominators() {
+        Arrays.fill(immediateDominators, -1);
+        if (blocks.isEmpty())
+            return;
+        immediateDominators[0] = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : reversePostorder.subList(1, reversePostorder.size())) {
+                int dominator = -1;
+                for (BasicBlock predecessor : block.predecessors) {
+                    int p = predecessor.getIndex();
+                    if (immediateDominators[p] < 0)
+                        continue;
+                    dominator = (dominator < 0) ? p : intersect(p, dominator);
+                }
+                if (dominator != immediateDominators[block.getIndex()]) {
+                    immediateDominators[block.getIndex()] = dominator;
+                    changed = true;
+                }
+            }
+        }
+        immediateDominators[0] = -1;
+    }
+
+    private int intersect(int a, int b) {
+        while (a != b) {
+            while (order[a] > order[b])
+                a = immediateDominators[a];
+            while (order[b] > order[a])
+                b = immediateDominators[b];
+        }
+        return a;
+    }
+
+    /**
+     * Finds the natural loop of each header: the blocks that can reach a back edge to it without passing through it.
+     */
+    private List<Loop> findLoops() {
+        Map<BasicBlock, List<BasicBlock>> latches = new TreeMap<>(Comparator.comparingInt(BasicBlock::getIndex));
+        for (BasicBlock block : reversePostorder)
+            for (BasicBlock successor : block.successors)
+                if (dominates(successor, block))
+                    latches.computeIfAbsent(successor, header -> new ArrayList<>()).add(block);
+
+        List<Loop> loops = new ArrayList<>(latches.size());
+        for (Map.Entry<BasicBlock, List<BasicBlock>> entry : latches.entrySet()) {
+            BasicBlock header = entry.getKey();
+            BitSet body = new BitSet(blocks.size());
+            body.set(header.getIndex());
+            Deque<BasicBlock> work = new ArrayDeque<>();
+            for (BasicBlock latch : entry.getValue()) {
+                if (!body.get(latch.getIndex())) {
+                    body.set(latch.getIndex());
+                    work.push(latch);
+                }
+            }
+            while (!work.isEmpty()) {
+                for (BasicBlock predecessor : work.pop().predecessors) {
+                    if (isReachable(predecessor) && !body.get(predecessor.getIndex())) {
+                        body.set(predecessor.getIndex());
+                        work.push(predecessor);
+                    }
+                }
+            }
+            List<BasicBlock> sortedLatches = new ArrayList<>(entry.getValue());
+            sortedLatches.sort(Comparator.comparingInt(BasicBlock::getIndex));
+            loops.add(new Loop(header, body.stream().mapToObj(blocks::get).toList(), List.copyOf(sortedLatches)));
+        }
+        return Collections.unmodifiableList(loops);
+    }
+
+    /**
+     * Returns the instructions of the program.
+     *
+     * @return the unmodifiable list of instructions
+     */
+    public List<Instruction> getInstructions() {
+        return instructions;
+    }
+
+    /**
+     * Returns the blocks of the program, in the order of their addresses.
+     *
+     * @return the unmodifiable list of blocks
+     */
+    public List<BasicBlock> getBlocks() {
+        return Collections.unmodifiableList(blocks);
+    }
+
+    /**
+     * Returns the block the program starts at.
+     *
+     * @return the entry block, or null if the program has no instructions
+     */
+    public BasicBlock getEntry() {
+        return blocks.isEmpty() ? null : blocks.get(0);
+    }
+
+    /**
+     * Returns the block containing the instruction at an address.
+     *
+     * @param address the address of the instruction
+     * @return the block
+     * @throws IndexOutOfBoundsException if there is no instruction at the address
+     */
+    public BasicBlock getBlock(int address) {
+        Objects.checkIndex(address, instructions.size());
+        int index = Arrays.binarySearch(starts, address);
+        return blocks.get((index >= 0) ? index : -index - 2);
+    }
+
+    /**
+     * Returns the blocks that can be reached from the entry block in reverse postorder, in which each block comes
+     * before its successors, other than those it jumps back to. The order in which a forward dataflow analysis
+     * converges quickest.
+     *
+     * @return the unmodifiable list of reachable blocks
+     */
+    public List<BasicBlock> getReversePostorder() {
+        return Collections.unmodifiableList(reversePostorder);
+    }
+
+    /**
+     * Whether the block can be executed: whether there is a path to it from the entry block.
+     *
+     * @param block a block of this graph
+     * @return whether it can be reached
+     */
+    public boolean isReachable(BasicBlock block) {
+        return order[block.getIndex()] >= 0;
+    }
+
+    /**
+     * Returns the immediate dominator of a block: the closest block, other than itself, that every path from the entry
+     * block to it passes through.
+     *
+     * @param block a block of this graph
+     * @return the immediate dominator, or null for the entry block and blocks that can't be reached
+     */
+    public BasicBlock getImmediateDominator(BasicBlock block) {
+        int dominator = immediateDominators[block.getIndex()];
+        return (dominator < 0) ? null : blocks.get(dominator);
+    }
+
+    /**
+     * Whether every path from the entry block to a block passes through another. Every block dominates itself.
+     *
+     * @param dominator a block of this graph
+     * @param block a block of this graph
+     * @return whether dominator dominates block. False if block can't be reached, unless they are the same block
+     */
+    public boolean dominates(BasicBlock dominator, BasicBlock block) {
+        int index = block.getIndex();
+        while (index >= 0) {
+            if (index == dominator.getIndex())
+                return true;
+            index = immediateDominators[index];
+        }
+        return false;
+    }
+
+    /**
+     * Returns the natural loops of the program, one for each block jumped or fallen back to along an edge from a block
+     * it dominates.
+     *
+     * @return the unmodifiable list of loops, in the order of the addresses of their headers. An inner loop
+     * comes after the loop containing it, unless they share a header, in which case they are a single loop
+     */
+    public List<Loop> getLoops() {
+        return loops;
+    }
+
+    /**
+     * Returns the graph as a line per block, in the form "B[index] [start, end) -> successors".
+     *
+     * @return a String representation of this graph
+     */
+    @Override
+    public String toString() {
+        return blocks.stream()
+                .map(block -> block + " -> " + block.successors.stream().map(s -> "B" + s.getIndex())
+                        .collect(Collectors.joining(", ", "[", "]")) + (block.exit ? " exit" : ""))
+                .collect(Collectors.joining("\n"));
+    }
+}
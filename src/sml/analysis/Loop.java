@@ -0,0 +1,34 @@
+package sml.analysis;
+
+import java.util.List;
+
+/**
+ * A natural loop of a ControlFlowGraph: a header block, which dominates every block of the loop, and the blocks that
+ * can reach one of the loop's back edges to the header without passing through the header.
+ *
+ * @param header the block every iteration of the loop starts at
+ * @param blocks the blocks of the loop, including the header, in the order of their addresses
+ * @param latches the blocks of the loop that jump or fall through back to the header, in the order of their addresses
+ * @author Roland Crompton
+ */
+public record Loop(BasicBlock header, List<BasicBlock> blocks, List<BasicBlock> latches) {
+
+    /**
+     * Whether the block is part of this loop.
+     *
+     * @param block the block
+     * @return whether it is one of the blocks of this loop
+     */
+    public boolean contains(BasicBlock block) {
+        return blocks.contains(block);
+    }
+
+    /**
+     * Whether the loop is made of a single block, which jumps back to its own start.
+     *
+     * @return whether the header is the only block
+     */
+    public boolean isSingleBlock() {
+        return blocks.size() == 1;
+    }
+}
@@ -0,0 +1,114 @@
+package sml.analysis;
+
+import sml.Instruction;
+import sml.RegisterName;
+import sml.Registers;
+import sml.instruction.*;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The registers read and written by each Instruction, as a bit per register ordinal.
+ * <p></p>
+ * The registers of the Instructions of the SML language, their fused forms and CountedLoopInstructions are known.
+ * Any other Instruction is assumed to read every register, and to possibly write every register.
+ *
+ * @author Roland Crompton
+ */
+final class RegisterSets {
+
+    /**
+     * Every register
+     */
+    static final int ALL = (1 << Registers.SIZE) - 1;
+
+    private static final Registers.Register[] REGISTERS = Registers.Register.values();
+
+    private RegisterSets() {}
+
+    /**
+     * Returns the registers the Instruction may read.
+     */
+    static int reads(Instruction instruction) {
+        Class<?> type = instruction.getClass();
+        if (type == AddInstruction.class) {
+            AddInstruction add = (AddInstruction) instruction;
+            return bit(add.getResult()) | bit(add.getSource());
+        }
+        if (type == SubInstruction.class || type == MulInstruction.class || type == DivInstruction.class
+                || type == SubJnzInstruction.class) {
+            BiRegisterInstruction bi = (BiRegisterInstruction) instruction;
+            return bit(bi.getResult()) | bit(bi.getSource());
+        }
+        if (type == MovInstruction.class)
+            return 0;
+        if (type == OutInstruction.class)
+            return bit(((OutInstruction) instruction).getSource());
+        if (JnzInstruction.isJnz(instruction))
+            return bit(((JnzInstruction) instruction).getSource());
+        if (type == MovAddInstruction.class) {
+            MovAddInstruction movAdd = (MovAddInstruction) instruction;
+            return (movAdd.getResult() == movAdd.getTemporary()) ? 0 : bit(movAdd.getResult());
+        }
+        if (type == CountedLoopInstruction.class) {
+            int reads = 0;
+            for (Instruction body : ((CountedLoopInstruction) instruction).getBody())
+                reads |= reads(body);
+            return reads;
+        }
+        return ALL;
+    }
+
+    /**
+     * Returns the registers the Instruction may write.
+     */
+    static int writes(Instruction instruction) {
+        if (instruction.getClass() == CountedLoopInstruction.class) {
+            int writes = 0;
+            for (Instruction body : ((CountedLoopInstruction) instruction).getBody())
+                writes |= writes(body);
+            return writes;
+        }
+        if (instruction.getClass() == OutInstruction.class || JnzInstruction.isJnz(instruction))
+            return 0;
+        int kills = kills(instruction);
+        return (kills != 0) ? kills : ALL;
+    }
+
+    /**
+     * Returns the registers the Instruction always writes, if the program carries on after it.
+     */
+    static int kills(Instruction instruction) {
+        Class<?> type = instruction.getClass();
+        if (type == AddInstruction.class)
+            return bit(((AddInstruction) instruction).getResult());
+        if (type == SubInstruction.class || type == MulInstruction.class || type == DivInstruction.class
+                || type == SubJnzInstruction.class)
+            return bit(((BiRegisterInstruction) instruction).getResult());
+        if (type == MovInstruction.class)
+            return bit(((MovInstruction) instruction).getResult());
+        if (type == MovAddInstruction.class) {
+            MovAddInstruction movAdd = (MovAddInstruction) instruction;
+            return bit(movAdd.getTemporary()) | bit(movAdd.getResult());
+        }
+        // A CountedLoopInstruction may only write a register in some iterations
+        return 0;
+    }
+
+    private static int bit(RegisterName register) {
+        return 1 << Registers.ordinal(register);
+    }
+
+    /**
+     * Returns the registers as an unmodifiable set.
+     */
+    static Set<Registers.Register> toSet(int registers) {
+        EnumSet<Registers.Register> set = EnumSet.noneOf(Registers.Register.class);
+        for (int ordinal = 0; ordinal < REGISTERS.length; ordinal++)
+            if ((registers & (1 << ordinal)) != 0)
+                set.add(REGISTERS[ordinal]);
+        return Collections.unmodifiableSet(set);
+    }
+}
@@ -0,0 +1,332 @@
+package sml.engine;
+
+import org.springframework.asm.ClassWriter;
+import org.springframework.asm.Label;
+import org.springframework.asm.MethodVisitor;
+import org.springframework.asm.Type;
+
+import sml.Registers;
+
+import java.lang.invoke.MethodHandles;
+
+import static org.springframework.asm.Opcodes.*;
+import static sml.engine.CompactProgram.*;
+
+/**
+ * Compiles a CompactProgram, or a trace of one of its loops, into a JVM class implementing CompiledProgram or
+ * CompiledTrace, loaded as a hidden class.
+ * <p></p>
+ * The program becomes the body of a single method. Registers are held in local variables, loaded from the register
+ * array on entry and stored back on exit, and each jnz becomes a conditional branch, so the JIT compiler is free to
+ * optimise the program's loops as it would any Java loop.
+ * <p></p>
+ * Uses the copy of ASM packaged with Spring, which the InstructionFactory already depends on.
+ *
+ * @author Roland Crompton
+ */
+public final class BytecodeCompiler {
+
+    /**
+     * The largest program that will be compiled. Larger programs would produce methods too large for HotSpot to
+     * JIT compile (see -XX:-DontCompileHugeMethods), leaving them slower than interpreting the CompactProgram.
+     */
+    public static final int MAX_INSTRUCTIONS = 1000;
+
+    /**
+     * The internal names of the compiled classes. Hidden classes must be in the package of the Lookup defining them.
+     */
+    private static final String CLASS_NAME = "sml/engine/CompiledSmlProgram";
+
+    private static final String TRACE_CLASS_NAME = "sml/engine/CompiledSmlTrace";
+
+    /**
+     * The descriptor of the run method of CompiledProgram and CompiledTrace.
+     */
+    private static final String RUN_DESCRIPTOR = "([ILjava/util/function/IntConsumer;)I";
+
+    /**
+     * The index of the local variable holding the register array.
+     */
+    private static final int REGISTER_ARRAY = 1;
+
+    /**
+     * The index of the local variable holding the output. Registers are held in the local variables following it.
+     */
+    private static final int OUTPUT = 2;
+
+    private BytecodeCompiler() {}
+
+    /**
+     * Compiles the given program.
+     * <p></p>
+     * Returns null if the program contains an Instruction without a compact form, or has more than MAX_INSTRUCTIONS
+     * instructions.
+     *
+     * @param program the program to be compiled
+     * @return the compiled program. Null if the program can't be compiled
+     */
+    public static CompiledProgram compile(CompactProgram program) {
+        if (program.size() > MAX_INSTRUCTIONS)
+            return null;
+        int[] code = program.getCode();
+        for (int pc = 0; pc < code.length; pc += WIDTH)
+            if (code[pc] == INVOKE)
+                return null;
+
+        try {
+            return (CompiledProgram) define(generate(code));
+        } catch (LinkageError | ReflectiveOperationException | IllegalArgumentException | IllegalStateException e) {
+            // The generated class was malformed or could not be defined. Errors of the VM itself are not caught
+            System.err.println("Could not compile program: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Compiles a trace of a loop of the given program: the addresses of the instructions executed by one iteration of
+     * the loop, in order, beginning at the header the last of them jumps back to.
+     * <p></p>
+     * Each jump in the trace is compiled into a guard, which leaves the trace if the jump goes elsewhere than it did
+     * when the trace was recorded, and each div into a guard which leaves it before dividing by zero. Every other
+     * instruction is compiled as it is by compile.
+     * <p></p>
+     * Returns null if the trace contains an Instruction without a compact form.
+     *
+     * @param program the program the trace was recorded from
+     * @param trace the addresses of the instructions of the trace
+     * @return the compiled trace. Null if the trace can't be compiled
+     */
+    public static CompiledTrace compileTrace(CompactProgram program, int[] trace) {
+        int[] code = program.getCode();
+        for (int address : trace)
+            if (code[address * WIDTH] == INVOKE)
+                return null;
+
+        try {
+            return (CompiledTrace) define(generateTrace(code, trace));
+        } catch (LinkageError | ReflectiveOperationException | IllegalArgumentException | IllegalStateException e) {
+            System.err.println("Could not compile trace: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Defines a hidden class from its bytes, and constructs an instance of it.
+     */
+    private static Object define(byte[] bytes) throws ReflectiveOperationException {
+        MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+        return lookup.lookupClass().getConstructor().newInstance();
+    }
+
+    /**
+     * Generates the bytes of a class implementing CompiledProgram that runs the given code.
+     */
+    private static byte[] generate(int[] code) {
+        ClassWriter cw = newClass(CLASS_NAME, CompiledProgram.class);
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "run", RUN_DESCRIPTOR, null, null);
+        mv.visitCode();
+        loadRegisters(mv);
+
+        int size = code.length / WIDTH;
+        Label[] addresses = new Label[size + 1];
+        for (int address = 0; address <= size; address++)
+            addresses[address] = new Label();
+
+        for (int address = 0; address < size; address++) {
+            int pc = address * WIDTH;
+            int first = code[pc + 1];
+            int second = code[pc + 2];
+            int third = code[pc + 3];
+            mv.visitLabel(addresses[address]);
+            switch (code[pc]) {
+                case DIV -> {
+                    Label nonZero = new Label();
+                    mv.visitVarInsn(ILOAD, local(second));
+                    mv.visitJumpInsn(IFNE, nonZero);
+                    pushInt(mv, ~address);
+                    mv.visitInsn(IRETURN);
+                    mv.visitLabel(nonZero);
+                    arithmetic(mv, IDIV, first, second);
+                }
+                case JNZ -> {
+                    mv.visitVarInsn(ILOAD, local(first));
+                    mv.visitJumpInsn(IFNE, addresses[second / WIDTH]);
+                }
+                case SUB_JNZ -> {
+                    arithmetic(mv, ISUB, first, second);
+                    mv.visitVarInsn(ILOAD, local(first));
+                    mv.visitJumpInsn(IFNE, addresses[third / WIDTH]);
+                }
+                default -> straightLine(mv, code[pc], first, second, third);
+            }
+        }
+
+        mv.visitLabel(addresses[size]);
+        exit(mv, size);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * Generates the bytes of a class implementing CompiledTrace that loops over the given trace of the given code
+     * until one of its guards fails.
+     */
+    private static byte[] generateTrace(int[] code, int[] trace) {
+        ClassWriter cw = newClass(TRACE_CLASS_NAME, CompiledTrace.class);
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "run", RUN_DESCRIPTOR, null, null);
+        mv.visitCode();
+        loadRegisters(mv);
+
+        Label loop = new Label();
+        mv.visitLabel(loop);
+        for (int i = 0; i < trace.length; i++) {
+            int address = trace[i];
+            int next = trace[(i + 1) % trace.length];
+            int pc = address * WIDTH;
+            int first = code[pc + 1];
+            int second = code[pc + 2];
+            int third = code[pc + 3];
+            switch (code[pc]) {
+                case DIV -> {
+                    // Leave the trace before the div, so that the interpreter reports the error
+                    Label nonZero = new Label();
+                    mv.visitVarInsn(ILOAD, local(second));
+                    mv.visitJumpInsn(IFNE, nonZero);
+                    exit(mv, address);
+                    mv.visitLabel(nonZero);
+                    arithmetic(mv, IDIV, first, second);
+                }
+                case JNZ -> guard(mv, first, second / WIDTH, address + 1, next);
+                case SUB_JNZ -> {
+                    arithmetic(mv, ISUB, first, second);
+                    guard(mv, first, third / WIDTH, address + 1, next);
+                }
+                default -> straightLine(mv, code[pc], first, second, third);
+            }
+        }
+        mv.visitJumpInsn(GOTO, loop);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * Starts a public final class implementing the given interface, with a public no-argument constructor.
+     */
+    private static ClassWriter newClass(String name, Class<?> implemented) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cw.visit(V11, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, name, null, "java/lang/Object",
+                new String[] {Type.getInternalName(implemented)});
+
+        MethodVisitor init = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(ALOAD, 0);
+        init.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        init.visitInsn(RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+        return cw;
+    }
+
+    /**
+     * Generates an instruction that neither jumps nor divides: ADD, SUB, MUL, MOV, OUT or MOV_ADD.
+     */
+    private static void straightLine(MethodVisitor mv, int opcode, int first, int second, int third) {
+        switch (opcode) {
+            case ADD -> arithmetic(mv, IADD, first, second);
+            case SUB -> arithmetic(mv, ISUB, first, second);
+            case MUL -> arithmetic(mv, IMUL, first, second);
+            case MOV -> {
+                pushInt(mv, second);
+                mv.visitVarInsn(ISTORE, local(first));
+            }
+            case OUT -> {
+                mv.visitVarInsn(ALOAD, OUTPUT);
+                mv.visitVarInsn(ILOAD, local(first));
+                mv.visitMethodInsn(INVOKEINTERFACE, "java/util/function/IntConsumer", "accept", "(I)V", true);
+            }
+            case MOV_ADD -> {
+                pushInt(mv, second);
+                mv.visitVarInsn(ISTORE, local(first));
+                arithmetic(mv, IADD, third, first);
+            }
+            default -> throw new IllegalArgumentException("Cannot compile opcode " + opcode);
+        }
+    }
+
+    /**
+     * Generates a guard on a jump of a trace, which leaves the trace if the jump goes elsewhere than next, the address
+     * it went to when the trace was recorded. A jump to the next instruction needs no guard.
+     */
+    private static void guard(MethodVisitor mv, int register, int target, int fallThrough, int next) {
+        if (target == fallThrough)
+            return;
+        Label recorded = new Label();
+        mv.visitVarInsn(ILOAD, local(register));
+        mv.visitJumpInsn((next == target) ? IFNE : IFEQ, recorded);
+        exit(mv, (next == target) ? fallThrough : target);
+        mv.visitLabel(recorded);
+    }
+
+    /**
+     * Generates loading the register array into local variables.
+     */
+    private static void loadRegisters(MethodVisitor mv) {
+        for (int register = 0; register < Registers.SIZE; register++) {
+            mv.visitVarInsn(ALOAD, REGISTER_ARRAY);
+            pushInt(mv, register);
+            mv.visitInsn(IALOAD);
+            mv.visitVarInsn(ISTORE, local(register));
+        }
+    }
+
+    /**
+     * Generates storing the local variables back into the register array and returning the given address.
+     */
+    private static void exit(MethodVisitor mv, int address) {
+        for (int register = 0; register < Registers.SIZE; register++) {
+            mv.visitVarInsn(ALOAD, REGISTER_ARRAY);
+            pushInt(mv, register);
+            mv.visitVarInsn(ILOAD, local(register));
+            mv.visitInsn(IASTORE);
+        }
+        pushInt(mv, address);
+        mv.visitInsn(IRETURN);
+    }
+
+    /**
+     * Generates first = first (operation) second.
+     */
+    private static void arithmetic(MethodVisitor mv, int operation, int first, int second) {
+        mv.visitVarInsn(ILOAD, local(first));
+        mv.visitVarInsn(ILOAD, local(second));
+        mv.visitInsn(operation);
+        mv.visitVarInsn(ISTORE, local(first));
+    }
+
+    /**
+     * Returns the local variable holding the register with the given ordinal.
+     */
+    private static int local(int register) {
+        return OUTPUT + 1 + register;
+    }
+
+    /**
+     * Generates the shortest instruction pushing the given int onto the stack.
+     */
+    private static void pushInt(MethodVisitor mv, int value) {
+        if (value >= -1 && value <= 5)
+            mv.visitInsn(ICONST_0 + value);
+        else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+            mv.visitIntInsn(BIPUSH, value);
+        else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+            mv.visitIntInsn(SIPUSH, value);
+        else
+            mv.visitLdcInsn(value);
+    }
+}
@@ -0,0 +1,190 @@
+package sml.engine;
+
+import sml.Instruction;
+import sml.Labels;
+import sml.Machine;
+import sml.Program;
+import sml.Registers;
+import sml.instruction.*;
+
+import java.util.List;
+
+import static sml.Instruction.NORMAL_PROGRAM_COUNTER_UPDATE;
+
+/**
+ * A program lowered from a list of Instructions into a compact array of ints.
+ * <p></p>
+ * Each Instruction occupies WIDTH consecutive slots of the array: an opcode followed by its operands.
+ * Registers are given as the ordinals of their Registers, and jump targets as the index in the array of the slots of
+ * the instruction jumped to. The slots used by each opcode are:
+ * <ul>
+ *     <li>ADD, SUB, MUL, DIV: result register, source register</li>
+ *     <li>MOV: result register, value</li>
+ *     <li>OUT: source register</li>
+ *     <li>JNZ: source register, target</li>
+ *     <li>SUB_JNZ: result register, source register, target</li>
+ *     <li>MOV_ADD: temporary register, value, result register</li>
+ *     <li>INVOKE: none. The Instruction has no compact form, and is executed as an Instruction</li>
+ * </ul>
+ * Unused slots are zero.
+ *
+ * @author Roland Crompton
+ */
+public final class CompactProgram {
+
+    public static final int ADD = 0;
+    public static final int SUB = 1;
+    public static final int MUL = 2;
+    public static final int DIV = 3;
+    public static final int MOV = 4;
+    public static final int OUT = 5;
+    public static final int JNZ = 6;
+    public static final int SUB_JNZ = 7;
+    public static final int MOV_ADD = 8;
+    public static final int INVOKE = 9;
+
+    /**
+     * The number of slots occupied by each instruction.
+     */
+    public static final int WIDTH = 4;
+
+    /**
+     * The opcodes and operands of the program.
+     */
+    private final int[] code;
+
+    /**
+     * The Instructions the program was lowered from, by address. Used for executing INVOKE instructions and for
+     * reporting errors.
+     */
+    private final Instruction[] instructions;
+
+    private CompactProgram(int[] code, Instruction[] instructions) {
+        this.code = code;
+        this.instructions = instructions;
+    }
+
+    /**
+     * Lowers a linked program into a CompactProgram.
+     * <p></p>
+     * Only Instructions of exactly the built-in classes are lowered into their compact form. Any other Instruction,
+     * including subclasses of the built-in classes, is lowered to INVOKE.
+     *
+     * @param program the Instructions of the program
+     * @param labels the labels of the program
+     * @return the CompactProgram
+     */
+    public static CompactProgram lower(List<Instruction> program, Labels labels) {
+        Instruction[] instructions = program.toArray(new Instruction[0]);
+        int[] code = new int[instructions.length * WIDTH];
+        for (int address = 0; address < instructions.length; address++)
+            lower(instructions[address], labels, code, address * WIDTH);
+        return new CompactProgram(code, instructions);
+    }
+
+    /**
+     * Lowers a shared Program into a CompactProgram.
+     *
+     * @param program the Program
+     * @return the CompactProgram
+     */
+    public static CompactProgram lower(Program program) {
+        return lower(program.getInstructions(), program.getLabels());
+    }
+
+    /**
+     * Returns the CompactProgram lowered from the program of the given machine. If the machine runs a shared Program,
+     * the Program is lowered once and the result shared by every run of it.
+     *
+     * @param machine the machine
+     * @return the CompactProgram
+     */
+    public static CompactProgram of(Machine machine) {
+        Program shared = machine.getSharedProgram();
+        return (shared != null)
+                ? shared.derive(CompactProgram.class, CompactProgram::lower)
+                : lower(machine.getProgram(), machine.getLabels());
+    }
+
+    /**
+     * Lowers a single Instruction into the slots of code beginning at index.
+     */
+    private static void lower(Instruction instruction, Labels labels, int[] code, int index) {
+        Class<?> type = instruction.getClass();
+        if (type == AddInstruction.class) {
+            AddInstruction add = (AddInstruction) instruction;
+            set(code, index, ADD, Registers.ordinal(add.getResult()), Registers.ordinal(add.getSource()));
+        } else if (type == SubInstruction.class || type == MulInstruction.class || type == DivInstruction.class) {
+            BiRegisterInstruction bi = (BiRegisterInstruction) instruction;
+            int opcode = (type == SubInstruction.class) ? SUB : (type == MulInstruction.class) ? MUL : DIV;
+            set(code, index, opcode, Registers.ordinal(bi.getResult()), Registers.ordinal(bi.getSource()));
+        } else if (type == MovInstruction.class) {
+            MovInstruction mov = (MovInstruction) instruction;
+            set(code, index, MOV, Registers.ordinal(mov.getResult()), mov.getValue());
+        } else if (type == OutInstruction.class) {
+            set(code, index, OUT, Registers.ordinal(((OutInstruction) instruction).getSource()), 0);
+        } else if (JnzInstruction.isJnz(instruction)
+                && isLabel(((JnzInstruction) instruction).getTargetLabel(), labels)) {
+            JnzInstruction jnz = (JnzInstruction) instruction;
+            set(code, index, JNZ, Registers.ordinal(jnz.getSource()),
+                    labels.getAddress(jnz.getTargetLabel()) * WIDTH);
+        } else if (type == SubJnzInstruction.class
+                && isLabel(((SubJnzInstruction) instruction).getTargetLabel(), labels)) {
+            SubJnzInstruction subJnz = (SubJnzInstruction) instruction;
+            set(code, index, SUB_JNZ, Registers.ordinal(subJnz.getResult()), Registers.ordinal(subJnz.getSource()),
+                    labels.getAddress(subJnz.getTargetLabel()) * WIDTH);
+        } else if (type == MovAddInstruction.class) {
+            MovAddInstruction movAdd = (MovAddInstruction) instruction;
+            set(code, index, MOV_ADD, Registers.ordinal(movAdd.getTemporary()), movAdd.getValue(),
+                    Registers.ordinal(movAdd.getResult()));
+        } else {
+            set(code, index, INVOKE, 0, 0);
+        }
+    }
+
+    /**
+     * Checks whether a label is in labels. Jumps to labels that aren't are left to the Instruction to report.
+     */
+    private static boolean isLabel(String label, Labels labels) {
+        return labels.getAddress(label) != NORMAL_PROGRAM_COUNTER_UPDATE;
+    }
+
+    private static void set(int[] code, int index, int opcode, int first, int second) {
+        set(code, index, opcode, first, second, 0);
+    }
+
+    private static void set(int[] code, int index, int opcode, int first, int second, int third) {
+        code[index] = opcode;
+        code[index + 1] = first;
+        code[index + 2] = second;
+        code[index + 3] = third;
+    }
+
+    /**
+     * Returns the opcodes and operands of the program. The array is not copied, so must not be modified.
+     *
+     * @return the code of the program
+     */
+    int[] getCode() {
+        return code;
+    }
+
+    /**
+     * Returns the Instruction at the given address in the program this CompactProgram was lowered from.
+     *
+     * @param address the address of the Instruction
+     * @return the Instruction
+     */
+    public Instruction getInstruction(int address) {
+        return instructions[address];
+    }
+
+    /**
+     * Returns the number of instructions in this CompactProgram.
+     *
+     * @return the number of instructions
+     */
+    public int size() {
+        return instructions.length;
+    }
+}
@@ -0,0 +1,23 @@
+package sml.engine;
+
+import java.util.function.IntConsumer;
+
+/**
+ * A program compiled by BytecodeCompiler into a JVM class.
+ *
+ * @author Roland Crompton
+ */
+public interface CompiledProgram {
+
+    /**
+     * Runs the program from instruction 0 on the given register values, which are updated in place.
+     * <p></p>
+     * If the program attempts to divide by zero, it stops, leaving the register values in an unspecified state.
+     *
+     * @param registers the value of each register, indexed by the ordinals of their Registers
+     * @param output accepts each value output by the program, in order
+     * @return the value of the program counter when the program stopped. If the program attempted to divide by zero,
+     * the bitwise complement of the address of the div instruction
+     */
+    int run(int[] registers, IntConsumer output);
+}
@@ -0,0 +1,22 @@
+package sml.engine;
+
+import java.util.function.IntConsumer;
+
+/**
+ * A trace of one iteration of a hot loop, recorded by TracingEngine and compiled by BytecodeCompiler into a JVM class.
+ *
+ * @author Roland Crompton
+ */
+public interface CompiledTrace {
+
+    /**
+     * Runs iterations of the trace on the given register values, which are updated in place, until one of its guards
+     * fails: a jump would go elsewhere than it did when the trace was recorded, or a div would divide by zero.
+     *
+     * @param registers the value of each register, indexed by the ordinals of their Registers
+     * @param output accepts each value output by the trace, in order
+     * @return the address of the instruction at which the program continues: the instruction a jump went to instead,
+     * or the div that would have divided by zero
+     */
+    int run(int[] registers, IntConsumer output);
+}
@@ -0,0 +1,102 @@
+package sml.engine;
+
+import sml.ExecutionEngine;
+import sml.Machine;
+import sml.Program;
+import sml.Registers;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * An ExecutionEngine that compiles programs into JVM classes with BytecodeCompiler, then runs the compiled class.
+ * <p></p>
+ * The most recently compiled program is kept, so executing the same program again does not recompile it. A shared
+ * Program is compiled once for every run of it. Programs that can't be compiled are executed by a fallback
+ * ExecutionEngine instead.
+ *
+ * @author Roland Crompton
+ */
+public final class CompilingEngine implements ExecutionEngine {
+
+    /**
+     * The code of a program, and the result of compiling it. The result is null if the program couldn't be compiled.
+     */
+    private record Compilation(int[] code, CompiledProgram compiled) {}
+
+    /**
+     * The ExecutionEngine used for programs that can't be compiled.
+     */
+    private final ExecutionEngine fallback;
+
+    /**
+     * The most recent Compilation. Null if no program has been compiled yet.
+     */
+    private volatile Compilation last;
+
+    /**
+     * Constructs a CompilingEngine that falls back to the InstructionInterpreter.
+     */
+    public CompilingEngine() {
+        this(InstructionInterpreter.INSTANCE);
+    }
+
+    /**
+     * Constructs a CompilingEngine that falls back to the given ExecutionEngine.
+     *
+     * @param fallback the not null ExecutionEngine used for programs that can't be compiled
+     */
+    public CompilingEngine(ExecutionEngine fallback) {
+        this.fallback = Objects.requireNonNull(fallback);
+    }
+
+    /**
+     * Compiles the program of the given machine, unless it was the last program compiled, and runs it on the
+     * registers of the machine. If the program can't be compiled, it is executed by the fallback ExecutionEngine.
+     * <p></p>
+     * If the program attempts to divide by zero, an error message will be displayed and the registers cleared.
+     *
+     * @param machine the machine whose program is executed
+     * @return the value of the program counter when execution stopped
+     */
+    @Override
+    public int execute(Machine machine) {
+        Program shared = machine.getSharedProgram();
+        CompactProgram program = CompactProgram.of(machine);
+        CompiledProgram compiled = (shared != null)
+                ? shared.derive(Compilation.class, p -> compilation(program)).compiled()
+                : compile(program);
+        if (compiled == null)
+            return fallback.execute(machine);
+
+        Registers registers = machine.getRegisters();
+        int[] r = new int[Registers.SIZE];
+        registers.getAll(r);
+        int programCounter = compiled.run(r, machine.getOutput());
+        if (programCounter < 0) {
+            machine.divideByZero(program.getInstruction(~programCounter));
+            return program.size();
+        }
+        registers.setAll(r);
+        return programCounter;
+    }
+
+    /**
+     * Returns the compiled form of the given program, reusing the last compilation if its code is the same.
+     *
+     * @param program the program
+     * @return the compiled program. Null if it can't be compiled
+     */
+    private CompiledProgram compile(CompactProgram program) {
+        Compilation compilation = last;
+        if (compilation == null || !Arrays.equals(compilation.code(), program.getCode())) {
+            compilation = compilation(program);
+            last = compilation;
+        }
+        return compilation.compiled();
+    }
+
+    private static Compilation compilation(CompactProgram program) {
+        return new Compilation(program.getCode(), BytecodeCompiler.compile(program));
+    }
+}
@@ -0,0 +1,46 @@
+package sml.engine;
+
+import sml.ExecutionEngine;
+import sml.Instruction;
+import sml.Machine;
+
+import java.util.List;
+
+import static sml.Instruction.NORMAL_PROGRAM_COUNTER_UPDATE;
+
+/**
+ * The default ExecutionEngine, which executes a program by calling execute on each of its Instructions in turn.
+ * <p></p>
+ * Supports any Instruction, including those without support in other ExecutionEngines.
+ *
+ * @author Roland Crompton
+ */
+public final class InstructionInterpreter implements ExecutionEngine {
+
+    /**
+     * The single instance of InstructionInterpreter. It has no state, so may be shared by any number of Machines.
+     */
+    public static final InstructionInterpreter INSTANCE = new InstructionInterpreter();
+
+    private InstructionInterpreter() {}
+
+    /**
+     * Executes the program of the given machine with a fetch-decode-execute cycle over its Instructions.
+     *
+     * @param machine the machine whose program is executed
+     * @return the value of the program counter when execution stopped
+     */
+    @Override
+    public int execute(Machine machine) {
+        List<Instruction> program = machine.getProgram();
+        int programCounter = 0;
+        while (programCounter < program.size()) {
+            Instruction ins = program.get(programCounter);
+            int programCounterUpdate = ins.execute(machine);
+            programCounter = (programCounterUpdate == NORMAL_PROGRAM_COUNTER_UPDATE)
+                    ? programCounter + 1
+                    : programCounterUpdate;
+        }
+        return programCounter;
+    }
+}
@@ -0,0 +1,162 @@
+package sml.engine;
+
+import sml.IntCollector;
+import sml.RegisterName;
+import sml.Registers;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The registers of many runs of one program, stored as structure-of-arrays: a column of values for each Register,
+ * indexed by lane. Executed by a LockstepEngine.
+ * <p></p>
+ * Before execution, the registers of each lane hold its inputs. Afterwards, they hold its result, and each lane has
+ * the values it output and whether it failed by dividing by zero, in which case its registers are cleared as those of
+ * a Machine would be.
+ *
+ * @author Roland Crompton
+ */
+public final class Lanes {
+
+    /**
+     * The value of each register of each lane, indexed by the ordinal of the Register and then by lane.
+     */
+    final int[][] registers;
+
+    /**
+     * The index in the code of a CompactProgram of the next instruction each lane executes.
+     */
+    final int[] programCounters;
+
+    /**
+     * The values output by each lane. Null for lanes that have not output any.
+     */
+    private final IntCollector[] outputs;
+
+    /**
+     * The lanes that divided by zero.
+     */
+    private final BitSet failed = new BitSet();
+
+    /**
+     * Constructs the registers of the given number of lanes, all zero.
+     *
+     * @param size the number of lanes
+     */
+    public Lanes(int size) {
+        this.registers = new int[Registers.SIZE][size];
+        this.programCounters = new int[size];
+        this.outputs = new IntCollector[size];
+    }
+
+    /**
+     * Returns the number of lanes.
+     *
+     * @return the number of lanes
+     */
+    public int size() {
+        return programCounters.length;
+    }
+
+    /**
+     * Returns the column of values of a register, indexed by lane. The array is not copied, so writing to it sets the
+     * register of each lane, which is the quickest way to fill in the inputs of many lanes.
+     *
+     * @param register the register
+     * @return the values of the register
+     */
+    public int[] getColumn(RegisterName register) {
+        return registers[Registers.ordinal(register)];
+    }
+
+    public int get(int lane, RegisterName register) {
+        return registers[Registers.ordinal(register)][lane];
+    }
+
+    public void set(int lane, RegisterName register, int value) {
+        registers[Registers.ordinal(register)][lane] = value;
+    }
+
+    /**
+     * Returns a copy of the registers of a lane.
+     *
+     * @param lane the lane
+     * @return new Registers holding the values of its registers
+     */
+    public Registers getRegisters(int lane) {
+        Registers copy = new Registers();
+        for (int register = 0; register < Registers.SIZE; register++)
+            copy.set(register, registers[register][lane]);
+        return copy;
+    }
+
+    /**
+     * Sets the registers of a lane to the values of the given Registers.
+     *
+     * @param lane the lane
+     * @param values the values of the registers
+     */
+    public void setRegisters(int lane, Registers values) {
+        for (int register = 0; register < Registers.SIZE; register++)
+            registers[register][lane] = values.get(register);
+    }
+
+    /**
+     * Returns the values output by a lane when it was last executed.
+     *
+     * @param lane the lane
+     * @return the values, in order
+     */
+    public int[] getOutput(int lane) {
+        return (outputs[lane] != null) ? outputs[lane].toArray() : new int[0];
+    }
+
+    /**
+     * Checks whether a lane stopped by dividing by zero when it was last executed.
+     *
+     * @param lane the lane
+     * @return true if it divided by zero
+     */
+    public boolean hasFailed(int lane) {
+        return failed.get(lane);
+    }
+
+    /**
+     * Returns the value of the program counter of a lane when it stopped.
+     *
+     * @param lane the lane
+     * @return the address of the next instruction it would have executed
+     */
+    public int getProgramCounter(int lane) {
+        return programCounters[lane] / CompactProgram.WIDTH;
+    }
+
+    /**
+     * Returns where the values output by a lane are collected.
+     */
+    IntCollector output(int lane) {
+        if (outputs[lane] == null)
+            outputs[lane] = new IntCollector();
+        return outputs[lane];
+    }
+
+    /**
+     * Clears the registers of a lane that divided by zero, and records that it did.
+     */
+    void fail(int lane) {
+        for (int[] column : registers)
+            column[lane] = 0;
+        failed.set(lane);
+    }
+
+    /**
+     * Prepares the lanes for executing from instruction 0, discarding the outputs and failures of the last execution.
+     * The registers are left as they are, as they are the inputs.
+     */
+    void reset() {
+        Arrays.fill(programCounters, 0);
+        Arrays.fill(outputs, null);
+        failed.clear();
+    }
+}
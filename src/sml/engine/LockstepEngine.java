@@ -0,0 +1,381 @@
+package sml.engine;
+
+import sml.Machine;
+import sml.Program;
+import sml.Registers;
+
+import java.util.Arrays;
+
+import static sml.Instruction.NORMAL_PROGRAM_COUNTER_UPDATE;
+import static sml.engine.CompactProgram.*;
+
+/**
+ * Executes one program over many Lanes of input registers at once, each instruction across every lane at it.
+ * <p></p>
+ * The lanes are executed in blocks. Each lane of a block has its own program counter; at each step, the instruction
+ * at the lowest program counter is executed for every lane at it, with the other lanes masked out. Lanes that take
+ * different branches of a jnz diverge, and the lowest-first order brings them back together where the branches meet.
+ * While every lane of a block is at the same instruction, it is executed by a plain loop over the columns of
+ * registers, which the JIT compiler vectorises.
+ * <p></p>
+ * A lane that divides by zero fails: it is masked out for the rest of the execution and its registers cleared. When
+ * so few lanes are at the next instruction that executing it would leave most of the block idle, each of them is
+ * executed to the end on its own instead, by the same switch dispatch as SwitchInterpreter. Instructions without a
+ * compact form are executed as Instructions, a lane at a time, and a lane fails if one of them divides by zero.
+ *
+ * @author Roland Crompton
+ */
+public final class LockstepEngine {
+
+    /**
+     * The number of lanes in each block, by default. The eight columns of a block then fit in the L1 cache.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+    /**
+     * The share of the live lanes of a block, by default, below which the lanes at the next instruction are executed
+     * on their own.
+     */
+    public static final double DEFAULT_MIN_UTILISATION = 1.0 / 16;
+
+    /**
+     * Counts of how well execution kept the lanes together.
+     *
+     * @param steps the number of instructions executed in lockstep
+     * @param laneSteps the number of lanes executing them, summed over the steps
+     * @param fallbacks the number of lanes that were executed on their own
+     */
+    public record LockstepStatistics(long steps, long laneSteps, long fallbacks) {}
+
+    private final int blockSize;
+
+    private final double minUtilisation;
+
+    private long steps;
+
+    private long laneSteps;
+
+    private long fallbacks;
+
+    /**
+     * The Machine Instructions without a compact form are executed on, for the program being executed. Null until
+     * one is executed, and after one divides by zero.
+     */
+    private Machine scratch;
+
+    /**
+     * Constructs a LockstepEngine with the default block size and minimum utilisation.
+     */
+    public LockstepEngine() {
+        this(DEFAULT_BLOCK_SIZE, DEFAULT_MIN_UTILISATION);
+    }
+
+    /**
+     * Constructs a LockstepEngine.
+     *
+     * @param blockSize the number of lanes executed together
+     * @param minUtilisation the share of the live lanes of a block below which the lanes at the next instruction are
+     *                       executed on their own. 0 never executes lanes on their own, and 1 does so as soon as
+     *                       the lanes diverge
+     * @throws IllegalArgumentException if blockSize is not positive, or minUtilisation is not between 0 and 1
+     */
+    public LockstepEngine(int blockSize, double minUtilisation) {
+        if (blockSize <= 0)
+            throw new IllegalArgumentException("The block size must be positive.");
+        if (!(minUtilisation >= 0 && minUtilisation <= 1))
+            throw new IllegalArgumentException("The minimum utilisation must be between 0 and 1.");
+        this.blockSize = blockSize;
+        this.minUtilisation = minUtilisation;
+    }
+
+    /**
+     * Returns the counts of lockstep steps and of lanes executed on their own, over every execution by this engine.
+     *
+     * @return the statistics
+     */
+    public LockstepStatistics getStatistics() {
+        return new LockstepStatistics(steps, laneSteps, fallbacks);
+    }
+
+    /**
+     * Executes a shared Program on every lane.
+     *
+     * @param program the Program
+     * @param lanes the lanes, whose registers hold the inputs
+     */
+    public void execute(Program program, Lanes lanes) {
+        execute(program.derive(CompactProgram.class, CompactProgram::lower), lanes);
+    }
+
+    /**
+     * Executes a lowered program on every lane, beginning at instruction 0 with the registers of each lane as they
+     * are, rather than cleared, as they hold its inputs.
+     *
+     * @param program the lowered program
+     * @param lanes the lanes, whose registers hold the inputs
+     */
+    public void execute(CompactProgram program, Lanes lanes) {
+        lanes.reset();
+        scratch = null;
+        for (int from = 0; from < lanes.size(); from += blockSize)
+            executeBlock(program, lanes, from, Math.min(from + blockSize, lanes.size()));
+    }
+
+    private void executeBlock(CompactProgram program, Lanes lanes, int from, int to) {
+        int[][] r = lanes.registers;
+        int[] pcs = lanes.programCounters;
+        int[] code = program.getCode();
+        int end = code.length;
+
+        while (true) {
+            // Find the lowest program counter, how many lanes are at it, and how many have yet to stop
+            int pc = end;
+            int active = 0;
+            int live = 0;
+            for (int lane = from; lane < to; lane++) {
+                int p = pcs[lane];
+                if (p < end) {
+                    live++;
+                    if (p < pc) {
+                        pc = p;
+                        active = 1;
+                    } else if (p == pc) {
+                        active++;
+                    }
+                }
+            }
+            if (live == 0)
+                return;
+
+            if (active < live * minUtilisation) {
+                for (int lane = from; lane < to; lane++) {
+                    if (pcs[lane] == pc)
+                        executeLane(program, lanes, lane);
+                }
+                fallbacks += active;
+                continue;
+            }
+
+            steps++;
+            laneSteps += active;
+            boolean converged = active == to - from;
+            int next = pc + WIDTH;
+            switch (code[pc]) {
+                case ADD -> {
+                    int[] result = r[code[pc + 1]], source = r[code[pc + 2]];
+                    if (converged) {
+                        for (int lane = from; lane < to; lane++)
+                            result[lane] += source[lane];
+                    } else {
+                        for (int lane = from; lane < to; lane++)
+                            if (pcs[lane] == pc)
+                                result[lane] += source[lane];
+                    }
+                }
+                case SUB -> {
+                    int[] result = r[code[pc + 1]], source = r[code[pc + 2]];
+                    if (converged) {
+                        for (int lane = from; lane < to; lane++)
+                            result[lane] -= source[lane];
+                    } else {
+                        for (int lane = from; lane < to; lane++)
+                            if (pcs[lane] == pc)
+                                result[lane] -= source[lane];
+                    }
+                }
+                case MUL -> {
+                    int[] result = r[code[pc + 1]], source = r[code[pc + 2]];
+                    if (converged) {
+                        for (int lane = from; lane < to; lane++)
+                            result[lane] *= source[lane];
+                    } else {
+                        for (int lane = from; lane < to; lane++)
+                            if (pcs[lane] == pc)
+                                result[lane] *= source[lane];
+                    }
+                }
+                case DIV -> {
+                    int[] result = r[code[pc + 1]], source = r[code[pc + 2]];
+                    for (int lane = from; lane < to; lane++) {
+                        if (pcs[lane] == pc) {
+                            if (source[lane] == 0) {
+                                lanes.fail(lane);
+                                pcs[lane] = end;
+                            } else {
+                                result[lane] /= source[lane];
+                                pcs[lane] = next;
+                            }
+                        }
+                    }
+                    continue;
+                }
+                case MOV -> {
+                    int[] result = r[code[pc + 1]];
+                    int value = code[pc + 2];
+                    if (converged) {
+                        Arrays.fill(result, from, to, value);
+                    } else {
+                        for (int lane = from; lane < to; lane++)
+                            if (pcs[lane] == pc)
+                                result[lane] = value;
+                    }
+                }
+                case OUT -> {
+                    int[] source = r[code[pc + 1]];
+                    for (int lane = from; lane < to; lane++)
+                        if (pcs[lane] == pc)
+                            lanes.output(lane).accept(source[lane]);
+                }
+                case JNZ -> {
+                    int[] source = r[code[pc + 1]];
+                    int target = code[pc + 2];
+                    for (int lane = from; lane < to; lane++)
+                        if (pcs[lane] == pc)
+                            pcs[lane] = (source[lane] != 0) ? target : next;
+                    continue;
+                }
+                case SUB_JNZ -> {
+                    int[] result = r[code[pc + 1]], source = r[code[pc + 2]];
+                    int target = code[pc + 3];
+                    for (int lane = from; lane < to; lane++) {
+                        if (pcs[lane] == pc) {
+                            int value = result[lane] - source[lane];
+                            result[lane] = value;
+                            pcs[lane] = (value != 0) ? target : next;
+                        }
+                    }
+                    continue;
+                }
+                case MOV_ADD -> {
+                    int[] temporary = r[code[pc + 1]], result = r[code[pc + 3]];
+                    int value = code[pc + 2];
+                    for (int lane = from; lane < to; lane++) {
+                        if (pcs[lane] == pc) {
+                            temporary[lane] = value;
+                            result[lane] += value;
+                        }
+                    }
+                }
+                default -> {
+                    for (int lane = from; lane < to; lane++)
+                        if (pcs[lane] == pc)
+                            pcs[lane] = invoke(program, lanes, lane, pc);
+                    continue;
+                }
+            }
+
+            if (converged) {
+                Arrays.fill(pcs, from, to, next);
+            } else {
+                for (int lane = from; lane < to; lane++)
+                    if (pcs[lane] == pc)
+                        pcs[lane] = next;
+            }
+        }
+    }
+
+    /**
+     * Executes a single lane from its program counter until it stops.
+     */
+    private void executeLane(CompactProgram program, Lanes lanes, int lane) {
+        int[] r = new int[Registers.SIZE];
+        for (int register = 0; register < Registers.SIZE; register++)
+            r[register] = lanes.registers[register][lane];
+        int[] code = program.getCode();
+        int end = code.length;
+        int pc = lanes.programCounters[lane];
+
+        while (pc < end) {
+            switch (code[pc]) {
+                case ADD -> {
+                    r[code[pc + 1]] += r[code[pc + 2]];
+                    pc += WIDTH;
+                }
+                case SUB -> {
+                    r[code[pc + 1]] -= r[code[pc + 2]];
+                    pc += WIDTH;
+                }
+                case MUL -> {
+                    r[code[pc + 1]] *= r[code[pc + 2]];
+                    pc += WIDTH;
+                }
+                case DIV -> {
+                    int divisor = r[code[pc + 2]];
+                    if (divisor == 0) {
+                        lanes.fail(lane);
+                        lanes.programCounters[lane] = end;
+                        return;
+                    }
+                    r[code[pc + 1]] /= divisor;
+                    pc += WIDTH;
+                }
+                case MOV -> {
+                    r[code[pc + 1]] = code[pc + 2];
+                    pc += WIDTH;
+                }
+                case OUT -> {
+                    lanes.output(lane).accept(r[code[pc + 1]]);
+                    pc += WIDTH;
+                }
+                case JNZ -> pc = (r[code[pc + 1]] != 0) ? code[pc + 2] : pc + WIDTH;
+                case SUB_JNZ -> {
+                    int value = r[code[pc + 1]] - r[code[pc + 2]];
+                    r[code[pc + 1]] = value;
+                    pc = (value != 0) ? code[pc + 3] : pc + WIDTH;
+                }
+                case MOV_ADD -> {
+                    int value = code[pc + 2];
+                    r[code[pc + 1]] = value;
+                    r[code[pc + 3]] += value;
+                    pc += WIDTH;
+                }
+                default -> {
+                    for (int register = 0; register < Registers.SIZE; register++)
+                        lanes.registers[register][lane] = r[register];
+                    pc = invoke(program, lanes, lane, pc);
+                    for (int register = 0; register < Registers.SIZE; register++)
+                        r[register] = lanes.registers[register][lane];
+                }
+            }
+        }
+        for (int register = 0; register < Registers.SIZE; register++)
+            lanes.registers[register][lane] = r[register];
+        lanes.programCounters[lane] = pc;
+    }
+
+    /**
+     * Returns a Machine for executing the Instructions of the program without a compact form, which may refer to the
+     * size of its program to stop it.
+     */
+    private static Machine scratch(CompactProgram program) {
+        Machine machine = new Machine(new Registers());
+        for (int address = 0; address < program.size(); address++)
+            machine.getProgram().add(program.getInstruction(address));
+        return machine;
+    }
+
+    /**
+     * Executes an Instruction without a compact form for a single lane, on a scratch Machine holding its registers.
+     * If it divides by zero, the lane fails as it would at a div.
+     *
+     * @return the program counter of the lane afterwards
+     */
+    private int invoke(CompactProgram program, Lanes lanes, int lane, int pc) {
+        if (scratch == null)
+            scratch = scratch(program);
+        Registers registers = scratch.getRegisters();
+        for (int register = 0; register < Registers.SIZE; register++)
+            registers.set(register, lanes.registers[register][lane]);
+        scratch.setOutput(lanes.output(lane));
+        int update = program.getInstruction(pc / WIDTH).execute(scratch);
+        if (scratch.hasDividedByZero()) {
+            // The scratch Machine is not executed, so a new one is needed to tell whether the next lane fails
+            scratch = null;
+            lanes.fail(lane);
+            return program.getCode().length;
+        }
+        for (int register = 0; register < Registers.SIZE; register++)
+            lanes.registers[register][lane] = registers.get(register);
+        return (update == NORMAL_PROGRAM_COUNTER_UPDATE) ? pc + WIDTH : update * WIDTH;
+    }
+}
@@ -0,0 +1,110 @@
+package sml.engine;
+
+import sml.ExecutionEngine;
+import sml.Machine;
+import sml.Registers;
+
+import java.nio.ByteBuffer;
+import java.util.function.IntConsumer;
+
+import static sml.Instruction.NORMAL_PROGRAM_COUNTER_UPDATE;
+import static sml.engine.CompactProgram.*;
+import static sml.engine.OffHeapProgram.INSTRUCTION_SIZE;
+
+/**
+ * An ExecutionEngine that executes an OffHeapProgram directly from its buffer, in a single switch-dispatch loop over a
+ * primitive array of register values.
+ * <p></p>
+ * The engine is bound to its OffHeapProgram, and executes it whatever the Instructions of the Machine it is given:
+ * the Machine supplies only the registers, output and labels. See OffHeapProgram.newMachine.
+ *
+ * @author Roland Crompton
+ */
+public final class OffHeapEngine implements ExecutionEngine {
+
+    /**
+     * The program executed by this engine
+     */
+    private final OffHeapProgram program;
+
+    /**
+     * Constructs an engine executing the given program.
+     *
+     * @param program the program
+     */
+    public OffHeapEngine(OffHeapProgram program) {
+        this.program = program;
+    }
+
+    /**
+     * Executes the program of this engine on the registers of the given machine.
+     *
+     * @param machine the machine the program is executed on
+     * @return the value of the program counter when execution stopped
+     */
+    @Override
+    public int execute(Machine machine) {
+        Registers registers = machine.getRegisters();
+        int[] r = new int[Registers.SIZE];
+        registers.getAll(r);
+        IntConsumer output = machine.getOutput();
+        ByteBuffer code = program.getCode();
+        int end = program.size();
+        int pc = 0;
+
+        while (pc < end) {
+            int index = pc * INSTRUCTION_SIZE;
+            switch (code.get(index)) {
+                case ADD -> {
+                    r[code.get(index + 1)] += r[code.get(index + 2)];
+                    pc++;
+                }
+                case SUB -> {
+                    r[code.get(index + 1)] -= r[code.get(index + 2)];
+                    pc++;
+                }
+                case MUL -> {
+                    r[code.get(index + 1)] *= r[code.get(index + 2)];
+                    pc++;
+                }
+                case DIV -> {
+                    int divisor = r[code.get(index + 2)];
+                    if (divisor == 0) {
+                        machine.divideByZero(program.getInstruction(pc));
+                        return end;
+                    }
+                    r[code.get(index + 1)] /= divisor;
+                    pc++;
+                }
+                case MOV -> {
+                    r[code.get(index + 1)] = code.getInt(index + 4);
+                    pc++;
+                }
+                case OUT -> {
+                    output.accept(r[code.get(index + 1)]);
+                    pc++;
+                }
+                case JNZ -> pc = (r[code.get(index + 1)] != 0) ? code.getInt(index + 4) : pc + 1;
+                case SUB_JNZ -> {
+                    int value = r[code.get(index + 1)] - r[code.get(index + 2)];
+                    r[code.get(index + 1)] = value;
+                    pc = (value != 0) ? code.getInt(index + 4) : pc + 1;
+                }
+                case MOV_ADD -> {
+                    int value = code.getInt(index + 4);
+                    r[code.get(index + 1)] = value;
+                    r[code.get(index + 2)] += value;
+                    pc++;
+                }
+                default -> {
+                    registers.setAll(r);
+                    int update = program.getInvoked(code.getInt(index + 4)).execute(machine);
+                    registers.getAll(r);
+                    pc = (update == NORMAL_PROGRAM_COUNTER_UPDATE) ? pc + 1 : update;
+                }
+            }
+        }
+        registers.setAll(r);
+        return pc;
+    }
+}
@@ -0,0 +1,331 @@
+package sml.engine;
+
+import sml.Instruction;
+import sml.Labels;
+import sml.Machine;
+import sml.RegisterName;
+import sml.Registers;
+import sml.Translator;
+import sml.instruction.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+
+import static sml.Instruction.NORMAL_PROGRAM_COUNTER_UPDATE;
+import static sml.engine.CompactProgram.*;
+
+/**
+ * A program stored outside the heap, packed into a direct ByteBuffer at INSTRUCTION_SIZE bytes per instruction, for
+ * programs too large to be held as a list of Instructions.
+ * <p></p>
+ * Each instruction is stored as one byte of opcode, using the opcodes of CompactProgram, two bytes of registers, a byte
+ * of padding, then an int. The fields used by each opcode are:
+ * <ul>
+ *     <li>ADD, SUB, MUL, DIV: result register, source register</li>
+ *     <li>MOV: result register, and the value as the int</li>
+ *     <li>OUT: source register</li>
+ *     <li>JNZ: source register, and the address of the target as the int</li>
+ *     <li>SUB_JNZ: result register, source register, and the address of the target as the int</li>
+ *     <li>MOV_ADD: temporary register, result register, and the value as the int</li>
+ *     <li>INVOKE: the index of the Instruction in a side table as the int. Used for Instructions with no packed
+ *     form, which are kept on the heap</li>
+ * </ul>
+ * The labels are also kept on the heap, in side tables holding only the labeled addresses.
+ * <p></p>
+ * A program is translated into the buffer chunk by chunk, so that the Instructions of the whole program are never
+ * all on the heap at once. It is executed by an OffHeapEngine, which reads the buffer directly. An Instruction object
+ * is only created by getInstruction, when one is needed to show to the user.
+ * <p></p>
+ * The buffer is allocated outside the heap, so is limited by -XX:MaxDirectMemorySize rather than the size of the heap,
+ * and to 2GB, or about 268 million instructions.
+ *
+ * @author Roland Crompton
+ */
+public final class OffHeapProgram {
+
+    /**
+     * The number of bytes used by each instruction.
+     */
+    public static final int INSTRUCTION_SIZE = 8;
+
+    /**
+     * The number of Instructions translated at a time by translate.
+     */
+    private static final int CHUNK_SIZE = 1 << 14;
+
+    private static final Registers.Register[] REGISTERS = Registers.Register.values();
+
+    /**
+     * The instructions, from index 0 to size * INSTRUCTION_SIZE.
+     */
+    private final ByteBuffer code;
+
+    /**
+     * The number of instructions.
+     */
+    private final int size;
+
+    /**
+     * The labels of the program.
+     */
+    private final Labels labels;
+
+    /**
+     * The label of each labeled address.
+     */
+    private final Map<Integer, String> labelAt;
+
+    /**
+     * The Instructions with no packed form, indexed by the int of their INVOKE instruction.
+     */
+    private final Instruction[] invoked;
+
+    private OffHeapProgram(ByteBuffer code, int size, Labels labels, Map<Integer, String> labelAt,
+                           Instruction[] invoked) {
+        this.code = code;
+        this.size = size;
+        this.labels = labels;
+        this.labelAt = labelAt;
+        this.invoked = invoked;
+    }
+
+    /**
+     * Packs Instructions into a buffer as they are added, then resolves their jumps once every label is known.
+     */
+    private static final class Builder {
+
+        private ByteBuffer code = ByteBuffer.allocateDirect(CHUNK_SIZE * INSTRUCTION_SIZE)
+                .order(ByteOrder.nativeOrder());
+
+        private int size = 0;
+
+        private final Map<Integer, String> labelAt = new HashMap<>();
+
+        private final List<Instruction> invoked = new ArrayList<>();
+
+        /**
+         * The labels jumped to, indexed by the int of their JNZ and SUB_JNZ instructions until they are resolved.
+         */
+        private final List<String> targets = new ArrayList<>();
+
+        private final Map<String, Integer> targetIndices = new HashMap<>();
+
+        private void addAll(List<Instruction> instructions) {
+            for (Instruction instruction : instructions)
+                add(instruction);
+        }
+
+        private void add(Instruction instruction) {
+            if (size == Integer.MAX_VALUE / INSTRUCTION_SIZE)
+                throw new IllegalStateException("Program is too large to be stored off the heap.");
+            int index = size * INSTRUCTION_SIZE;
+            if (index == code.capacity()) {
+                long capacity = Math.min(code.capacity() * 2L,
+                        (long) Integer.MAX_VALUE / INSTRUCTION_SIZE * INSTRUCTION_SIZE);
+                ByteBuffer grown = ByteBuffer.allocateDirect((int) capacity).order(ByteOrder.nativeOrder());
+                grown.put(code.clear());
+                code = grown;
+            }
+            if (instruction.getLabel() != null)
+                labelAt.put(size, instruction.getLabel());
+            pack(instruction, index);
+            size++;
+        }
+
+        private void pack(Instruction instruction, int index) {
+            Class<?> type = instruction.getClass();
+            if (type == AddInstruction.class) {
+                AddInstruction add = (AddInstruction) instruction;
+                put(index, ADD, add.getResult(), add.getSource(), 0);
+            } else if (type == SubInstruction.class || type == MulInstruction.class || type == DivInstruction.class) {
+                BiRegisterInstruction bi = (BiRegisterInstruction) instruction;
+                int opcode = (type == SubInstruction.class) ? SUB : (type == MulInstruction.class) ? MUL : DIV;
+                put(index, opcode, bi.getResult(), bi.getSource(), 0);
+            } else if (type == MovInstruction.class) {
+                MovInstruction mov = (MovInstruction) instruction;
+                put(index, MOV, mov.getResult(), null, mov.getValue());
+            } else if (type == OutInstruction.class) {
+                put(index, OUT, ((OutInstruction) instruction).getSource(), null, 0);
+            } else if (JnzInstruction.isJnz(instruction)) {
+                JnzInstruction jnz = (JnzInstruction) instruction;
+                put(index, JNZ, jnz.getSource(), null, target(jnz.getTargetLabel()));
+            } else if (type == SubJnzInstruction.class) {
+                SubJnzInstruction subJnz = (SubJnzInstruction) instruction;
+                put(index, SUB_JNZ, subJnz.getResult(), subJnz.getSource(), target(subJnz.getTargetLabel()));
+            } else if (type == MovAddInstruction.class) {
+                MovAddInstruction movAdd = (MovAddInstruction) instruction;
+                put(index, MOV_ADD, movAdd.getTemporary(), movAdd.getResult(), movAdd.getValue());
+            } else {
+                invoked.add(instruction);
+                put(index, INVOKE, null, null, invoked.size() - 1);
+            }
+        }
+
+        private void put(int index, int opcode, RegisterName first, RegisterName second, int value) {
+            code.put(index, (byte) opcode);
+            code.put(index + 1, (byte) ((first != null) ? Registers.ordinal(first) : 0));
+            code.put(index + 2, (byte) ((second != null) ? Registers.ordinal(second) : 0));
+            code.put(index + 3, (byte) 0);
+            code.putInt(index + 4, value);
+        }
+
+        private int target(String label) {
+            return targetIndices.computeIfAbsent(label, l -> {
+                targets.add(l);
+                return targets.size() - 1;
+            });
+        }
+
+        /**
+         * Replaces the label of every jump with the address of the label.
+         *
+         * @param labels the labels of the program
+         * @return the program
+         * @throws IOException if a jump is to a label that does not exist
+         */
+        private OffHeapProgram build(Labels labels) throws IOException {
+            int[] addresses = new int[targets.size()];
+            for (int i = 0; i < addresses.length; i++) {
+                addresses[i] = labels.getAddress(targets.get(i));
+                if (addresses[i] == NORMAL_PROGRAM_COUNTER_UPDATE) {
+                    System.err.println("Error: label " + targets.get(i) + " does not exist.");
+                    throw new IOException();
+                }
+            }
+            for (int index = 0; index < size * INSTRUCTION_SIZE; index += INSTRUCTION_SIZE) {
+                int opcode = code.get(index);
+                if (opcode == JNZ || opcode == SUB_JNZ)
+                    code.putInt(index + 4, addresses[code.getInt(index + 4)]);
+            }
+            return new OffHeapProgram(code, size, labels.unmodifiableCopy(), Map.copyOf(labelAt),
+                    invoked.toArray(new Instruction[0]));
+        }
+    }
+
+    /**
+     * Translates a program straight into an OffHeapProgram, a chunk of Instructions at a time.
+     *
+     * @param translator the Translator of the program
+     * @return the program
+     * @throws IOException if the program can't be read or translated, or jumps to a label that does not exist
+     */
+    public static OffHeapProgram translate(Translator translator) throws IOException {
+        Builder builder = new Builder();
+        Labels labels = translator.translate(CHUNK_SIZE, builder::addAll);
+        return builder.build(labels);
+    }
+
+    /**
+     * Packs a program held as a list of Instructions into an OffHeapProgram.
+     *
+     * @param program the Instructions of the program
+     * @param labels the labels of the program
+     * @return the program
+     * @throws IllegalArgumentException if the program jumps to a label that does not exist
+     */
+    public static OffHeapProgram of(List<Instruction> program, Labels labels) {
+        Builder builder = new Builder();
+        builder.addAll(program);
+        try {
+            return builder.build(labels);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Program refers to a label that does not exist.", e);
+        }
+    }
+
+    /**
+     * Returns a new Machine that executes this program with an OffHeapEngine.
+     * The Machine's own list of Instructions is left empty; its labels are those of this program.
+     *
+     * @return the Machine
+     */
+    public Machine newMachine() {
+        Machine machine = new Machine(new Registers());
+        machine.getLabels().addAll(labels, 0);
+        machine.setEngine(new OffHeapEngine(this));
+        return machine;
+    }
+
+    /**
+     * Returns the packed instructions. The buffer is shared, so must not be modified.
+     *
+     * @return a read-only view of the instructions
+     */
+    ByteBuffer getCode() {
+        return code.asReadOnlyBuffer().order(code.order());
+    }
+
+    /**
+     * Returns the Instruction with no packed form with the given index.
+     *
+     * @param index the int of its INVOKE instruction
+     * @return the Instruction
+     */
+    Instruction getInvoked(int index) {
+        return invoked[index];
+    }
+
+    /**
+     * Returns the number of instructions in this program.
+     *
+     * @return the number of instructions
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the labels of this program.
+     *
+     * @return the unmodifiable labels
+     */
+    public Labels getLabels() {
+        return labels;
+    }
+
+    /**
+     * Unpacks the instruction at the given address into a new Instruction.
+     *
+     * @param address the address of the instruction
+     * @return the Instruction, equal to the Instruction that was packed
+     */
+    public Instruction getInstruction(int address) {
+        Objects.checkIndex(address, size);
+        int index = address * INSTRUCTION_SIZE;
+        String label = labelAt.get(address);
+        Registers.Register first = register(code.get(index + 1));
+        Registers.Register second = register(code.get(index + 2));
+        int value = code.getInt(index + 4);
+        return switch (code.get(index)) {
+            case ADD -> new AddInstruction(label, first, second);
+            case SUB -> new SubInstruction(label, first, second);
+            case MUL -> new MulInstruction(label, first, second);
+            case DIV -> new DivInstruction(label, first, second);
+            case MOV -> new MovInstruction(label, first, value);
+            case OUT -> new OutInstruction(label, first);
+            case JNZ -> new JnzInstruction(label, first, labelAt.get(value)).link(labels);
+            case SUB_JNZ -> new SubJnzInstruction(label, first, second, labelAt.get(value)).link(labels);
+            case MOV_ADD -> new MovAddInstruction(label, first, value, second);
+            default -> invoked[value];
+        };
+    }
+
+    private static Registers.Register register(byte ordinal) {
+        return REGISTERS[ordinal];
+    }
+
+    /**
+     * Returns the program as text, one instruction per line, as it would be translated.
+     *
+     * @return the program as text
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (int address = 0; address < size; address++)
+            text.append(getInstruction(address)).append('\n');
+        return text.toString();
+    }
+}
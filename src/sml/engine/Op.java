@@ -0,0 +1,98 @@
+package sml.engine;
+
+import sml.Instruction;
+
+/**
+ * An operation of the built-in instruction set, as plain data: a record of register ordinals, values and jump
+ * addresses, lowered from an Instruction for the SealedInterpreter.
+ * <p></p>
+ * The hierarchy is sealed, so every kind of operation is known to the interpreter, which dispatches on Kind in an
+ * exhaustive switch. Any Instruction without a record of its own, such as one registered through instructions.xml, is
+ * wrapped in an Invoke and executed through its own execute method.
+ *
+ * @author Roland Crompton
+ */
+public sealed interface Op {
+
+    /**
+     * The kinds of operation, one for each record implementing Op.
+     */
+    enum Kind { ADD, SUB, MUL, DIV, MOV, OUT, JNZ, SUB_JNZ, MOV_ADD, INVOKE }
+
+    /**
+     * Returns the kind of this operation.
+     *
+     * @return the kind
+     */
+    Kind kind();
+
+    record Add(int result, int source) implements Op {
+        @Override
+        public Kind kind() {
+            return Kind.ADD;
+        }
+    }
+
+    record Sub(int result, int source) implements Op {
+        @Override
+        public Kind kind() {
+            return Kind.SUB;
+        }
+    }
+
+    record Mul(int result, int source) implements Op {
+        @Override
+        public Kind kind() {
+            return Kind.MUL;
+        }
+    }
+
+    record Div(int result, int source) implements Op {
+        @Override
+        public Kind kind() {
+            return Kind.DIV;
+        }
+    }
+
+    record Mov(int result, int value) implements Op {
+        @Override
+        public Kind kind() {
+            return Kind.MOV;
+        }
+    }
+
+    record Out(int source) implements Op {
+        @Override
+        public Kind kind() {
+            return Kind.OUT;
+        }
+    }
+
+    record Jnz(int source, int target) implements Op {
+        @Override
+        public Kind kind() {
+            return Kind.JNZ;
+        }
+    }
+
+    record SubJnz(int result, int source, int target) implements Op {
+        @Override
+        public Kind kind() {
+            return Kind.SUB_JNZ;
+        }
+    }
+
+    record MovAdd(int temporary, int value, int result) implements Op {
+        @Override
+        public Kind kind() {
+            return Kind.MOV_ADD;
+        }
+    }
+
+    record Invoke(Instruction instruction) implements Op {
+        @Override
+        public Kind kind() {
+            return Kind.INVOKE;
+        }
+    }
+}
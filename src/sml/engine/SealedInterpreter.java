@@ -0,0 +1,199 @@
+package sml.engine;
+
+import sml.ExecutionEngine;
+import sml.Instruction;
+import sml.Labels;
+import sml.Machine;
+import sml.Program;
+import sml.Registers;
+import sml.instruction.*;
+
+import java.util.List;
+import java.util.function.IntConsumer;
+
+import static sml.Instruction.NORMAL_PROGRAM_COUNTER_UPDATE;
+
+/**
+ * An ExecutionEngine that lowers the built-in Instructions of a program into the sealed records of Op, then executes
+ * them in an exhaustive switch over their Kind, operating directly on a primitive array of register values.
+ * <p></p>
+ * Every case of the switch is a small, monomorphic block the JIT compiler can inline, rather than a virtual call to
+ * an Instruction. Instructions of any other class, including subclasses of the built-in classes, are wrapped in an
+ * Invoke and still executed through their own execute method, with the register values copied to and from the Machine
+ * around them.
+ * <p></p>
+ * Opt in with Machine.setEngine(new SealedInterpreter()).
+ *
+ * @author Roland Crompton
+ */
+public final class SealedInterpreter implements ExecutionEngine {
+
+    /**
+     * The program counter yielded by an operation that has stopped the program with an error.
+     */
+    private static final int FAILED = Integer.MIN_VALUE;
+
+    /**
+     * A program lowered into operations. The Kind of each operation is held alongside it, so that dispatching on it
+     * needs no call.
+     *
+     * @param ops the operations, by address
+     * @param kinds the kind of each operation
+     * @param instructions the Instructions the operations were lowered from, for reporting errors
+     */
+    private record Lowered(Op[] ops, Op.Kind[] kinds, Instruction[] instructions) {}
+
+    /**
+     * Lowers the program of the given machine and executes it.
+     * A shared Program is only lowered the first time it is executed.
+     *
+     * @param machine the machine whose program is executed
+     * @return the value of the program counter when execution stopped
+     */
+    @Override
+    public int execute(Machine machine) {
+        Program shared = machine.getSharedProgram();
+        Lowered program = (shared != null)
+                ? shared.derive(Lowered.class, p -> lower(p.getInstructions(), p.getLabels()))
+                : lower(machine.getProgram(), machine.getLabels());
+        return execute(machine, program);
+    }
+
+    /**
+     * Lowers a linked program into operations.
+     *
+     * @param program the Instructions of the program
+     * @param labels the labels of the program
+     * @return the lowered program
+     */
+    private static Lowered lower(List<Instruction> program, Labels labels) {
+        Instruction[] instructions = program.toArray(new Instruction[0]);
+        Op[] ops = new Op[instructions.length];
+        Op.Kind[] kinds = new Op.Kind[ops.length];
+        for (int address = 0; address < ops.length; address++) {
+            ops[address] = lower(instructions[address], labels);
+            kinds[address] = ops[address].kind();
+        }
+        return new Lowered(ops, kinds, instructions);
+    }
+
+    /**
+     * Lowers a single Instruction into an operation. Only Instructions of exactly the built-in classes are lowered
+     * into their own records, and jumps only if their label exists; any other Instruction is wrapped in an Invoke.
+     */
+    private static Op lower(Instruction instruction, Labels labels) {
+        Class<?> type = instruction.getClass();
+        if (type == AddInstruction.class) {
+            AddInstruction add = (AddInstruction) instruction;
+            return new Op.Add(Registers.ordinal(add.getResult()), Registers.ordinal(add.getSource()));
+        } else if (type == SubInstruction.class || type == MulInstruction.class || type == DivInstruction.class) {
+            BiRegisterInstruction bi = (BiRegisterInstruction) instruction;
+            int result = Registers.ordinal(bi.getResult());
+            int source = Registers.ordinal(bi.getSource());
+            if (type == SubInstruction.class)
+                return new Op.Sub(result, source);
+            return (type == MulInstruction.class) ? new Op.Mul(result, source) : new Op.Div(result, source);
+        } else if (type == MovInstruction.class) {
+            MovInstruction mov = (MovInstruction) instruction;
+            return new Op.Mov(Registers.ordinal(mov.getResult()), mov.getValue());
+        } else if (type == OutInstruction.class) {
+            return new Op.Out(Registers.ordinal(((OutInstruction) instruction).getSource()));
+        } else if (JnzInstruction.isJnz(instruction)) {
+            JnzInstruction jnz = (JnzInstruction) instruction;
+            int target = labels.getAddress(jnz.getTargetLabel());
+            if (target != NORMAL_PROGRAM_COUNTER_UPDATE)
+                return new Op.Jnz(Registers.ordinal(jnz.getSource()), target);
+        } else if (type == SubJnzInstruction.class) {
+            SubJnzInstruction subJnz = (SubJnzInstruction) instruction;
+            int target = labels.getAddress(subJnz.getTargetLabel());
+            if (target != NORMAL_PROGRAM_COUNTER_UPDATE)
+                return new Op.SubJnz(Registers.ordinal(subJnz.getResult()), Registers.ordinal(subJnz.getSource()),
+                        target);
+        } else if (type == MovAddInstruction.class) {
+            MovAddInstruction movAdd = (MovAddInstruction) instruction;
+            return new Op.MovAdd(Registers.ordinal(movAdd.getTemporary()), movAdd.getValue(),
+                    Registers.ordinal(movAdd.getResult()));
+        }
+        return new Op.Invoke(instruction);
+    }
+
+    /**
+     * Executes a lowered program on the registers of the given machine.
+     */
+    private static int execute(Machine machine, Lowered program) {
+        Registers registers = machine.getRegisters();
+        int[] r = new int[Registers.SIZE];
+        registers.getAll(r);
+        IntConsumer output = machine.getOutput();
+        Op[] ops = program.ops();
+        Op.Kind[] kinds = program.kinds();
+        int end = ops.length;
+        int pc = 0;
+
+        while (pc < end) {
+            Op op = ops[pc];
+            pc = switch (kinds[pc]) {
+                case ADD -> {
+                    Op.Add add = (Op.Add) op;
+                    r[add.result()] += r[add.source()];
+                    yield pc + 1;
+                }
+                case SUB -> {
+                    Op.Sub sub = (Op.Sub) op;
+                    r[sub.result()] -= r[sub.source()];
+                    yield pc + 1;
+                }
+                case MUL -> {
+                    Op.Mul mul = (Op.Mul) op;
+                    r[mul.result()] *= r[mul.source()];
+                    yield pc + 1;
+                }
+                case DIV -> {
+                    Op.Div div = (Op.Div) op;
+                    int divisor = r[div.source()];
+                    if (divisor == 0) {
+                        machine.divideByZero(program.instructions()[pc]);
+                        yield FAILED;
+                    }
+                    r[div.result()] /= divisor;
+                    yield pc + 1;
+                }
+                case MOV -> {
+                    Op.Mov mov = (Op.Mov) op;
+                    r[mov.result()] = mov.value();
+                    yield pc + 1;
+                }
+                case OUT -> {
+                    output.accept(r[((Op.Out) op).source()]);
+                    yield pc + 1;
+                }
+                case JNZ -> {
+                    Op.Jnz jnz = (Op.Jnz) op;
+                    yield (r[jnz.source()] != 0) ? jnz.target() : pc + 1;
+                }
+                case SUB_JNZ -> {
+                    Op.SubJnz subJnz = (Op.SubJnz) op;
+                    int value = r[subJnz.result()] - r[subJnz.source()];
+                    r[subJnz.result()] = value;
+                    yield (value != 0) ? subJnz.target() : pc + 1;
+                }
+                case MOV_ADD -> {
+                    Op.MovAdd movAdd = (Op.MovAdd) op;
+                    r[movAdd.temporary()] = movAdd.value();
+                    r[movAdd.result()] += movAdd.value();
+                    yield pc + 1;
+                }
+                case INVOKE -> {
+                    registers.setAll(r);
+                    int update = ((Op.Invoke) op).instruction().execute(machine);
+                    registers.getAll(r);
+                    yield (update == NORMAL_PROGRAM_COUNTER_UPDATE) ? pc + 1 : update;
+                }
+            };
+            if (pc == FAILED)
+                return end;
+        }
+        registers.setAll(r);
+        return pc;
+    }
+}
@@ -0,0 +1,105 @@
+package sml.engine;
+
+import sml.ExecutionEngine;
+import sml.Machine;
+import sml.Registers;
+
+import java.util.function.IntConsumer;
+
+import static sml.Instruction.NORMAL_PROGRAM_COUNTER_UPDATE;
+import static sml.engine.CompactProgram.*;
+
+/**
+ * An ExecutionEngine that lowers a program into a CompactProgram, then executes it in a single switch-dispatch loop
+ * over a primitive array of register values.
+ * <p></p>
+ * Avoids making a virtual call to an Instruction for each step of the program. Instructions without a compact form
+ * are still executed as Instructions, with the register values copied to and from the Machine around them.
+ *
+ * @author Roland Crompton
+ */
+public final class SwitchInterpreter implements ExecutionEngine {
+
+    /**
+     * Lowers the program of the given machine into a CompactProgram and executes it.
+     * A shared Program is only lowered the first time it is executed.
+     *
+     * @param machine the machine whose program is executed
+     * @return the value of the program counter when execution stopped
+     */
+    @Override
+    public int execute(Machine machine) {
+        return execute(machine, CompactProgram.of(machine));
+    }
+
+    /**
+     * Executes an already lowered program on the registers of the given machine.
+     *
+     * @param machine the machine the program is executed on
+     * @param program the program lowered from the program of machine
+     * @return the value of the program counter when execution stopped
+     */
+    public int execute(Machine machine, CompactProgram program) {
+        Registers registers = machine.getRegisters();
+        int[] r = new int[Registers.SIZE];
+        registers.getAll(r);
+        IntConsumer output = machine.getOutput();
+        int[] code = program.getCode();
+        int end = code.length;
+        int pc = 0;
+
+        while (pc < end) {
+            switch (code[pc]) {
+                case ADD -> {
+                    r[code[pc + 1]] += r[code[pc + 2]];
+                    pc += WIDTH;
+                }
+                case SUB -> {
+                    r[code[pc + 1]] -= r[code[pc + 2]];
+                    pc += WIDTH;
+                }
+                case MUL -> {
+                    r[code[pc + 1]] *= r[code[pc + 2]];
+                    pc += WIDTH;
+                }
+                case DIV -> {
+                    int divisor = r[code[pc + 2]];
+                    if (divisor == 0) {
+                        machine.divideByZero(program.getInstruction(pc / WIDTH));
+                        return program.size();
+                    }
+                    r[code[pc + 1]] /= divisor;
+                    pc += WIDTH;
+                }
+                case MOV -> {
+                    r[code[pc + 1]] = code[pc + 2];
+                    pc += WIDTH;
+                }
+                case OUT -> {
+                    output.accept(r[code[pc + 1]]);
+                    pc += WIDTH;
+                }
+                case JNZ -> pc = (r[code[pc + 1]] != 0) ? code[pc + 2] : pc + WIDTH;
+                case SUB_JNZ -> {
+                    int value = r[code[pc + 1]] - r[code[pc + 2]];
+                    r[code[pc + 1]] = value;
+                    pc = (value != 0) ? code[pc + 3] : pc + WIDTH;
+                }
+                case MOV_ADD -> {
+                    int value = code[pc + 2];
+                    r[code[pc + 1]] = value;
+                    r[code[pc + 3]] += value;
+                    pc += WIDTH;
+                }
+                default -> {
+                    registers.setAll(r);
+                    int update = program.getInstruction(pc / WIDTH).execute(machine);
+                    registers.getAll(r);
+                    pc = (update == NORMAL_PROGRAM_COUNTER_UPDATE) ? pc + WIDTH : update * WIDTH;
+                }
+            }
+        }
+        registers.setAll(r);
+        return pc / WIDTH;
+    }
+}
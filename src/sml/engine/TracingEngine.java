@@ -0,0 +1,294 @@
+package sml.engine;
+
+import sml.ExecutionEngine;
+import sml.Machine;
+import sml.Registers;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+import static sml.Instruction.NORMAL_PROGRAM_COUNTER_UPDATE;
+import static sml.engine.CompactProgram.*;
+
+/**
+ * An ExecutionEngine that interprets a program as the SwitchInterpreter does, compiling only its hot loops.
+ * <p></p>
+ * Each time a jump goes back to an earlier instruction, or to itself, the count of back edges to that instruction is
+ * incremented. Once it reaches the threshold, the loop headed by that instruction is hot: the instructions executed by
+ * its next iteration are recorded, and the trace compiled by BytecodeCompiler into a CompiledTrace. From then on, each
+ * back edge to the header runs the trace instead, until one of its guards fails and the interpreter takes over again.
+ * <p></p>
+ * A recording is abandoned, and the loop never traced, if it grows beyond the maximum length, reaches an Instruction
+ * without a compact form or jumps back to an instruction other than the header, as it does when the loop contains
+ * another loop. The inner loop gets a trace of its own.
+ * <p></p>
+ * The back edge counts and traces of the program last executed are kept, so executing it again runs its hot loops as
+ * traces from the start. As this state isn't shared safely, a TracingEngine should not be used by Machines executing at
+ * the same time; give each its own, as BatchRunner can.
+ *
+ * @author Roland Crompton
+ */
+public final class TracingEngine implements ExecutionEngine {
+
+    /**
+     * The number of back edges to an instruction, by default, after which the loop it heads is traced.
+     */
+    public static final int DEFAULT_THRESHOLD = 1000;
+
+    /**
+     * The most instructions a trace may have, by default.
+     */
+    public static final int DEFAULT_MAX_TRACE_LENGTH = 200;
+
+    /**
+     * Counts of how much of the programs executed has been traced, and how the traces have run.
+     *
+     * @param traces the number of loops traced and compiled
+     * @param abandoned the number of recordings abandoned
+     * @param entries the number of times a trace was run
+     * @param sideExits the number of times a trace was left somewhere other than by the loop ending
+     */
+    public record TraceStatistics(int traces, int abandoned, long entries, long sideExits) {}
+
+    /**
+     * A compiled trace, and the address after its last instruction, at which it is left when the loop ends.
+     */
+    private record Trace(CompiledTrace compiled, int loopExit) {}
+
+    /**
+     * The state kept for a program: the number of back edges to each instruction, and the trace of the loop headed
+     * by each instruction, by address. A header whose recording was abandoned has a count of Integer.MIN_VALUE, so
+     * it never reaches the threshold again.
+     */
+    private record Profile(CompactProgram program, int[] backEdges, Trace[] traces) {}
+
+    /**
+     * The addresses of the instructions executed since recording began.
+     */
+    private static final class Recording {
+
+        private final int header;
+
+        private final int[] addresses;
+
+        private int length;
+
+        private Recording(int header, int maxLength) {
+            this.header = header;
+            this.addresses = new int[maxLength];
+        }
+
+        /**
+         * Appends an address to the recording.
+         *
+         * @return false if the recording is already at its maximum length
+         */
+        private boolean add(int address) {
+            if (length == addresses.length)
+                return false;
+            addresses[length++] = address;
+            return true;
+        }
+    }
+
+    private final int threshold;
+
+    private final int maxTraceLength;
+
+    /**
+     * The Profile of the program last executed. Null if no program has been executed yet.
+     */
+    private Profile last;
+
+    private int traces;
+
+    private int abandoned;
+
+    private long entries;
+
+    private long sideExits;
+
+    /**
+     * Constructs a TracingEngine with the default threshold and maximum trace length.
+     */
+    public TracingEngine() {
+        this(DEFAULT_THRESHOLD, DEFAULT_MAX_TRACE_LENGTH);
+    }
+
+    /**
+     * Constructs a TracingEngine.
+     *
+     * @param threshold the number of back edges to an instruction after which the loop it heads is traced
+     * @param maxTraceLength the most instructions a trace may have
+     * @throws IllegalArgumentException if either is not positive
+     */
+    public TracingEngine(int threshold, int maxTraceLength) {
+        if (threshold <= 0)
+            throw new IllegalArgumentException("The threshold must be positive.");
+        if (maxTraceLength <= 0)
+            throw new IllegalArgumentException("The maximum trace length must be positive.");
+        this.threshold = threshold;
+        this.maxTraceLength = maxTraceLength;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public int getMaxTraceLength() {
+        return maxTraceLength;
+    }
+
+    /**
+     * Returns the counts of loops traced and of trace runs, over every program this engine has executed.
+     *
+     * @return the statistics
+     */
+    public TraceStatistics getTraceStatistics() {
+        return new TraceStatistics(traces, abandoned, entries, sideExits);
+    }
+
+    /**
+     * Interprets the program of the given machine, tracing and compiling its hot loops.
+     * <p></p>
+     * If the program attempts to divide by zero, an error message will be displayed and the registers cleared.
+     *
+     * @param machine the machine whose program is executed
+     * @return the value of the program counter when execution stopped
+     */
+    @Override
+    public int execute(Machine machine) {
+        CompactProgram program = CompactProgram.of(machine);
+        Profile profile = profile(program);
+        Registers registers = machine.getRegisters();
+        int[] r = new int[Registers.SIZE];
+        registers.getAll(r);
+        IntConsumer output = machine.getOutput();
+        int[] code = program.getCode();
+        int end = code.length;
+        int pc = 0;
+        Recording recording = null;
+
+        while (pc < end) {
+            if (recording != null && (code[pc] == INVOKE || !recording.add(pc / WIDTH))) {
+                abandon(profile, recording);
+                recording = null;
+            }
+
+            int next;
+            switch (code[pc]) {
+                case ADD -> {
+                    r[code[pc + 1]] += r[code[pc + 2]];
+                    next = pc + WIDTH;
+                }
+                case SUB -> {
+                    r[code[pc + 1]] -= r[code[pc + 2]];
+                    next = pc + WIDTH;
+                }
+                case MUL -> {
+                    r[code[pc + 1]] *= r[code[pc + 2]];
+                    next = pc + WIDTH;
+                }
+                case DIV -> {
+                    int divisor = r[code[pc + 2]];
+                    if (divisor == 0) {
+                        machine.divideByZero(program.getInstruction(pc / WIDTH));
+                        return program.size();
+                    }
+                    r[code[pc + 1]] /= divisor;
+                    next = pc + WIDTH;
+                }
+                case MOV -> {
+                    r[code[pc + 1]] = code[pc + 2];
+                    next = pc + WIDTH;
+                }
+                case OUT -> {
+                    output.accept(r[code[pc + 1]]);
+                    next = pc + WIDTH;
+                }
+                case JNZ -> next = (r[code[pc + 1]] != 0) ? code[pc + 2] : pc + WIDTH;
+                case SUB_JNZ -> {
+                    int value = r[code[pc + 1]] - r[code[pc + 2]];
+                    r[code[pc + 1]] = value;
+                    next = (value != 0) ? code[pc + 3] : pc + WIDTH;
+                }
+                case MOV_ADD -> {
+                    int value = code[pc + 2];
+                    r[code[pc + 1]] = value;
+                    r[code[pc + 3]] += value;
+                    next = pc + WIDTH;
+                }
+                default -> {
+                    registers.setAll(r);
+                    int update = program.getInstruction(pc / WIDTH).execute(machine);
+                    registers.getAll(r);
+                    next = (update == NORMAL_PROGRAM_COUNTER_UPDATE) ? pc + WIDTH : update * WIDTH;
+                }
+            }
+
+            if (next <= pc) {
+                int header = next / WIDTH;
+                if (recording != null) {
+                    if (header == recording.header)
+                        compile(profile, recording);
+                    else
+                        abandon(profile, recording);
+                    recording = null;
+                }
+                Trace trace = profile.traces()[header];
+                if (trace != null)
+                    next = run(trace, r, output) * WIDTH;
+                else if (++profile.backEdges()[header] >= threshold)
+                    recording = new Recording(header, maxTraceLength);
+            }
+            pc = next;
+        }
+        registers.setAll(r);
+        return pc / WIDTH;
+    }
+
+    /**
+     * Returns the Profile of the given program, reusing the last Profile if it is of the same program.
+     */
+    private Profile profile(CompactProgram program) {
+        Profile profile = last;
+        if (profile == null || (profile.program() != program
+                && !Arrays.equals(profile.program().getCode(), program.getCode()))) {
+            profile = new Profile(program, new int[program.size()], new Trace[program.size()]);
+            last = profile;
+        }
+        return profile;
+    }
+
+    /**
+     * Compiles a completed recording, abandoning it if it can't be compiled.
+     */
+    private void compile(Profile profile, Recording recording) {
+        int[] addresses = Arrays.copyOf(recording.addresses, recording.length);
+        CompiledTrace compiled = BytecodeCompiler.compileTrace(profile.program(), addresses);
+        if (compiled == null) {
+            abandon(profile, recording);
+            return;
+        }
+        profile.traces()[recording.header] = new Trace(compiled, addresses[addresses.length - 1] + 1);
+        traces++;
+    }
+
+    private void abandon(Profile profile, Recording recording) {
+        profile.backEdges()[recording.header] = Integer.MIN_VALUE;
+        abandoned++;
+    }
+
+    /**
+     * Runs a trace on the register values until it is left.
+     *
+     * @return the address at which the program continues
+     */
+    private int run(Trace trace, int[] r, IntConsumer output) {
+        int address = trace.compiled().run(r, output);
+        entries++;
+        if (address != trace.loopExit())
+            sideExits++;
+        return address;
+    }
+}
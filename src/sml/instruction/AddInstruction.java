@@ -47,6 +47,24 @@ public class AddInstruction extends Instruction {
 		this.source = source;
 	}
 
+	/**
+	 * Returns the RegisterName of the register where the result is stored.
+	 *
+	 * @return the result
+	 */
+	public RegisterName getResult() {
+		return result;
+	}
+
+	/**
+	 * Returns the RegisterName of the register added to result.
+	 *
+	 * @return the source
+	 */
+	public RegisterName getSource() {
+		return source;
+	}
+
 	/**
 	 * Executes the instruction on the given machine m. Takes the value stored in the Register in m corresponding to
 	 * RegisterName result defined at construction, adds it to the value stored in the Register in m corresponding to
@@ -5,7 +5,7 @@ import sml.Machine;
 import sml.RegisterName;
 
 import java.util.Objects;
-import java.util.function.BinaryOperator;
+import java.util.function.IntBinaryOperator;
 
 /**
  * Abstract class for implementing Instructions that upon execution perform an operation on two registers r and s,
@@ -43,18 +43,36 @@ public abstract class BiRegisterInstruction extends Instruction {
     }
 
     /**
-     * Executes the given BinaryOperator f on the value stored at the registers specified at construction in a Machine m.
+     * Returns the RegisterName of the register storing the first operand and where the result is stored.
+     *
+     * @return the result
+     */
+    public RegisterName getResult() {
+        return result;
+    }
+
+    /**
+     * Returns the RegisterName of the register storing the second operand.
+     *
+     * @return the source
+     */
+    public RegisterName getSource() {
+        return source;
+    }
+
+    /**
+     * Executes the given IntBinaryOperator f on the value stored at the registers specified at construction in a Machine m.
      *
      * @param m the machine the instruction runs on, where the values will be retrieved from and where the result will
      *          be stored
-     * @param f a BinaryOperator specifying the operation to be done to the values stored at the registers
+     * @param f an IntBinaryOperator specifying the operation to be done to the values stored at the registers
      * @return the normal program counter update indicating the program counter should move onto the instruction with
      * the next address
      */
-    public int execute(Machine m, BinaryOperator<Integer> f) {
+    public int execute(Machine m, IntBinaryOperator f) {
         int value1 = m.getRegisters().get(result);
         int value2 = m.getRegisters().get(source);
-        m.getRegisters().set(result, f.apply(value1, value2));
+        m.getRegisters().set(result, f.applyAsInt(value1, value2));
         return NORMAL_PROGRAM_COUNTER_UPDATE;
     }
 
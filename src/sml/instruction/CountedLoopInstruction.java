@@ -0,0 +1,541 @@
+package sml.instruction;
+
+import sml.Instruction;
+import sml.Machine;
+import sml.RegisterName;
+import sml.Registers;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A superinstruction replacing a whole counted loop: a labeled block of add, sub, mul and mov instructions ending in
+ * a jnz back to its label. Created by LoopOptimiser rather than from SML source.
+ * <p></p>
+ * When executed, leaves the registers as the loop would on exiting it, without executing each iteration. Every
+ * register written by the loop must change in a way with a closed form over the number of iterations:
+ * <ul>
+ *     <li>moved: only set by mov, and only read after it is set in the same iteration, so it is constant</li>
+ *     <li>affine: only changed by adding or subtracting constants, so it changes by the same amount each
+ *     iteration</li>
+ *     <li>quadratic: only changed by adding or subtracting constants and affine registers, such as a sum of a
+ *     counter</li>
+ *     <li>geometric: only multiplied by constants</li>
+ *     <li>product: only multiplied by constants and affine registers, such as a factorial. Not read by any other
+ *     instruction</li>
+ * </ul>
+ * The register tested by the jnz must be constant or affine, so the number of iterations can be solved for. Quadratic,
+ * geometric and product registers may not be read by any other instruction of the loop.
+ * <p></p>
+ * As int arithmetic wraps around, every closed form is evaluated modulo 2<sup>32</sup>, so the registers are exactly
+ * those the loop would leave, however many times it overflows. A product of the values of an affine register with an
+ * even step is evaluated as a polynomial in the offset of its terms, doubling the number of terms each time, and one
+ * with an odd step is 0 after at most 64 terms, as every other term is even. A loop that would never exit is executed
+ * an iteration at a time, forever.
+ *
+ * @author Roland Crompton
+ */
+public class CountedLoopInstruction extends Instruction {
+
+    /**
+     * The operation code for all CountedLoopInstructions. The name of the operation.
+     */
+    private static final String OP_CODE = "loop";
+
+    // The operations of the loop body
+    private static final int MOV = 0;
+    private static final int ADD = 1;
+    private static final int SUB = 2;
+    private static final int MUL = 3;
+
+    // How each register changes
+    private static final int INVARIANT = 0;
+    private static final int MOVED = 1;
+    private static final int AFFINE = 2;
+    private static final int QUADRATIC = 3;
+    private static final int GEOMETRIC = 4;
+    private static final int PRODUCT = 5;
+
+    /**
+     * The Instructions of the loop, the first labeled and the last jumping back to it.
+     */
+    private final List<Instruction> body;
+
+    /**
+     * The operation, result register ordinal, source register ordinal and value of each operation of the body, in
+     * order. The source register is not used by MOV, and the value is only used by MOV.
+     */
+    private final int[] operations, results, sources, values;
+
+    /**
+     * The ordinal of the register tested by the jnz
+     */
+    private final int test;
+
+    /**
+     * How each register changes, by ordinal
+     */
+    private final int[] changes;
+
+    private CountedLoopInstruction(List<Instruction> body, int[] operations, int[] results, int[] sources,
+                                   int[] values, int test, int[] changes) {
+        super(body.get(0).getLabel(), OP_CODE);
+        this.body = body;
+        this.operations = operations;
+        this.results = results;
+        this.sources = sources;
+        this.values = values;
+        this.test = test;
+        this.changes = changes;
+    }
+
+    /**
+     * Returns a CountedLoopInstruction for a loop, if the loop has a closed form.
+     *
+     * @param loop the Instructions of the loop: a labeled first Instruction, a JnzInstruction or SubJnzInstruction
+     *             jumping to it last, and no other labels
+     * @return the CountedLoopInstruction, or null if the Instructions are not a loop with a closed form
+     */
+    public static CountedLoopInstruction of(List<Instruction> loop) {
+        if (loop.isEmpty() || loop.get(0).getLabel() == null)
+            return null;
+        for (int i = 1; i < loop.size(); i++)
+            if (loop.get(i).getLabel() != null)
+                return null;
+
+        // Decode the body into operations, splitting fused instructions
+        int capacity = loop.size() * 2;
+        int[] operations = new int[capacity], results = new int[capacity], sources = new int[capacity],
+                values = new int[capacity];
+        int count = 0;
+        int test;
+        Instruction last = loop.get(loop.size() - 1);
+        for (Instruction instruction : loop.subList(0, loop.size() - 1)) {
+            Class<?> type = instruction.getClass();
+            if (type == MovInstruction.class) {
+                MovInstruction mov = (MovInstruction) instruction;
+                set(operations, results, sources, values, count++, MOV, ordinal(mov.getResult()), 0, mov.getValue());
+            } else if (type == AddInstruction.class) {
+                AddInstruction add = (AddInstruction) instruction;
+                count = add(operations, results, sources, values, count, ADD,
+                        ordinal(add.getResult()), ordinal(add.getSource()));
+            } else if (type == SubInstruction.class || type == MulInstruction.class) {
+                BiRegisterInstruction bi = (BiRegisterInstruction) instruction;
+                count = add(operations, results, sources, values, count, (type == SubInstruction.class) ? SUB : MUL,
+                        ordinal(bi.getResult()), ordinal(bi.getSource()));
+            } else if (type == MovAddInstruction.class) {
+                MovAddInstruction movAdd = (MovAddInstruction) instruction;
+                int temporary = ordinal(movAdd.getTemporary());
+                set(operations, results, sources, values, count++, MOV, temporary, 0, movAdd.getValue());
+                count = add(operations, results, sources, values, count, ADD, ordinal(movAdd.getResult()),
+                        temporary);
+            } else {
+                return null;
+            }
+            if (count < 0)
+                return null;
+        }
+        if (JnzInstruction.isJnz(last)) {
+            JnzInstruction jnz = (JnzInstruction) last;
+            if (!jnz.getTargetLabel().equals(loop.get(0).getLabel()))
+                return null;
+            test = ordinal(jnz.getSource());
+        } else if (last.getClass() == SubJnzInstruction.class) {
+            SubJnzInstruction subJnz = (SubJnzInstruction) last;
+            if (!subJnz.getTargetLabel().equals(loop.get(0).getLabel()))
+                return null;
+            test = ordinal(subJnz.getResult());
+            count = add(operations, results, sources, values, count, SUB, test, ordinal(subJnz.getSource()));
+            if (count < 0)
+                return null;
+        } else {
+            return null;
+        }
+
+        int[] changes = classify(operations, results, sources, count, test);
+        if (changes == null)
+            return null;
+        return new CountedLoopInstruction(List.copyOf(loop), Arrays.copyOf(operations, count),
+                Arrays.copyOf(results, count), Arrays.copyOf(sources, count), Arrays.copyOf(values, count), test,
+                changes);
+    }
+
+    private static int ordinal(RegisterName register) {
+        return Registers.ordinal(register);
+    }
+
+    private static void set(int[] operations, int[] results, int[] sources, int[] values, int index, int operation,
+                            int result, int source, int value) {
+        operations[index] = operation;
+        results[index] = result;
+        sources[index] = source;
+        values[index] = value;
+    }
+
+    /**
+     * Adds an operation on two registers.
+     *
+     * @return the new number of operations, or -1 if the operation reads the register it changes, other than by
+     * subtracting it from itself
+     */
+    private static int add(int[] operations, int[] results, int[] sources, int[] values, int count, int operation,
+                           int result, int source) {
+        if (result == source) {
+            if (operation != SUB)
+                return -1;
+            set(operations, results, sources, values, count, MOV, result, 0, 0);
+        } else {
+            set(operations, results, sources, values, count, operation, result, source, 0);
+        }
+        return count + 1;
+    }
+
+    /**
+     * Works out how each register changes over the loop.
+     *
+     * @return how each register changes, by ordinal, or null if a register has no closed form
+     */
+    private static int[] classify(int[] operations, int[] results, int[] sources, int count, int test) {
+        int[] written = new int[Registers.SIZE];
+        for (int i = 0; i < count; i++)
+            written[results[i]] |= 1 << operations[i];
+
+        int[] changes = new int[Registers.SIZE];
+        int[] degree = new int[Registers.SIZE];
+        for (int register = 0; register < changes.length; register++) {
+            switch (written[register]) {
+                case 0 -> changes[register] = INVARIANT;
+                case 1 << MOV -> changes[register] = MOVED;
+                case 1 << ADD, 1 << SUB, (1 << ADD) | (1 << SUB) -> {
+                    changes[register] = AFFINE;
+                    degree[register] = 1;
+                }
+                case 1 << MUL -> changes[register] = GEOMETRIC;
+                default -> {
+                    return null;
+                }
+            }
+        }
+
+        // A moved register must be set before it is read, so that it is the same in every iteration
+        for (int i = 0; i <= count; i++) {
+            int read = (i == count) ? test : sources[i];
+            if ((i == count || operations[i] != MOV) && changes[read] == MOVED && !isMovedBefore(operations, results,
+                    read, i))
+                return null;
+        }
+
+        // Adding a register that changes by a constant each iteration makes a register quadratic
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < count; i++) {
+                if (operations[i] != ADD && operations[i] != SUB)
+                    continue;
+                int source = sources[i];
+                if (changes[source] == GEOMETRIC)
+                    return null;
+                int sum = degree[source] + 1;
+                if (sum > 2)
+                    return null;
+                if (sum > degree[results[i]]) {
+                    degree[results[i]] = sum;
+                    changed = true;
+                }
+            }
+        }
+        for (int register = 0; register < changes.length; register++)
+            if (changes[register] == AFFINE && degree[register] == 2)
+                changes[register] = QUADRATIC;
+
+        // Multiplying by an affine register makes a product
+        for (int i = 0; i < count; i++) {
+            if (operations[i] != MUL)
+                continue;
+            int source = sources[i];
+            if (changes[source] == AFFINE)
+                changes[results[i]] = PRODUCT;
+            else if (changes[source] != INVARIANT && changes[source] != MOVED)
+                return null;
+        }
+
+        // Nothing may read a quadratic, geometric or product register, as that would have no closed form
+        for (int i = 0; i < count; i++)
+            if (operations[i] != MOV && changes[sources[i]] >= QUADRATIC)
+                return null;
+        if (changes[test] >= QUADRATIC)
+            return null;
+        return changes;
+    }
+
+    private static boolean isMovedBefore(int[] operations, int[] results, int register, int index) {
+        for (int i = 0; i < index; i++)
+            if (operations[i] == MOV && results[i] == register)
+                return true;
+        return false;
+    }
+
+    /**
+     * Returns the Instructions of the loop this CountedLoopInstruction replaces.
+     *
+     * @return the unmodifiable list of Instructions
+     */
+    public List<Instruction> getBody() {
+        return body;
+    }
+
+    /**
+     * Leaves the registers of the Machine as the loop would on exiting it.
+     *
+     * @param m the machine the instruction runs on
+     * @return the normal program counter update indicating the program counter should move onto the instruction
+     * following the loop
+     */
+    @Override
+    public int execute(Machine m) {
+        Registers registers = m.getRegisters();
+        int[] start = new int[Registers.SIZE];
+        registers.getAll(start);
+
+        // Execute the first two iterations, recording the value of every source, to find the change per iteration
+        int[] state = start.clone();
+        int[] first = new int[operations.length], second = new int[operations.length];
+        int firstTest = iterate(state, first);
+        if (firstTest == 0) {
+            registers.setAll(state);
+            return NORMAL_PROGRAM_COUNTER_UPDATE;
+        }
+        int[] afterFirst = state.clone();
+        int secondTest = iterate(state, second);
+        if (secondTest == 0) {
+            registers.setAll(state);
+            return NORMAL_PROGRAM_COUNTER_UPDATE;
+        }
+
+        long iterations = iterations(firstTest, secondTest - firstTest);
+        if (iterations < 0) {
+            // The loop never exits
+            while (iterate(state, second) != 0);
+            registers.setAll(state);
+            return NORMAL_PROGRAM_COUNTER_UPDATE;
+        }
+
+        int n = (int) iterations;
+        int[] end = new int[Registers.SIZE];
+        for (int register = 0; register < end.length; register++) {
+            int step = afterFirst[register] - start[register];
+            end[register] = switch (changes[register]) {
+                case INVARIANT -> start[register];
+                case MOVED -> afterFirst[register];
+                case AFFINE -> start[register] + n * step;
+                case QUADRATIC -> start[register] + n * step
+                        + (state[register] - afterFirst[register] - step) * triangle(iterations);
+                case GEOMETRIC -> start[register] * power(multiplier(register, first), iterations);
+                default -> product(register, start[register], first, second, iterations);
+            };
+        }
+        registers.setAll(end);
+        return NORMAL_PROGRAM_COUNTER_UPDATE;
+    }
+
+    /**
+     * Executes one iteration of the loop.
+     *
+     * @param state the values of the registers, updated
+     * @param read the value of the source of each operation when it is executed, set
+     * @return the value of the tested register at the end of the iteration
+     */
+    private int iterate(int[] state, int[] read) {
+        for (int i = 0; i < operations.length; i++) {
+            int result = results[i];
+            int source = (operations[i] == MOV) ? values[i] : state[sources[i]];
+            read[i] = source;
+            state[result] = switch (operations[i]) {
+                case MOV -> source;
+                case ADD -> state[result] + source;
+                case SUB -> state[result] - source;
+                default -> state[result] * source;
+            };
+        }
+        return state[test];
+    }
+
+    /**
+     * Solves for the number of iterations: one more than the first j for which the tested register is 0 at the end
+     * of iteration j, where its value is first + j * step modulo 2<sup>32</sup>.
+     *
+     * @param first the value of the tested register at the end of the first iteration. Not 0
+     * @param step the change in the value of the tested register each iteration
+     * @return the number of iterations, up to 2<sup>32</sup>, or -1 if the tested register is never 0
+     */
+    private static long iterations(int first, int step) {
+        if (step == 0)
+            return -1;
+        // step * j = -first has a solution if step's factor of 2 divides -first
+        int twos = Integer.numberOfTrailingZeros(step);
+        int target = -first;
+        if ((target & ((1 << twos) - 1)) != 0)
+            return -1;
+        int odd = step >>> twos;
+        // The inverse of an odd number modulo 2^32, by Newton's method: each step doubles the correct bits
+        int inverse = odd;
+        for (int i = 0; i < 5; i++)
+            inverse *= 2 - odd * inverse;
+        long mask = (1L << (32 - twos)) - 1;
+        long j = ((target >>> twos) * inverse) & mask;
+        return j + 1;
+    }
+
+    /**
+     * Returns n(n - 1) / 2 modulo 2<sup>32</sup>, the sum of 0 to n - 1.
+     */
+    private static int triangle(long n) {
+        long a = n, b = n - 1;
+        if (a % 2 == 0)
+            a /= 2;
+        else
+            b /= 2;
+        return (int) (a * b);
+    }
+
+    private static int power(int base, long exponent) {
+        int result = 1;
+        while (exponent > 0) {
+            if ((exponent & 1) != 0)
+                result *= base;
+            base *= base;
+            exponent >>= 1;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the product of the values a geometric register is multiplied by in an iteration.
+     */
+    private int multiplier(int register, int[] read) {
+        int multiplier = 1;
+        for (int i = 0; i < operations.length; i++)
+            if (operations[i] == MUL && results[i] == register)
+                multiplier *= read[i];
+        return multiplier;
+    }
+
+    /**
+     * Multiplies a product register by the value of each register it is multiplied by in every iteration.
+     */
+    private int product(int register, int value, int[] first, int[] second, long iterations) {
+        for (int i = 0; i < operations.length; i++)
+            if (operations[i] == MUL && results[i] == register)
+                value *= product(first[i], second[i] - first[i], iterations);
+        return value;
+    }
+
+    /**
+     * Returns the product of a + k * step for k from 0 to n - 1, modulo 2<sup>32</sup>.
+     * <p></p>
+     * With an odd step, every other term is even, so the product is 0 after at most 64 terms. Otherwise, with
+     * 2<sup>t</sup> the largest power of 2 dividing the step, the product of m terms from a + u, for u a multiple of
+     * 2<sup>t</sup>, is a polynomial in u, of which only the coefficients of u<sup>j</sup> with tj < 32 are not
+     * multiplied away. The product of 2m terms is that of m terms from u times that of m terms from u + m * step, so
+     * the polynomial for n terms is built from the bits of n, as in power.
+     */
+    private static int product(int a, int step, long n) {
+        if ((step & 1) != 0) {
+            int value = 1;
+            for (long k = 0; k < n && value != 0; k++)
+                value *= a + (int) k * step;
+            return value;
+        }
+        // ceil(32 / t) coefficients, or just the constant if the step is 0 and every term is a
+        int degree = 31 / Integer.numberOfTrailingZeros(step) + 1;
+        int[] polynomial = new int[degree];
+        polynomial[0] = 1;
+        int terms = 0;
+        for (int bit = 63 - Long.numberOfLeadingZeros(n); bit >= 0; bit--) {
+            polynomial = multiply(polynomial, shift(polynomial, terms * step));
+            terms *= 2;
+            if ((n >>> bit & 1) != 0) {
+                // Multiply by the next term, a + terms * step + u
+                int constant = a + terms * step;
+                for (int j = degree - 1; j > 0; j--)
+                    polynomial[j] = constant * polynomial[j] + polynomial[j - 1];
+                polynomial[0] *= constant;
+                terms++;
+            }
+        }
+        return polynomial[0];
+    }
+
+    /**
+     * Returns the product of two polynomials, without the coefficients beyond their degree.
+     */
+    private static int[] multiply(int[] p, int[] q) {
+        int[] product = new int[p.length];
+        for (int i = 0; i < p.length; i++)
+            for (int j = 0; i + j < p.length; j++)
+                product[i + j] += p[i] * q[j];
+        return product;
+    }
+
+    /**
+     * Returns the polynomial p(u + offset), by the binomial theorem.
+     */
+    private static int[] shift(int[] p, int offset) {
+        int[] shifted = new int[p.length];
+        for (int j = 0; j < p.length; j++) {
+            // The coefficient of u^i in (u + offset)^j is binomial(j, i) * offset^(j - i)
+            int binomial = 1;
+            int power = 1;
+            for (int i = j; i >= 0; i--) {
+                shifted[i] += p[j] * binomial * power;
+                binomial = (int) ((long) binomial * i / (j - i + 1));
+                power *= offset;
+            }
+        }
+        return shifted;
+    }
+
+    /**
+     * Checks if two CountedLoopInstructions are equal. Two CountedLoopInstructions are equal if they replace equal
+     * loops.
+     *
+     * @param o an object to be compared to this CountedLoopInstruction.
+     * @return false if o is not a CountedLoopInstruction or is not equal to this. True if o is equal to this.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof CountedLoopInstruction instruction) {
+            return this.body.equals(instruction.body);
+        }
+        return false;
+    }
+
+    /**
+     * Returns a hash code for this CountedLoopInstruction. If two CountedLoopInstructions replace equal loops, they
+     * will have the same hash code.
+     *
+     * @return a hash code representing this CountedLoopInstruction.
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(opcode, body);
+    }
+
+    /**
+     * Returns a String representation of this CountedLoopInstruction as the Instructions of the loop it replaces, on
+     * separate lines.
+     *
+     * @return a String representation of this CountedLoopInstruction readable by humans.
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (Instruction instruction : body) {
+            if (!text.isEmpty())
+                text.append('\n');
+            text.append(instruction);
+        }
+        return text.toString();
+    }
+}
@@ -71,10 +71,7 @@ public class DivInstruction extends BiRegisterInstruction {
     public int execute(Machine m) {
         // Test for division by zero
         if (m.getRegisters().get(source) == 0) {
-            System.err.println("Error with instruction: "
-                    + this
-                    + "\nCannot divide by zero. Program failed to execute.");
-            m.getRegisters().clear();
+            m.divideByZero(this);
             return m.getProgram().size();
         }
         return super.execute(m, (one, two) -> one/two);
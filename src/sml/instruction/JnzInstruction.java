@@ -1,6 +1,7 @@
 package sml.instruction;
 
 import sml.Instruction;
+import sml.Labels;
 import sml.Machine;
 import sml.RegisterName;
 
@@ -46,6 +47,35 @@ public class JnzInstruction extends Instruction {
         this.targetLabel = targetLabel;
     }
 
+    /**
+     * Returns the RegisterName of the register to be checked.
+     *
+     * @return the source
+     */
+    public RegisterName getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the label of the instruction to be jumped to.
+     *
+     * @return the targetLabel
+     */
+    public String getTargetLabel() {
+        return targetLabel;
+    }
+
+    /**
+     * Checks whether an Instruction is a JnzInstruction, linked or not, rather than a subclass of JnzInstruction that
+     * may behave differently.
+     *
+     * @param instruction the Instruction to be checked
+     * @return true if instruction was constructed as a JnzInstruction or linked from one. False otherwise
+     */
+    public static boolean isJnz(Instruction instruction) {
+        return instruction.getClass() == JnzInstruction.class || instruction.getClass() == Linked.class;
+    }
+
     /**
      * Checks if two JnzInstructions are equal. Two JnzInstructions are equal if they have the same label,
      * source, and targetLabel.
@@ -63,11 +93,36 @@ public class JnzInstruction extends Instruction {
         return false;
     }
 
+    /**
+     * Returns a JnzInstruction equal to this one whose targetLabel has been resolved into the address of the
+     * instruction it labels, so that executing it does not require looking the label up.
+     * <p></p>
+     * If the targetLabel does not correspond to the label of any instruction in the program, an error message will be
+     * displayed.
+     *
+     * @param labels the labels of the program this JnzInstruction is part of
+     * @return the linked JnzInstruction. Null if targetLabel is not in labels
+     */
+    @Override
+    public Instruction link(Labels labels) {
+        int address = labels.getAddress(targetLabel);
+        if (address == NORMAL_PROGRAM_COUNTER_UPDATE) {
+            System.err.println("Error with instruction: " +
+                    this +
+                    "\nInstruction with label " +
+                    targetLabel +
+                    " not found.");
+            return null;
+        }
+        return new Linked(label, source, targetLabel, address);
+    }
+
     /**
      * If the value stored in the register corresponding to RegisterName source specified at construction is not equal
      * to 0, the instruction will tell the program counter in Machine m to jump to the instruction with the targetLabel
      * given at construction. Otherwise, the program continues to the instruction with the next address.
      * <p></p>
+     * As this JnzInstruction has not been linked, the targetLabel is looked up in the labels of m.
      * If the targetLabel does not correspond to the label of any instruction in the program, the registers will be
      * cleared, an error message displayed, and the program terminated.
      *
@@ -121,4 +176,46 @@ public class JnzInstruction extends Instruction {
         return getLabelString() + OP_CODE + " " + source + " " + targetLabel;
     }
 
+    /**
+     * A JnzInstruction whose targetLabel has been resolved to an address by linking. Equal to the JnzInstruction it was
+     * linked from.
+     */
+    private static final class Linked extends JnzInstruction {
+
+        /**
+         * The address in the program of the instruction labelled with targetLabel.
+         */
+        private final int targetAddress;
+
+        private Linked(String label, RegisterName source, String targetLabel, int targetAddress) {
+            super(label, source, targetLabel);
+            this.targetAddress = targetAddress;
+        }
+
+        /**
+         * Returns this Linked if its targetAddress is still the address of targetLabel in labels.
+         * Otherwise, relinks it.
+         *
+         * @param labels the labels of the program this JnzInstruction is part of
+         * @return the linked JnzInstruction. Null if targetLabel is not in labels
+         */
+        @Override
+        public Instruction link(Labels labels) {
+            return (labels.getAddress(super.targetLabel) == targetAddress) ? this : super.link(labels);
+        }
+
+        /**
+         * If the value stored in the register corresponding to RegisterName source is not equal to 0, the instruction
+         * will tell the program counter in Machine m to jump to the resolved targetAddress. Otherwise, the program
+         * continues to the instruction with the next address.
+         *
+         * @param m the machine the instruction runs on
+         * @return targetAddress if the value of the register is not 0, otherwise the normal program counter update
+         */
+        @Override
+        public int execute(Machine m) {
+            return (m.getRegisters().get(super.source) == 0) ? NORMAL_PROGRAM_COUNTER_UPDATE : targetAddress;
+        }
+    }
+
 }
@@ -0,0 +1,139 @@
+package sml.instruction;
+
+import sml.Instruction;
+import sml.Machine;
+import sml.RegisterName;
+import sml.Registers;
+
+import java.util.Objects;
+
+/**
+ * A superinstruction fusing a MovInstruction with a following AddInstruction that adds the moved value to another
+ * register, in effect adding an immediate value. Created by SuperinstructionFuser rather than from SML source.
+ * <p></p>
+ * When executed, stores value in the register temporary, then adds value to the value stored at result, storing the
+ * resulting value in result.
+ *
+ * @author Roland Crompton
+ */
+public class MovAddInstruction extends Instruction {
+
+    /**
+     * The operation code for all MovAddInstructions. The name of the operation.
+     */
+    private static final String OP_CODE = "mov+add";
+
+    /**
+     * The RegisterName for the register where value is stored by the fused MovInstruction. Should never be null.
+     */
+    private final RegisterName temporary;
+
+    /**
+     * An integer value to be stored in temporary and added to result upon execution.
+     */
+    private final int value;
+
+    /**
+     * The RegisterName for the register value is added to, and where the result will be stored. Should never be null.
+     */
+    private final RegisterName result;
+
+    /**
+     * Constructs a new MovAddInstruction with an optional label, a RegisterName temporary, an integer value, and a
+     * RegisterName result.
+     *
+     * @param label optional label, the label of the fused MovInstruction (can be null)
+     * @param temporary the not-null RegisterName of the register where value will be stored
+     * @param value the integer value to be stored in temporary and added to result
+     * @param result the not-null RegisterName of the register value will be added to
+     */
+    public MovAddInstruction(String label, RegisterName temporary, int value, RegisterName result) {
+        super(label, OP_CODE);
+        this.temporary = temporary;
+        this.value = value;
+        this.result = result;
+    }
+
+    /**
+     * Returns the RegisterName of the register where value is stored.
+     *
+     * @return the temporary
+     */
+    public RegisterName getTemporary() {
+        return temporary;
+    }
+
+    /**
+     * Returns the integer value stored in temporary and added to result.
+     *
+     * @return the value
+     */
+    public int getValue() {
+        return value;
+    }
+
+    /**
+     * Returns the RegisterName of the register value is added to.
+     *
+     * @return the result
+     */
+    public RegisterName getResult() {
+        return result;
+    }
+
+    /**
+     * Stores value in the register temporary in Machine m, then adds it to the value stored in the register result,
+     * storing the resulting value in result.
+     *
+     * @param m the machine the instruction runs on
+     * @return the normal program counter update indicating the program counter should move onto the instruction with
+     * the next address
+     */
+    @Override
+    public int execute(Machine m) {
+        Registers registers = m.getRegisters();
+        registers.set(temporary, value);
+        registers.set(result, registers.get(result) + value);
+        return NORMAL_PROGRAM_COUNTER_UPDATE;
+    }
+
+    /**
+     * Checks if two MovAddInstructions are equal. Two MovAddInstructions are equal if they have the same label,
+     * temporary, value, and result.
+     *
+     * @param o an object to be compared to this MovAddInstruction.
+     * @return false if o is not a MovAddInstruction or is not equal to this. True if o is equal to this.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof MovAddInstruction instruction) {
+            return Objects.equals(this.label, instruction.label) &&
+                    this.temporary == instruction.temporary &&
+                    this.value == instruction.value &&
+                    this.result == instruction.result;
+        }
+        return false;
+    }
+
+    /**
+     * Returns a hash code for this MovAddInstruction. If two MovAddInstructions have the same opcode, label,
+     * temporary, value, and result, they will have the same hash code.
+     *
+     * @return a hash code representing this MovAddInstruction.
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(opcode, label, temporary, value, result);
+    }
+
+    /**
+     * Returns a String representation of this MovAddInstruction as the two instructions it fuses, on separate lines:
+     * "[label: ]mov temporary value" followed by "add result temporary".
+     *
+     * @return a String representation of this MovAddInstruction readable by humans.
+     */
+    @Override
+    public String toString() {
+        return getLabelString() + "mov " + temporary + " " + value + "\nadd " + result + " " + temporary;
+    }
+}
@@ -46,6 +46,24 @@ public class MovInstruction extends Instruction {
         this.value = value;
     }
 
+    /**
+     * Returns the RegisterName of the register where value is stored.
+     *
+     * @return the result
+     */
+    public RegisterName getResult() {
+        return result;
+    }
+
+    /**
+     * Returns the integer value stored on execution.
+     *
+     * @return the value
+     */
+    public int getValue() {
+        return value;
+    }
+
     /**
      * Checks if two MovInstructions are equal. Two MovInstructions are equal if they have the same label, result, and
      * value.
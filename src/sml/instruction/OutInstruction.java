@@ -11,7 +11,8 @@ import java.util.Objects;
  * console.
  * <p></p>
  * This instruction takes a RegisterName source.
- * When executed, the value stored in source will be printed on the console.
+ * When executed, the value stored in source will be sent to the output of the machine, by default printed on the
+ * console.
  *
  * @author Roland Crompton
  */
@@ -39,6 +40,15 @@ public class OutInstruction extends Instruction {
         this.source = source;
     }
 
+    /**
+     * Returns the RegisterName of the register to be printed.
+     *
+     * @return the source
+     */
+    public RegisterName getSource() {
+        return source;
+    }
+
     /**
      * Checks if two OutInstructions are equal. Two OutInstructions are equal if they have the same label and
      * source.
@@ -56,8 +66,8 @@ public class OutInstruction extends Instruction {
     }
 
     /**
-     * Prints on the console the current value of the register in Machine m corresponding to the RegisterName source
-     * given at construction.
+     * Sends the current value of the register in Machine m corresponding to the RegisterName source given at
+     * construction to the output of m, which by default prints it on the console.
      *
      * @param m the not null machine the instruction runs on
      * @return the normal program counter update indicating the program counter should move onto the instruction with
@@ -65,7 +75,7 @@ public class OutInstruction extends Instruction {
      */
     @Override
     public int execute(Machine m) {
-        System.out.println(m.getRegisters().get(source));
+        m.getOutput().accept(m.getRegisters().get(source));
         return NORMAL_PROGRAM_COUNTER_UPDATE;
     }
 
@@ -0,0 +1,167 @@
+package sml.instruction;
+
+import sml.Instruction;
+import sml.Labels;
+import sml.Machine;
+import sml.RegisterName;
+import sml.Registers;
+
+import java.util.Objects;
+
+/**
+ * A superinstruction fusing a SubInstruction with a following JnzInstruction that checks the SubInstruction's result.
+ * Created by SuperinstructionFuser rather than from SML source.
+ * <p></p>
+ * When executed, subtracts the value stored at source from the value stored at result, storing the resulting value in
+ * result. If the resulting value is not 0, instructs the machine to jump to the instruction with the targetLabel.
+ * Otherwise, instructs the machine to move on to the next instruction sequentially.
+ *
+ * @author Roland Crompton
+ */
+public class SubJnzInstruction extends BiRegisterInstruction {
+
+    /**
+     * The operation code for all SubJnzInstructions. The name of the operation.
+     */
+    private static final String OP_CODE = "sub+jnz";
+
+    /**
+     * A String corresponding to the label of another instruction in the program.
+     */
+    private final String targetLabel;
+
+    /**
+     * The address in the program of the instruction labelled with targetLabel, or NORMAL_PROGRAM_COUNTER_UPDATE if
+     * this SubJnzInstruction has not been linked.
+     */
+    private final int targetAddress;
+
+    /**
+     * Constructs a new SubJnzInstruction with an optional label, a RegisterName result, a RegisterName source, and a
+     * String targetLabel.
+     *
+     * @param label optional label, the label of the fused SubInstruction (can be null)
+     * @param result the not null RegisterName of the register storing the value to be subtracted from, where the
+     *               result will be stored, and which will be checked
+     * @param source the not null RegisterName of the register storing the value to be subtracted
+     * @param targetLabel the not-null String corresponding to a label of another instruction in the program
+     */
+    public SubJnzInstruction(String label, RegisterName result, RegisterName source, String targetLabel) {
+        this(label, result, source, targetLabel, NORMAL_PROGRAM_COUNTER_UPDATE);
+    }
+
+    private SubJnzInstruction(String label, RegisterName result, RegisterName source, String targetLabel,
+                              int targetAddress) {
+        super(label, OP_CODE, result, source);
+        this.targetLabel = targetLabel;
+        this.targetAddress = targetAddress;
+    }
+
+    /**
+     * Returns the label of the instruction to be jumped to.
+     *
+     * @return the targetLabel
+     */
+    public String getTargetLabel() {
+        return targetLabel;
+    }
+
+    /**
+     * Returns a SubJnzInstruction equal to this one whose targetLabel has been resolved into the address of the
+     * instruction it labels. See JnzInstruction.link.
+     *
+     * @param labels the labels of the program this SubJnzInstruction is part of
+     * @return the linked SubJnzInstruction. Null if targetLabel is not in labels
+     */
+    @Override
+    public Instruction link(Labels labels) {
+        int address = labels.getAddress(targetLabel);
+        if (address == NORMAL_PROGRAM_COUNTER_UPDATE) {
+            System.err.println("Error with instruction: " +
+                    this +
+                    "\nInstruction with label " +
+                    targetLabel +
+                    " not found.");
+            return null;
+        }
+        return (address == targetAddress)
+                ? this
+                : new SubJnzInstruction(label, result, source, targetLabel, address);
+    }
+
+    /**
+     * Subtracts the value stored at source from the value stored at result in Machine m, storing the resulting value in
+     * result. If the resulting value is not equal to 0, the instruction will tell the program counter in m to jump to
+     * the instruction with the targetLabel given at construction.
+     * <p></p>
+     * If this SubJnzInstruction has not been linked and the targetLabel does not correspond to the label of any
+     * instruction in the program, the registers will be cleared, an error message displayed, and the program
+     * terminated.
+     *
+     * @param m the machine the instruction runs on
+     * @return the address of the instruction to be jumped to if the result is not 0, otherwise the normal program
+     * counter update
+     */
+    @Override
+    public int execute(Machine m) {
+        Registers registers = m.getRegisters();
+        int value = registers.get(result) - registers.get(source);
+        registers.set(result, value);
+        if (value == 0)
+            return NORMAL_PROGRAM_COUNTER_UPDATE;
+        if (targetAddress != NORMAL_PROGRAM_COUNTER_UPDATE)
+            return targetAddress;
+
+        int address = m.getLabels().getAddress(targetLabel);
+        if (address == NORMAL_PROGRAM_COUNTER_UPDATE) {
+            System.err.println("Error with instruction: " +
+                    this +
+                    "\nInstruction with label " +
+                    targetLabel +
+                    " not found. Program failed to execute.");
+            registers.clear();
+            return m.getProgram().size();
+        }
+        return address;
+    }
+
+    /**
+     * Checks if two SubJnzInstructions are equal. Two SubJnzInstructions are equal if they have the same label, result,
+     * source, and targetLabel.
+     *
+     * @param o an object to be compared to this SubJnzInstruction.
+     * @return false if o is not a SubJnzInstruction or is not equal to this. True if o is equal to this.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof SubJnzInstruction instruction) {
+            return Objects.equals(this.label, instruction.label) &&
+                    this.result == instruction.result &&
+                    this.source == instruction.source &&
+                    this.targetLabel.equals(instruction.targetLabel);
+        }
+        return false;
+    }
+
+    /**
+     * Returns a hash code for this SubJnzInstruction. If two SubJnzInstructions have the same opcode, label, result,
+     * source, and targetLabel, they will have the same hash code.
+     *
+     * @return a hash code representing this SubJnzInstruction.
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(opcode, label, result, source, targetLabel);
+    }
+
+    /**
+     * Returns a String representation of this SubJnzInstruction as the two instructions it fuses, on separate lines:
+     * "[label: ]sub result source" followed by "jnz result targetLabel".
+     *
+     * @return a String representation of this SubJnzInstruction readable by humans.
+     */
+    @Override
+    public String toString() {
+        return getLabelString() + "sub " + result + " " + source + "\njnz " + result + " " + targetLabel;
+    }
+}
@@ -0,0 +1,559 @@
+package sml.optimiser;
+
+import sml.Instruction;
+import sml.Labels;
+import sml.RegisterName;
+import sml.Registers;
+import sml.instruction.*;
+
+import java.util.*;
+
+import static sml.engine.CompactProgram.*;
+
+/**
+ * A pass that works out which register values of a translated program are known before it is executed, and removes
+ * the instructions that have no effect on what the program outputs or on the values of the registers when it stops.
+ * <p></p>
+ * As a Machine clears its registers before executing a program, every register starts at 0, and mov instructions
+ * load known values, so much of a program can be evaluated without executing it. The program is split into basic
+ * blocks, at the targets of jumps and after every jnz and div, then:
+ * <ul>
+ *     <li>the value of each register on entry to each block is propagated from the start of the program, through
+ *     add, sub, mul, div, mov and the fused instructions, following only the jumps that can be taken</li>
+ *     <li>add, sub, mul and div instructions whose result is known are replaced by a mov of the result</li>
+ *     <li>blocks that can never be reached are removed, as are jnz instructions that can never jump</li>
+ *     <li>instructions storing a value that is overwritten before it is read, or never read before the program stops
+ *     with a division by zero, are removed</li>
+ * </ul>
+ * Every out instruction is kept, as is every div that may divide by zero, so the program outputs the same values and
+ * fails in the same way. Every register is read when the program stops, so its final values are unchanged.
+ * <p></p>
+ * Programs containing Instructions other than those of the SML language and their fused forms, or jumping to a label
+ * that does not exist, are left unchanged.
+ *
+ * @author Roland Crompton
+ */
+public final class ConstantPropagator {
+
+    /**
+     * Every register, as a bit per ordinal
+     */
+    private static final int ALL = (1 << Registers.SIZE) - 1;
+
+    private static final Registers.Register[] REGISTERS = Registers.Register.values();
+
+    private ConstantPropagator() {}
+
+    /**
+     * Optimises a program, replacing the contents of program. The labels of removed instructions are moved to the
+     * instruction following them, and the program is relinked.
+     *
+     * @param labels the labels of the program
+     * @param program the Instructions of the program
+     * @return the number of instructions removed
+     */
+    public static int optimise(Labels labels, List<Instruction> program) {
+        int size = program.size();
+        boolean changed = true;
+        while (changed) {
+            Pass pass = Pass.of(labels, program);
+            changed = pass != null && pass.run(labels, program);
+        }
+        return size - program.size();
+    }
+
+    /**
+     * The known values of the registers at a point in the program.
+     */
+    private static final class Constants {
+
+        /**
+         * The registers whose values are known, as a bit per ordinal
+         */
+        private int known;
+
+        /**
+         * The value of each register, if it is known
+         */
+        private final int[] values = new int[Registers.SIZE];
+
+        private Constants copy() {
+            Constants copy = new Constants();
+            copy.known = known;
+            System.arraycopy(values, 0, copy.values, 0, values.length);
+            return copy;
+        }
+
+        private boolean isKnown(int register) {
+            return (known & (1 << register)) != 0;
+        }
+
+        private void set(int register, int value) {
+            known |= 1 << register;
+            values[register] = value;
+        }
+
+        private void forget(int register) {
+            known &= ~(1 << register);
+        }
+
+        /**
+         * Keeps only the values that are the same in other.
+         *
+         * @return whether any value is no longer known
+         */
+        private boolean merge(Constants other) {
+            int merged = known & other.known;
+            for (int register = 0; register < values.length; register++)
+                if (values[register] != other.values[register])
+                    merged &= ~(1 << register);
+            boolean changed = merged != known;
+            known = merged;
+            return changed;
+        }
+    }
+
+    /**
+     * One round of optimisation over a program, with each Instruction decoded into the fields of CompactProgram.
+     */
+    private static final class Pass {
+
+        private final int size;
+        private final int[] kind;
+        private final int[] first;
+        private final int[] second;
+        private final int[] value;
+
+        /**
+         * The address jumped to by each jnz and fused sub and jnz
+         */
+        private final int[] target;
+
+        /**
+         * The first address of each basic block, in order, followed by the size of the program
+         */
+        private int[] blocks;
+
+        /**
+         * The values known on entry to each basic block. Null for a block that can't be reached
+         */
+        private Constants[] entry;
+
+        /**
+         * Whether the jump ending each block can be taken, whether it can fall through to the next block, and
+         * whether it can fall off the end of the program
+         */
+        private boolean[] jumps, fallsThrough, exits;
+
+        /**
+         * Whether each div is known never to divide by zero
+         */
+        private boolean[] safe;
+
+        private Pass(int size) {
+            this.size = size;
+            kind = new int[size];
+            first = new int[size];
+            second = new int[size];
+            value = new int[size];
+            target = new int[size];
+        }
+
+        /**
+         * Decodes a program.
+         *
+         * @return the Pass, or null if the program can't be optimised
+         */
+        private static Pass of(Labels labels, List<Instruction> program) {
+            Pass pass = new Pass(program.size());
+            for (int address = 0; address < program.size(); address++)
+                if (!pass.decode(address, program.get(address), labels))
+                    return null;
+            return pass;
+        }
+
+        private boolean decode(int address, Instruction instruction, Labels labels) {
+            Class<?> type = instruction.getClass();
+            String label = null;
+            if (type == AddInstruction.class) {
+                AddInstruction add = (AddInstruction) instruction;
+                kind[address] = ADD;
+                first[address] = Registers.ordinal(add.getResult());
+                second[address] = Registers.ordinal(add.getSource());
+            } else if (type == SubInstruction.class || type == MulInstruction.class || type == DivInstruction.class) {
+                BiRegisterInstruction bi = (BiRegisterInstruction) instruction;
+                kind[address] = (type == SubInstruction.class) ? SUB : (type == MulInstruction.class) ? MUL : DIV;
+                first[address] = Registers.ordinal(bi.getResult());
+                second[address] = Registers.ordinal(bi.getSource());
+            } else if (type == MovInstruction.class) {
+                MovInstruction mov = (MovInstruction) instruction;
+                kind[address] = MOV;
+                first[address] = Registers.ordinal(mov.getResult());
+                value[address] = mov.getValue();
+            } else if (type == OutInstruction.class) {
+                kind[address] = OUT;
+                first[address] = Registers.ordinal(((OutInstruction) instruction).getSource());
+            } else if (JnzInstruction.isJnz(instruction)) {
+                JnzInstruction jnz = (JnzInstruction) instruction;
+                kind[address] = JNZ;
+                first[address] = Registers.ordinal(jnz.getSource());
+                label = jnz.getTargetLabel();
+            } else if (type == SubJnzInstruction.class) {
+                SubJnzInstruction subJnz = (SubJnzInstruction) instruction;
+                kind[address] = SUB_JNZ;
+                first[address] = Registers.ordinal(subJnz.getResult());
+                second[address] = Registers.ordinal(subJnz.getSource());
+                label = subJnz.getTargetLabel();
+            } else if (type == MovAddInstruction.class) {
+                MovAddInstruction movAdd = (MovAddInstruction) instruction;
+                kind[address] = MOV_ADD;
+                first[address] = Registers.ordinal(movAdd.getTemporary());
+                second[address] = Registers.ordinal(movAdd.getResult());
+                value[address] = movAdd.getValue();
+            } else {
+                return false;
+            }
+            if (label != null) {
+                target[address] = labels.getAddress(label);
+                if (target[address] < 0 || target[address] >= size)
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * Optimises the program, replacing the contents of program if it is changed.
+         *
+         * @return whether the program was changed
+         */
+        private boolean run(Labels labels, List<Instruction> program) {
+            findBlocks();
+            propagate();
+            Instruction[] optimised = program.toArray(new Instruction[0]);
+            boolean[] removed = new boolean[size];
+            boolean folded = fold(optimised, removed);
+            removeDeadStores(removed);
+            return compact(labels, program, optimised, removed) || folded;
+        }
+
+        private boolean isJump(int address) {
+            return kind[address] == JNZ || kind[address] == SUB_JNZ;
+        }
+
+        private void findBlocks() {
+            BitSet leaders = new BitSet(size + 1);
+            leaders.set(0);
+            leaders.set(size);
+            for (int address = 0; address < size; address++) {
+                if (isJump(address))
+                    leaders.set(target[address]);
+                if (isJump(address) || kind[address] == DIV)
+                    leaders.set(address + 1);
+            }
+            blocks = leaders.stream().toArray();
+        }
+
+        private int blockAt(int address) {
+            return Arrays.binarySearch(blocks, address);
+        }
+
+        /**
+         * Works out the values known on entry to each block, from the cleared registers at the start of the program,
+         * and which jumps can be taken.
+         */
+        private void propagate() {
+            int count = blocks.length - 1;
+            entry = new Constants[count];
+            jumps = new boolean[count];
+            fallsThrough = new boolean[count];
+            exits = new boolean[count];
+            safe = new boolean[size];
+            if (count == 0)
+                return;
+
+            Constants start = new Constants();
+            start.known = ALL;
+            entry[0] = start;
+            Deque<Integer> work = new ArrayDeque<>(List.of(0));
+            BitSet queued = new BitSet(count);
+            queued.set(0);
+            while (!work.isEmpty()) {
+                int block = work.poll();
+                queued.clear(block);
+                Constants constants = entry[block].copy();
+                int last = blocks[block + 1] - 1;
+                for (int address = blocks[block]; address < last; address++)
+                    transfer(address, constants);
+
+                boolean jump = false, next = transfer(last, constants);
+                if (isJump(last) && next) {
+                    int register = first[last];
+                    jump = !constants.isKnown(register) || constants.values[register] != 0;
+                    next = !constants.isKnown(register) || constants.values[register] == 0;
+                }
+                jumps[block] = jump;
+                fallsThrough[block] = next && blocks[block + 1] < size;
+                exits[block] = next && blocks[block + 1] == size;
+                if (jump)
+                    enter(blockAt(target[last]), constants, work, queued);
+                if (fallsThrough[block])
+                    enter(block + 1, constants, work, queued);
+            }
+        }
+
+        private void enter(int block, Constants constants, Deque<Integer> work, BitSet queued) {
+            boolean changed;
+            if (entry[block] == null) {
+                entry[block] = constants.copy();
+                changed = true;
+            } else {
+                changed = entry[block].merge(constants);
+            }
+            if (changed && !queued.get(block)) {
+                queued.set(block);
+                work.add(block);
+            }
+        }
+
+        /**
+         * Applies the instruction at address to the known values.
+         *
+         * @return false if the program always stops at the instruction
+         */
+        private boolean transfer(int address, Constants constants) {
+            int a = first[address], b = second[address];
+            boolean known = constants.isKnown(a) && constants.isKnown(b);
+            int x = constants.values[a], y = constants.values[b];
+            switch (kind[address]) {
+                case MOV -> constants.set(a, value[address]);
+                case ADD -> set(constants, a, known, x + y);
+                case SUB, SUB_JNZ -> {
+                    if (a == b)
+                        constants.set(a, 0);
+                    else
+                        set(constants, a, known, x - y);
+                }
+                case MUL -> {
+                    boolean zero = (constants.isKnown(a) && x == 0) || (constants.isKnown(b) && y == 0);
+                    set(constants, a, known || zero, x * y);
+                }
+                case DIV -> {
+                    if (constants.isKnown(b) && y == 0)
+                        return false;
+                    safe[address] = constants.isKnown(b);
+                    set(constants, a, known, known ? x / y : 0);
+                }
+                case MOV_ADD -> {
+                    constants.set(a, value[address]);
+                    set(constants, b, constants.isKnown(b), constants.values[b] + value[address]);
+                }
+                default -> {
+                }
+            }
+            return true;
+        }
+
+        private static void set(Constants constants, int register, boolean known, int value) {
+            if (known)
+                constants.set(register, value);
+            else
+                constants.forget(register);
+        }
+
+        /**
+         * Replaces the instructions whose result is known with a mov of the result, and removes the instructions
+         * that can't be reached and the jumps that can't be taken.
+         *
+         * @return whether any instruction was replaced
+         */
+        private boolean fold(Instruction[] program, boolean[] removed) {
+            boolean changed = false;
+            for (int block = 0; block < entry.length; block++) {
+                if (entry[block] == null) {
+                    for (int address = blocks[block]; address < blocks[block + 1]; address++)
+                        removed[address] = true;
+                    continue;
+                }
+                Constants constants = entry[block].copy();
+                for (int address = blocks[block]; address < blocks[block + 1]; address++) {
+                    int register = first[address];
+                    if (kind[address] == JNZ && constants.isKnown(register) && constants.values[register] == 0) {
+                        removed[address] = true;
+                        continue;
+                    }
+                    if (!transfer(address, constants))
+                        break;
+                    boolean foldable = switch (kind[address]) {
+                        case ADD, SUB, MUL -> true;
+                        case DIV -> safe[address];
+                        case SUB_JNZ -> constants.values[register] == 0;
+                        default -> false;
+                    };
+                    if (foldable && constants.isKnown(register)) {
+                        program[address] = new MovInstruction(program[address].getLabel(), REGISTERS[register],
+                                constants.values[register]);
+                        kind[address] = MOV;
+                        value[address] = constants.values[register];
+                        changed = true;
+                    }
+                }
+            }
+            return changed;
+        }
+
+        /**
+         * Removes the instructions storing a value that is never read, working backwards from the end of the
+         * program, where every register is read.
+         */
+        private void removeDeadStores(boolean[] removed) {
+            int count = entry.length;
+            int[] liveIn = new int[count];
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (int block = count - 1; block >= 0; block--) {
+                    if (entry[block] == null)
+                        continue;
+                    int live = live(block, liveOut(block, liveIn), removed, false);
+                    if (live != liveIn[block]) {
+                        liveIn[block] = live;
+                        changed = true;
+                    }
+                }
+            }
+
+            for (int block = 0; block < count; block++)
+                if (entry[block] != null)
+                    live(block, liveOut(block, liveIn), removed, true);
+        }
+
+        private int liveOut(int block, int[] liveIn) {
+            int last = blocks[block + 1] - 1;
+            int live = 0;
+            if (jumps[block])
+                live |= liveIn[blockAt(target[last])];
+            if (fallsThrough[block])
+                live |= liveIn[block + 1];
+            if (exits[block])
+                live = ALL;
+            return live;
+        }
+
+        /**
+         * Works backwards through a block from the registers read after it.
+         *
+         * @param remove whether to remove the dead stores found
+         * @return the registers read before the block
+         */
+        private int live(int block, int live, boolean[] removed, boolean remove) {
+            for (int address = blocks[block + 1] - 1; address >= blocks[block]; address--) {
+                if (removed[address])
+                    continue;
+                int a = 1 << first[address], b = 1 << second[address];
+                boolean dead = switch (kind[address]) {
+                    case MOV, ADD, SUB, MUL -> (live & a) == 0;
+                    case DIV -> safe[address] && (live & a) == 0;
+                    case MOV_ADD -> (live & (a | b)) == 0;
+                    default -> false;
+                };
+                if (dead) {
+                    removed[address] |= remove;
+                    continue;
+                }
+                live = switch (kind[address]) {
+                    case MOV -> live & ~a;
+                    case ADD, SUB, MUL, DIV, SUB_JNZ -> live | a | b;
+                    case MOV_ADD -> (a == b) ? live & ~a : (live & ~a) | b;
+                    default -> live | a;
+                };
+            }
+            return live;
+        }
+
+        /**
+         * Replaces the contents of program with the instructions not removed, moving the label of each removed
+         * instruction to the instruction following it.
+         *
+         * @return whether any instruction was removed
+         */
+        private boolean compact(Labels labels, List<Instruction> program, Instruction[] optimised, boolean[] removed) {
+            // A labeled instruction is kept if there is no instruction following it to move its label to
+            for (int address = size - 1; address >= 0 && removed[address]; address--)
+                if (optimised[address].getLabel() != null)
+                    removed[address] = false;
+
+            int[] newAddresses = new int[size + 1];
+            List<Instruction> kept = new ArrayList<>(size);
+            Map<String, String> renamed = new HashMap<>();
+            String moving = null;
+            for (int address = 0; address < size; address++) {
+                newAddresses[address] = kept.size();
+                Instruction instruction = optimised[address];
+                if (removed[address]) {
+                    if (instruction.getLabel() != null) {
+                        if (moving == null)
+                            moving = instruction.getLabel();
+                        else
+                            renamed.put(instruction.getLabel(), moving);
+                    }
+                    continue;
+                }
+                if (moving != null) {
+                    if (instruction.getLabel() == null)
+                        instruction = relabel(instruction, moving);
+                    else
+                        renamed.put(moving, instruction.getLabel());
+                    moving = null;
+                }
+                kept.add(instruction);
+            }
+            newAddresses[size] = kept.size();
+            // Jumps to a label moved onto an instruction with its own label jump to that label instead
+            renamed.replaceAll((from, to) -> renamed.getOrDefault(to, to));
+            kept.replaceAll(instruction -> retarget(instruction, renamed));
+
+            program.clear();
+            program.addAll(kept);
+            labels.relocate(newAddresses);
+            labels.link(program);
+            return kept.size() < size;
+        }
+    }
+
+    /**
+     * Returns a copy of an Instruction with a new label.
+     */
+    private static Instruction relabel(Instruction instruction, String label) {
+        if (instruction instanceof MovInstruction mov)
+            return new MovInstruction(label, mov.getResult(), mov.getValue());
+        if (instruction instanceof OutInstruction out)
+            return new OutInstruction(label, out.getSource());
+        if (instruction instanceof MovAddInstruction movAdd)
+            return new MovAddInstruction(label, movAdd.getTemporary(), movAdd.getValue(), movAdd.getResult());
+        if (instruction instanceof SubJnzInstruction subJnz)
+            return new SubJnzInstruction(label, subJnz.getResult(), subJnz.getSource(), subJnz.getTargetLabel());
+        if (instruction instanceof JnzInstruction jnz)
+            return new JnzInstruction(label, jnz.getSource(), jnz.getTargetLabel());
+        if (instruction instanceof AddInstruction add)
+            return new AddInstruction(label, add.getResult(), add.getSource());
+        BiRegisterInstruction bi = (BiRegisterInstruction) instruction;
+        RegisterName result = bi.getResult(), source = bi.getSource();
+        if (instruction instanceof SubInstruction)
+            return new SubInstruction(label, result, source);
+        if (instruction instanceof MulInstruction)
+            return new MulInstruction(label, result, source);
+        return new DivInstruction(label, result, source);
+    }
+
+    /**
+     * Returns a copy of a jump with its target renamed, or the Instruction itself if it is not renamed.
+     */
+    private static Instruction retarget(Instruction instruction, Map<String, String> renamed) {
+        if (instruction instanceof SubJnzInstruction subJnz && renamed.containsKey(subJnz.getTargetLabel()))
+            return new SubJnzInstruction(subJnz.getLabel(), subJnz.getResult(), subJnz.getSource(),
+                    renamed.get(subJnz.getTargetLabel()));
+        if (instruction instanceof JnzInstruction jnz && renamed.containsKey(jnz.getTargetLabel()))
+            return new JnzInstruction(jnz.getLabel(), jnz.getSource(), renamed.get(jnz.getTargetLabel()));
+        return instruction;
+    }
+}
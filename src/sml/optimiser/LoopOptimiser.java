@@ -0,0 +1,87 @@
+package sml.optimiser;
+
+import sml.Instruction;
+import sml.Labels;
+import sml.analysis.ControlFlowGraph;
+import sml.analysis.Loop;
+import sml.instruction.CountedLoopInstruction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pass that replaces the counted loops of a translated program with CountedLoopInstructions, which leave the
+ * registers as the loop would without executing each iteration, so that a loop of a billion iterations takes as long
+ * as a loop of a few.
+ * <p></p>
+ * A counted loop is a labeled instruction followed by unlabeled add, sub, mul and mov instructions, and a jnz back to
+ * the label, such as the loop of the factorial program:
+ * <pre>
+ * f3: mul EBX EAX
+ *     sub EAX ECX
+ *     jnz EAX f3
+ * </pre>
+ * That is, a natural loop of a single basic block. It is only replaced if every register it changes has a closed
+ * form. See CountedLoopInstruction and ControlFlowGraph.
+ *
+ * @author Roland Crompton
+ */
+public final class LoopOptimiser {
+
+    private LoopOptimiser() {}
+
+    /**
+     * Replaces the counted loops of a program with CountedLoopInstructions, replacing the contents of program.
+     * The labels are relocated to the new addresses of the instructions they label, and the program is relinked.
+     * A program that jumps to a label that does not exist is left unchanged.
+     *
+     * @param labels the labels of the program
+     * @param program the Instructions of the program
+     * @return the number of loops replaced
+     */
+    public static int optimise(Labels labels, List<Instruction> program) {
+        ControlFlowGraph graph;
+        try {
+            graph = ControlFlowGraph.of(labels, program);
+        } catch (IllegalArgumentException e) {
+            return 0;
+        }
+
+        // The replacement for the loop starting at each address, for the loops that have a closed form
+        CountedLoopInstruction[] loops = new CountedLoopInstruction[program.size()];
+        int count = 0;
+        for (Loop loop : graph.getLoops()) {
+            if (loop.isSingleBlock()) {
+                loops[loop.header().getStart()] = CountedLoopInstruction.of(loop.header().getInstructions());
+                if (loops[loop.header().getStart()] != null)
+                    count++;
+            }
+        }
+        if (count == 0)
+            return 0;
+
+        List<Instruction> optimised = new ArrayList<>(program.size());
+        int[] newAddresses = new int[program.size() + 1];
+        int address = 0;
+        while (address < program.size()) {
+            newAddresses[address] = optimised.size();
+            if (loops[address] != null) {
+                int end = graph.getBlock(address).getEnd();
+                for (int i = address; i < end; i++)
+                    newAddresses[i] = optimised.size();
+                optimised.add(loops[address]);
+                address = end;
+            } else {
+                optimised.add(program.get(address));
+                address++;
+            }
+        }
+        newAddresses[program.size()] = optimised.size();
+
+        program.clear();
+        program.addAll(optimised);
+        labels.relocate(newAddresses);
+        labels.link(program);
+        return count;
+    }
+}
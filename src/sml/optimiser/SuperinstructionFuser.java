@@ -0,0 +1,83 @@
+package sml.optimiser;
+
+import sml.Instruction;
+import sml.Labels;
+import sml.instruction.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A peephole pass that rewrites common pairs of Instructions in a translated program into single superinstructions,
+ * reducing the number of instructions dispatched when the program is executed.
+ * <p></p>
+ * The pairs fused are:
+ * <ul>
+ *     <li>"sub r s" followed by "jnz r L" into a SubJnzInstruction</li>
+ *     <li>"mov t x" followed by "add r t" into a MovAddInstruction</li>
+ * </ul>
+ * A pair is never fused if the second Instruction has a label, as another instruction may jump to it.
+ *
+ * @author Roland Crompton
+ */
+public final class SuperinstructionFuser {
+
+    private SuperinstructionFuser() {}
+
+    /**
+     * Fuses the pairs of Instructions in a program into superinstructions, replacing the contents of program.
+     * The labels are relocated to the new addresses of the instructions they label, and the program is relinked.
+     *
+     * @param labels the labels of the program
+     * @param program the Instructions of the program
+     * @return the number of pairs fused
+     */
+    public static int fuse(Labels labels, List<Instruction> program) {
+        List<Instruction> fused = new ArrayList<>(program.size());
+        int[] newAddresses = new int[program.size() + 1];
+        int address = 0;
+        while (address < program.size()) {
+            Instruction first = program.get(address);
+            Instruction second = (address + 1 < program.size()) ? program.get(address + 1) : null;
+            Instruction superinstruction = (second != null && second.getLabel() == null) ? fuse(first, second) : null;
+
+            newAddresses[address] = fused.size();
+            if (superinstruction != null) {
+                newAddresses[address + 1] = fused.size();
+                fused.add(superinstruction);
+                address += 2;
+            } else {
+                fused.add(first);
+                address++;
+            }
+        }
+        newAddresses[program.size()] = fused.size();
+
+        int count = program.size() - fused.size();
+        if (count > 0) {
+            program.clear();
+            program.addAll(fused);
+            labels.relocate(newAddresses);
+            labels.link(program);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the superinstruction fusing two adjacent Instructions, or null if there isn't one.
+     */
+    private static Instruction fuse(Instruction first, Instruction second) {
+        if (first.getClass() == SubInstruction.class && JnzInstruction.isJnz(second)) {
+            SubInstruction sub = (SubInstruction) first;
+            JnzInstruction jnz = (JnzInstruction) second;
+            if (sub.getResult() == jnz.getSource())
+                return new SubJnzInstruction(sub.getLabel(), sub.getResult(), sub.getSource(), jnz.getTargetLabel());
+        } else if (first.getClass() == MovInstruction.class && second.getClass() == AddInstruction.class) {
+            MovInstruction mov = (MovInstruction) first;
+            AddInstruction add = (AddInstruction) second;
+            if (mov.getResult() == add.getSource())
+                return new MovAddInstruction(mov.getLabel(), mov.getResult(), mov.getValue(), add.getResult());
+        }
+        return null;
+    }
+}
@@ -0,0 +1,54 @@
+package sml;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sml.engine.SwitchInterpreter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static sml.Registers.Register.*;
+
+public class BatchRunnerTest {
+
+    private final String fileLocation = "./testResources/";
+
+    @Test
+    public void testRun() {
+        List<BatchRunner.Result> results = new BatchRunner().run(List.of(
+                Path.of(fileLocation + "factorial.sml"),
+                Path.of(fileLocation + "test3.sml"),
+                Path.of(fileLocation + "test5.sml")));
+
+        Assertions.assertEquals(3, results.size());
+        Assertions.assertTrue(results.get(0).succeeded());
+        Assertions.assertEquals(720, results.get(0).registers().get(EBX));
+        Assertions.assertArrayEquals(new int[] {3, 1}, results.get(1).output());
+        Assertions.assertFalse(results.get(2).succeeded());
+        Assertions.assertNull(results.get(2).registers());
+    }
+
+    @Test
+    public void testRunManyInParallel() {
+        List<Path> sources = Collections.nCopies(200, Path.of(fileLocation + "factorial.sml"));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<BatchRunner.Result> results = new BatchRunner(pool, SwitchInterpreter::new).run(sources);
+            Assertions.assertEquals(200, results.size());
+            for (BatchRunner.Result result : results)
+                Assertions.assertEquals(720, result.registers().get(EBX));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testRunDirectory() throws IOException {
+        List<BatchRunner.Result> results = new BatchRunner().runDirectory(Path.of(fileLocation));
+        Assertions.assertEquals(BatchRunner.findPrograms(Path.of(fileLocation)).size(), results.size());
+        Assertions.assertTrue(results.stream().anyMatch(BatchRunner.Result::succeeded));
+    }
+}
@@ -4,11 +4,16 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import sml.instruction.*;
 import static sml.Registers.Register.EAX;
+import static sml.Registers.Register.EBX;
 
 public class InstructionFactoryTest {
 
@@ -112,6 +117,60 @@ public class InstructionFactoryTest {
         i.execute(m);
     }
 
+    @Test
+    public void testGetInstructionConcurrently() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Instruction>> instructions = new ArrayList<>();
+            for (int i = 0; i < 2000; i++) {
+                int value = i;
+                instructions.add(executor.submit(() -> (value % 2 == 0)
+                        ? fact.getInstruction(null, "mov", List.of("EAX", Integer.toString(value)))
+                        : fact.getInstruction("l" + value, "jnz", List.of("EBX", "t" + value))));
+            }
+            for (int i = 0; i < instructions.size(); i++) {
+                Instruction expected = (i % 2 == 0)
+                        ? new MovInstruction(null, EAX, i)
+                        : new JnzInstruction("l" + i, EBX, "t" + i);
+                Assertions.assertEquals(expected, instructions.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testInterning() {
+        fact.clearInterned();
+        Instruction first = fact.getInstruction(null, "add", List.of("EAX", "EBX"));
+        Instruction second = fact.getInstruction(null, "add", List.of("EAX", "EBX"));
+        Instruction labeled = fact.getInstruction("f", "add", List.of("EAX", "EBX"));
+        Assertions.assertSame(first, second);
+        Assertions.assertNotSame(first, labeled);
+        Assertions.assertNotSame(first, fact.getInstruction(null, "sub", List.of("EAX", "EBX")));
+
+        InstructionFactory.InternStatistics statistics = fact.getInternStatistics();
+        Assertions.assertEquals(1, statistics.hits());
+        Assertions.assertEquals(2, statistics.misses());
+        Assertions.assertEquals(2, statistics.instances());
+        Assertions.assertEquals(32, statistics.bytesSaved());
+
+        fact.clearInterned();
+        Assertions.assertEquals(new InstructionFactory.InternStatistics(0, 0, 0, 0), fact.getInternStatistics());
+        Assertions.assertNotSame(first, fact.getInstruction(null, "add", List.of("EAX", "EBX")));
+    }
+
+    @Test
+    public void testGetInstructionWrongParameterCount() {
+        Assertions.assertNull(fact.getInstruction(null, "add", List.of("EAX")));
+        Assertions.assertNull(fact.getInstruction(null, "out", List.of("EAX", "EBX")));
+    }
+
+    @Test
+    public void testToString() {
+        Assertions.assertEquals("add, div, jnz, mov, mul, out, sub", fact.toString());
+    }
+
     @Test
     public void testGetInstructionInvalidInt() {
         list.add("EAX");
@@ -0,0 +1,45 @@
+package sml;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+public class IntCollectorTest {
+
+    @Test
+    public void testCollect() {
+        IntCollector collector = new IntCollector();
+        for (int i = 0; i < 100; i++)
+            collector.accept(i * 2);
+        Assertions.assertEquals(100, collector.size());
+        Assertions.assertEquals(0, collector.get(0));
+        Assertions.assertEquals(198, collector.get(99));
+        Assertions.assertEquals(100, collector.toArray().length);
+        Assertions.assertEquals(9900, collector.stream().sum());
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> collector.get(100));
+    }
+
+    @Test
+    public void testClear() {
+        IntCollector collector = new IntCollector();
+        collector.accept(1);
+        collector.clear();
+        Assertions.assertEquals(0, collector.size());
+        Assertions.assertArrayEquals(new int[0], collector.toArray());
+        collector.accept(2);
+        Assertions.assertEquals("[2]", collector.toString());
+    }
+
+    @Test
+    public void testMachineOutput() throws IOException {
+        Machine machine = new Machine(new Registers());
+        new Translator(new StringReader("mov EAX 5\nout EAX\nmov EBX -1\nout EBX\n")).readAndTranslate(machine.getLabels(),
+                machine.getProgram());
+        IntCollector collector = new IntCollector();
+        machine.setOutput(collector);
+        machine.execute();
+        Assertions.assertArrayEquals(new int[] {5, -1}, collector.toArray());
+    }
+}
@@ -20,6 +20,17 @@ public class LabelsTest {
         Assertions.assertEquals(0, labels.getAddress("a"));
     }
 
+    @Test
+    public void testAddAll() {
+        labels.addLabel("a", 0);
+        Labels other = new Labels();
+        other.addLabel("b", 1);
+        Assertions.assertTrue(labels.addAll(other, 10));
+        Assertions.assertEquals(11, labels.getAddress("b"));
+        Assertions.assertFalse(labels.addAll(other, 20));
+        Assertions.assertEquals(11, labels.getAddress("b"));
+    }
+
     @Test
     public void testGetAddressNonexistentLabel() {
         Assertions.assertEquals(-1, labels.getAddress("a"));
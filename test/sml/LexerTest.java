@@ -0,0 +1,68 @@
+package sml;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class LexerTest {
+
+    private static List<String> strings(List<CharSequence> tokens) {
+        return tokens.stream().map(CharSequence::toString).toList();
+    }
+
+    @Test
+    public void testLabelledLine() {
+        Lexer lexer = new Lexer("f3:  mov EAX\t6\n");
+        Assertions.assertTrue(lexer.nextLine());
+        Assertions.assertEquals("f3", lexer.getLabel());
+        Assertions.assertEquals("mov", lexer.getOpcode().toString());
+        Assertions.assertEquals(List.of("EAX", "6"), strings(lexer.getParameters()));
+        Assertions.assertFalse(lexer.nextLine());
+    }
+
+    @Test
+    public void testLineSeparators() {
+        Lexer lexer = new Lexer("out EAX\r\nout EBX\rout ECX");
+        for (String register : List.of("EAX", "EBX", "ECX")) {
+            Assertions.assertTrue(lexer.nextLine());
+            Assertions.assertNull(lexer.getLabel());
+            Assertions.assertEquals(List.of(register), strings(lexer.getParameters()));
+        }
+        Assertions.assertEquals(3, lexer.getLineNumber());
+        Assertions.assertFalse(lexer.nextLine());
+    }
+
+    @Test
+    public void testEmptyLines() {
+        Lexer lexer = new Lexer("\n   \nf:\n");
+        Assertions.assertTrue(lexer.nextLine());
+        Assertions.assertNull(lexer.getOpcode());
+        Assertions.assertTrue(lexer.nextLine());
+        Assertions.assertNull(lexer.getOpcode());
+        Assertions.assertTrue(lexer.nextLine());
+        Assertions.assertEquals("f", lexer.getLabel());
+        Assertions.assertNull(lexer.getOpcode());
+        Assertions.assertTrue(lexer.getParameters().isEmpty());
+        Assertions.assertFalse(lexer.nextLine());
+    }
+
+    @Test
+    public void testManyParameters() {
+        Lexer lexer = new Lexer("op a b c d e f g");
+        lexer.nextLine();
+        Assertions.assertEquals(List.of("a", "b", "c", "d", "e", "f", "g"), strings(lexer.getParameters()));
+    }
+
+    @Test
+    public void testMappedText() {
+        byte[] bytes = "\u00e9p\u00e9e: jnz EAX \u00e9p\u00e9e\n".getBytes(StandardCharsets.UTF_8);
+        Lexer lexer = new Lexer(MappedText.of(ByteBuffer.wrap(bytes)));
+        lexer.nextLine();
+        Assertions.assertEquals("\u00e9p\u00e9e", lexer.getLabel());
+        Assertions.assertEquals("jnz", lexer.getOpcode().toString());
+        Assertions.assertEquals(List.of("EAX", "\u00e9p\u00e9e"), strings(lexer.getParameters()));
+    }
+}
@@ -4,6 +4,8 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 import sml.instruction.AddInstruction;
+import sml.instruction.DivInstruction;
+import sml.instruction.MovInstruction;
 import static sml.Registers.Register.*;
 
 public class MachineTest {
@@ -45,4 +47,19 @@ public class MachineTest {
         Assertions.assertNotEquals(m, n);
         Assertions.assertNotEquals(m.hashCode(), n.hashCode());
     }
+
+    @Test
+    public void testHasDividedByZero() {
+        Machine m = new Machine(new Registers());
+        m.getProgram().add(new DivInstruction(null, EAX, EBX));
+        m.setOutput(OutputSink.DISCARD);
+        Assertions.assertFalse(m.hasDividedByZero());
+        m.execute();
+        Assertions.assertTrue(m.hasDividedByZero());
+
+        //Test cleared when the program is executed again
+        m.getProgram().add(0, new MovInstruction(null, EBX, 1));
+        m.execute();
+        Assertions.assertFalse(m.hasDividedByZero());
+    }
 }
@@ -0,0 +1,184 @@
+package sml;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.*;
+
+public class OutputPublisherTest {
+
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Records every signal, requesting values only when told to.
+     */
+    private static final class RecordingSubscriber implements Flow.Subscriber<Integer> {
+        private final BlockingQueue<Integer> values = new LinkedBlockingQueue<>();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private volatile Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(Integer item) {
+            values.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            done.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            done.complete(null);
+        }
+    }
+
+    private static Machine machine(String program) throws IOException {
+        Machine machine = new Machine(new Registers());
+        new Translator(new StringReader(program)).readAndTranslate(machine.getLabels(), machine.getProgram());
+        return machine;
+    }
+
+    /**
+     * A program counting up from 1 forever, outputting every number.
+     */
+    private static final String FOREVER = "mov EBX 1\nmov ECX 1\nf: add EAX EBX\nout EAX\njnz ECX f\n";
+
+    @Test
+    public void testCompletes() throws Exception {
+        Machine machine = machine("mov EAX 3\nmov EBX 1\nf: out EAX\nsub EAX EBX\njnz EAX f\n");
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        machine.publishOutput(executor).subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        subscriber.done.get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(List.of(3, 2, 1), List.copyOf(subscriber.values));
+        Assertions.assertFalse(machine.getOutput() instanceof Flow.Subscription);
+    }
+
+    @Test
+    public void testPausesWithoutDemand() throws Exception {
+        Machine machine = machine(FOREVER);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        machine.publishOutput(executor).subscribe(subscriber);
+        subscriber.subscription.request(2);
+        Assertions.assertEquals(1, subscriber.values.poll(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(2, subscriber.values.poll(5, TimeUnit.SECONDS));
+        Assertions.assertNull(subscriber.values.poll(100, TimeUnit.MILLISECONDS));
+
+        subscriber.subscription.request(1);
+        Assertions.assertEquals(3, subscriber.values.poll(5, TimeUnit.SECONDS));
+        Assertions.assertNull(subscriber.values.poll(100, TimeUnit.MILLISECONDS));
+
+        subscriber.subscription.cancel();
+        executor.shutdown();
+        Assertions.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        Assertions.assertFalse(subscriber.done.isDone());
+    }
+
+    @Test
+    public void testCancelStopsProgram() throws Exception {
+        Machine machine = machine(FOREVER);
+        Flow.Subscriber<Integer> subscriber = new Flow.Subscriber<>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(Integer item) {
+                if (item == 1000)
+                    subscription.cancel();
+                else
+                    subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                Assertions.fail(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                Assertions.fail();
+            }
+        };
+        machine.publishOutput(executor).subscribe(subscriber);
+        executor.shutdown();
+        Assertions.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        // Stopped at the output following the cancellation
+        Assertions.assertEquals(1001, machine.getRegisters().get(Registers.Register.EAX));
+    }
+
+    @Test
+    public void testNonPositiveRequestFails() throws Exception {
+        Machine machine = machine(FOREVER);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        machine.publishOutput(executor).subscribe(subscriber);
+        subscriber.subscription.request(0);
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class,
+                () -> subscriber.done.get(5, TimeUnit.SECONDS));
+        Assertions.assertInstanceOf(IllegalArgumentException.class, e.getCause());
+    }
+
+    @Test
+    public void testNonPositiveRequestFailsWhenProgramThrows() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        Machine machine = new Machine(new Registers());
+        machine.getProgram().add(new Instruction(null, "fail") {
+            @Override
+            public int execute(Machine m) {
+                subscriber.subscription.request(-1);
+                throw new IllegalStateException();
+            }
+
+            @Override
+            public String toString() {
+                return "fail";
+            }
+        });
+        machine.publishOutput(executor).subscribe(subscriber);
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class,
+                () -> subscriber.done.get(5, TimeUnit.SECONDS));
+        Assertions.assertInstanceOf(IllegalArgumentException.class, e.getCause());
+    }
+
+    @Test
+    public void testOnlyOneSubscriber() throws Exception {
+        Machine machine = machine("mov EAX 1\nout EAX\n");
+        Flow.Publisher<Integer> publisher = machine.publishOutput(executor);
+        RecordingSubscriber first = new RecordingSubscriber();
+        RecordingSubscriber second = new RecordingSubscriber();
+        publisher.subscribe(first);
+        publisher.subscribe(second);
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class,
+                () -> second.done.get(5, TimeUnit.SECONDS));
+        Assertions.assertInstanceOf(IllegalStateException.class, e.getCause());
+
+        first.subscription.request(1);
+        first.done.get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(List.of(1), List.copyOf(first.values));
+    }
+}
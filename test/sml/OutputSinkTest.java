@@ -0,0 +1,135 @@
+package sml;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sml.engine.CompilingEngine;
+import sml.engine.InstructionInterpreter;
+import sml.engine.OffHeapEngine;
+import sml.engine.OffHeapProgram;
+import sml.engine.SealedInterpreter;
+import sml.engine.SwitchInterpreter;
+import sml.engine.TracingEngine;
+import sml.instruction.DivInstruction;
+import sml.instruction.MovInstruction;
+import sml.instruction.OutInstruction;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+import static sml.Registers.Register.*;
+
+public class OutputSinkTest {
+
+    private PrintStream systemOut;
+    private ByteArrayOutputStream console;
+
+    @BeforeEach
+    void setUp() {
+        systemOut = System.out;
+        console = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(console, true));
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.setOut(systemOut);
+    }
+
+    @Test
+    public void testStandardOutputIsBufferedUntilFlushed() {
+        OutputSink sink = OutputSink.standardOutput();
+        sink.accept(1);
+        sink.accept(-2);
+        Assertions.assertEquals("", console.toString());
+        sink.flush();
+        String n = System.lineSeparator();
+        Assertions.assertEquals("1" + n + "-2" + n, console.toString());
+        sink.flush();
+        Assertions.assertEquals("1" + n + "-2" + n, console.toString());
+    }
+
+    @Test
+    public void testStandardOutputWritesLargeBatches() {
+        OutputSink sink = OutputSink.standardOutput();
+        for (int i = 0; i < 10_000; i++)
+            sink.accept(i);
+        Assertions.assertTrue(console.size() > 0);
+        sink.flush();
+        Assertions.assertEquals(10_000, console.toString().lines().count());
+        Assertions.assertEquals("9999", console.toString().lines().reduce((a, b) -> b).orElseThrow());
+    }
+
+    @Test
+    public void testMachineFlushesAfterExecuting() {
+        Machine machine = new Machine(new Registers());
+        machine.getProgram().add(new MovInstruction(null, EAX, 7));
+        machine.getProgram().add(new OutInstruction(null, EAX));
+        machine.execute();
+        Assertions.assertEquals("7" + System.lineSeparator(), console.toString());
+    }
+
+    @Test
+    public void testMachineFlushesAfterError() {
+        Machine machine = new Machine(new Registers());
+        machine.getProgram().add(new MovInstruction(null, EAX, 7));
+        machine.getProgram().add(new OutInstruction(null, EAX));
+        machine.getProgram().add(new DivInstruction(null, EAX, EBX));
+        machine.getProgram().add(new OutInstruction(null, EAX));
+        machine.execute();
+        Assertions.assertEquals("7" + System.lineSeparator(), console.toString());
+    }
+
+    @Test
+    public void testOutputPrecedesDivideByZeroError() {
+        PrintStream systemErr = System.err;
+        System.setErr(new PrintStream(console, true));
+        try {
+            Machine machine = new Machine(new Registers());
+            machine.getProgram().add(new MovInstruction(null, EAX, 7));
+            machine.getProgram().add(new OutInstruction(null, EAX));
+            machine.getProgram().add(new DivInstruction(null, EAX, EBX));
+            OffHeapProgram offHeap = OffHeapProgram.of(machine.getProgram(), machine.getLabels());
+            List<ExecutionEngine> engines = List.of(InstructionInterpreter.INSTANCE, new SwitchInterpreter(),
+                    new SealedInterpreter(), new CompilingEngine(), new TracingEngine(), new OffHeapEngine(offHeap));
+            for (ExecutionEngine engine : engines) {
+                console.reset();
+                machine.setEngine(engine);
+                machine.execute();
+                Assertions.assertTrue(console.toString()
+                        .startsWith("7" + System.lineSeparator() + "Error with instruction: div EAX EBX"),
+                        engine.getClass().getSimpleName());
+            }
+        } finally {
+            System.setErr(systemErr);
+        }
+    }
+
+    @Test
+    public void testOf() {
+        List<Integer> values = new ArrayList<>();
+        IntConsumer consumer = values::add;
+        OutputSink sink = OutputSink.of(consumer);
+        sink.accept(3);
+        sink.flush();
+        Assertions.assertEquals(List.of(3), values);
+
+        IntCollector collector = new IntCollector();
+        Assertions.assertSame(collector, OutputSink.of(collector));
+        Assertions.assertThrows(NullPointerException.class, () -> OutputSink.of(null));
+    }
+
+    @Test
+    public void testSetOutput() {
+        Machine machine = new Machine(new Registers());
+        machine.setOutput(OutputSink.DISCARD);
+        Assertions.assertSame(OutputSink.DISCARD, machine.getOutput());
+        machine.getProgram().add(new OutInstruction(null, EAX));
+        machine.execute();
+        Assertions.assertEquals("", console.toString());
+    }
+}
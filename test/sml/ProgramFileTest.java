@@ -0,0 +1,55 @@
+package sml;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import sml.instruction.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+
+import static sml.Registers.Register.*;
+
+public class ProgramFileTest {
+
+    @Test
+    public void testRoundTrip(@TempDir Path directory) throws IOException {
+        Program program = new Translator("./testResources/factorial.sml").translate();
+        Path file = directory.resolve("factorial" + ProgramFile.EXTENSION);
+        ProgramFile.write(program, file);
+        Program read = ProgramFile.read(file);
+        Assertions.assertEquals(program, read);
+        Assertions.assertEquals(program.execute(), read.execute());
+    }
+
+    @Test
+    public void testFusedInstructions() throws IOException {
+        Labels labels = new Labels();
+        labels.addLabel("l\u00e9", 1);
+        Program program = new Program(labels, List.of(
+                new MovAddInstruction(null, ECX, 7, EAX),
+                new SubJnzInstruction("l\u00e9", EAX, EBX, "l\u00e9"),
+                new DivInstruction(null, EDX, ESI),
+                new OutInstruction(null, EDI)));
+        Assertions.assertEquals(program, ProgramFile.fromBytes(ByteBuffer.wrap(ProgramFile.toBytes(program))));
+    }
+
+    @Test
+    public void testCorrupt() {
+        Program program = new Program(new Labels(), List.of(new MovInstruction(null, EAX, 1)));
+        byte[] bytes = ProgramFile.toBytes(program);
+        bytes[bytes.length - 5] ^= 1;
+        Assertions.assertThrows(IOException.class, () -> ProgramFile.fromBytes(ByteBuffer.wrap(bytes)));
+    }
+
+    @Test
+    public void testWrongVersion() {
+        Program program = new Program(new Labels(), List.of(new MovInstruction(null, EAX, 1)));
+        byte[] bytes = ProgramFile.toBytes(program);
+        bytes[5] = 2;
+        Assertions.assertThrows(IOException.class, () -> ProgramFile.fromBytes(ByteBuffer.wrap(bytes)));
+        Assertions.assertThrows(IOException.class, () -> ProgramFile.fromBytes(ByteBuffer.wrap(new byte[8])));
+    }
+}
@@ -0,0 +1,84 @@
+package sml;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sml.engine.CompilingEngine;
+import sml.engine.SwitchInterpreter;
+import sml.instruction.JnzInstruction;
+import sml.instruction.MovInstruction;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static sml.Registers.Register.*;
+
+public class ProgramTest {
+
+    private Program program;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        program = new Translator("./testResources/factorial.sml").translate();
+    }
+
+    @Test
+    public void testExecute() {
+        Registers registers = program.execute();
+        Assertions.assertEquals(720, registers.get(EBX));
+        Assertions.assertEquals(720, program.execute().get(EBX));
+    }
+
+    @Test
+    public void testImmutable() {
+        Assertions.assertThrows(UnsupportedOperationException.class,
+                () -> program.getInstructions().add(new MovInstruction(null, EAX, 1)));
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> program.getLabels().addLabel("x", 0));
+        Assertions.assertThrows(UnsupportedOperationException.class,
+                () -> program.newMachine().getProgram().clear());
+    }
+
+    @Test
+    public void testUndefinedLabel() {
+        Labels labels = new Labels();
+        List<Instruction> instructions = new ArrayList<>();
+        instructions.add(new JnzInstruction(null, EAX, "a"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new Program(labels, instructions));
+    }
+
+    @Test
+    public void testConcurrentRuns() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Registers>> runs = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                int run = i;
+                runs.add(executor.submit(() -> {
+                    Machine machine = program.newMachine();
+                    if (run % 3 == 1)
+                        machine.setEngine(new SwitchInterpreter());
+                    else if (run % 3 == 2)
+                        machine.setEngine(new CompilingEngine());
+                    machine.execute();
+                    return machine.getRegisters();
+                }));
+            }
+            for (Future<Registers> run : runs)
+                Assertions.assertEquals(720, run.get().get(EBX));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testEqualsAndHashCode() throws IOException {
+        Program other = new Translator("./testResources/factorial.sml").translate();
+        Assertions.assertEquals(program, other);
+        Assertions.assertEquals(program.hashCode(), other.hashCode());
+        Assertions.assertNotEquals(program, new Translator("./testResources/test3.sml").translate());
+    }
+}
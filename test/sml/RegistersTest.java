@@ -0,0 +1,62 @@
+package sml;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static sml.Registers.Register.*;
+
+public class RegistersTest {
+
+    private Registers registers;
+
+    @BeforeEach
+    public void setUp() {
+        registers = new Registers();
+    }
+
+    @Test
+    public void testOrdinalAccessors() {
+        registers.set(ECX, 5);
+        Assertions.assertEquals(5, registers.get(ECX.ordinal()));
+        registers.set(Registers.ordinal(EDI), -3);
+        Assertions.assertEquals(-3, registers.get(EDI));
+    }
+
+    @Test
+    public void testForName() {
+        Assertions.assertEquals(ESI, Registers.forName(new StringBuilder("ESI")));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Registers.forName("EAXX"));
+    }
+
+    @Test
+    public void testClear() {
+        registers.set(EAX, 1);
+        registers.set(EDI, 2);
+        registers.clear();
+        Assertions.assertEquals(new Registers(), registers);
+    }
+
+    @Test
+    public void testToString() {
+        registers.set(EBX, 7);
+        Assertions.assertEquals(
+                "[EAX = 0, EBX = 7, ECX = 0, EDX = 0, ESP = 0, EBP = 0, ESI = 0, EDI = 0]",
+                registers.toString());
+    }
+
+    @Test
+    public void testEqualsAndHashCode() {
+        Registers other = new Registers();
+        Assertions.assertEquals(registers, other);
+        Assertions.assertEquals(registers.hashCode(), other.hashCode());
+
+        registers.set(ESP, 4);
+        Assertions.assertNotEquals(registers, other);
+        Assertions.assertNotEquals(registers.hashCode(), other.hashCode());
+
+        other.set(ESP, 4);
+        Assertions.assertEquals(registers, other);
+        Assertions.assertEquals(registers.hashCode(), other.hashCode());
+    }
+}
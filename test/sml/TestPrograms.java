@@ -0,0 +1,88 @@
+package sml;
+
+import org.junit.jupiter.api.Assertions;
+import sml.engine.InstructionInterpreter;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * Translates programs for tests, and checks that a transformed program or another ExecutionEngine behaves as the
+ * InstructionInterpreter executing the program as translated.
+ */
+public final class TestPrograms {
+
+    private TestPrograms() {
+    }
+
+    /**
+     * Translates an SML program into a new Machine, with its own modifiable program.
+     *
+     * @param program the source of the program
+     * @return the Machine, not yet executed
+     */
+    public static Machine translate(String program) throws IOException {
+        Machine machine = new Machine(new Registers());
+        new Translator(new StringReader(program)).readAndTranslate(machine.getLabels(), machine.getProgram());
+        return machine;
+    }
+
+    /**
+     * Translates an SML program into a shared Program.
+     *
+     * @param program the source of the program
+     * @return the linked Program
+     */
+    public static Program translateShared(String program) throws IOException {
+        Machine machine = translate(program);
+        return new Program(machine.getLabels(), machine.getProgram());
+    }
+
+    /**
+     * Executes the program of a Machine with its ExecutionEngine, collecting its output.
+     *
+     * @param machine the Machine
+     * @return the values output
+     */
+    public static IntCollector execute(Machine machine) {
+        IntCollector output = new IntCollector();
+        machine.setOutput(output);
+        machine.execute();
+        return output;
+    }
+
+    /**
+     * Executes a program as translated with the InstructionInterpreter, and the given Machine, which may hold it
+     * transformed, with its ExecutionEngine, checking both output the same values and stop with the same registers.
+     *
+     * @param program the source of the program
+     * @param machine the Machine, which is executed
+     */
+    public static void assertSameAsInstructionInterpreter(String program, Machine machine) throws IOException {
+        Machine original = translate(program);
+        IntCollector expected = execute(original);
+        IntCollector output = execute(machine);
+        Assertions.assertArrayEquals(expected.toArray(), output.toArray());
+        Assertions.assertEquals(original.getRegisters(), machine.getRegisters());
+    }
+
+    /**
+     * Executes the program of a Machine with the InstructionInterpreter and then the given engine, checking both
+     * output the same values and stop with the same registers. The engine is left set on the Machine.
+     *
+     * @param machine the Machine
+     * @param engine the ExecutionEngine to compare with the InstructionInterpreter
+     */
+    public static void assertSameAsInstructionInterpreter(Machine machine, ExecutionEngine engine) {
+        machine.setEngine(InstructionInterpreter.INSTANCE);
+        IntCollector expectedOutput = execute(machine);
+        Registers expected = new Registers();
+        for (int register = 0; register < Registers.SIZE; register++)
+            expected.set(register, machine.getRegisters().get(register));
+
+        machine.setEngine(engine);
+        IntCollector output = execute(machine);
+        Assertions.assertArrayEquals(expectedOutput.toArray(), output.toArray());
+        Assertions.assertEquals(expected, machine.getRegisters());
+    }
+}
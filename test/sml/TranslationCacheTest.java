@@ -0,0 +1,93 @@
+package sml;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TranslationCacheTest {
+
+    private static final Path FACTORIAL = Path.of("./testResources/factorial.sml");
+
+    private static Program translate(Path source, TranslationCache cache) throws IOException {
+        Translator translator = new Translator(source);
+        translator.setCache(cache);
+        Labels labels = new Labels();
+        List<Instruction> program = new ArrayList<>();
+        translator.readAndTranslate(labels, program);
+        return new Program(labels, program);
+    }
+
+    @Test
+    public void testMemoryTier() throws IOException {
+        TranslationCache cache = new TranslationCache(4);
+        Program expected = new Translator(FACTORIAL).translate();
+        Assertions.assertEquals(expected, translate(FACTORIAL, cache));
+        Assertions.assertEquals(expected, translate(FACTORIAL, cache));
+        Assertions.assertEquals(1, cache.getMisses());
+        Assertions.assertEquals(1, cache.getMemoryHits());
+        Assertions.assertEquals(0, cache.getDiskHits());
+    }
+
+    @Test
+    public void testKeyedByContent(@TempDir Path directory) throws IOException {
+        TranslationCache cache = new TranslationCache(4);
+        Path copy = Files.copy(FACTORIAL, directory.resolve("copy.sml"));
+        Assertions.assertEquals(cache.key(FACTORIAL), cache.key(copy));
+        translate(FACTORIAL, cache);
+        translate(copy, cache);
+        Assertions.assertEquals(1, cache.getMemoryHits());
+
+        Files.writeString(copy, "out EAX\n");
+        Assertions.assertNotEquals(cache.key(FACTORIAL), cache.key(copy));
+        Assertions.assertEquals(1, translate(copy, cache).size());
+        Assertions.assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        TranslationCache cache = new TranslationCache(1);
+        Path other = Path.of("./testResources/test3.sml");
+        translate(FACTORIAL, cache);
+        translate(other, cache);
+        translate(FACTORIAL, cache);
+        Assertions.assertEquals(3, cache.getMisses());
+    }
+
+    @Test
+    public void testDiskTier(@TempDir Path directory) throws IOException {
+        Program expected = new Translator(FACTORIAL).translate();
+        TranslationCache cache = new TranslationCache(4, directory);
+        translate(FACTORIAL, cache);
+        Assertions.assertTrue(Files.exists(directory.resolve(cache.key(FACTORIAL) + ProgramFile.EXTENSION)));
+
+        // A new cache, as in a later run, finds the Program on disk
+        TranslationCache later = new TranslationCache(4, directory);
+        Assertions.assertEquals(expected, translate(FACTORIAL, later));
+        Assertions.assertEquals(1, later.getDiskHits());
+        Assertions.assertEquals(0, later.getMisses());
+    }
+
+    @Test
+    public void testCorruptDiskEntry(@TempDir Path directory) throws IOException {
+        TranslationCache cache = new TranslationCache(4, directory);
+        Files.writeString(directory.resolve(cache.key(FACTORIAL) + ProgramFile.EXTENSION), "not a program");
+        Assertions.assertEquals(new Translator(FACTORIAL).translate(), translate(FACTORIAL, cache));
+        Assertions.assertEquals(1, cache.getMisses());
+        Assertions.assertNotNull(ProgramFile.read(directory.resolve(cache.key(FACTORIAL) + ProgramFile.EXTENSION)));
+    }
+
+    @Test
+    public void testErrorsAreNotCached() {
+        TranslationCache cache = new TranslationCache(4);
+        Path invalid = Path.of("./testResources/test5.sml");
+        Assertions.assertThrows(IOException.class, () -> translate(invalid, cache));
+        Assertions.assertThrows(IOException.class, () -> translate(invalid, cache));
+        Assertions.assertEquals(2, cache.getMisses());
+    }
+}
@@ -2,10 +2,20 @@ package sml;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
 
 public class TranslatorTest {
     private LinkedList<Instruction> list;
@@ -65,10 +75,92 @@ public class TranslatorTest {
         assertThrows(IOException.class, () -> translator.readAndTranslate(new Labels(), list));
     }
 
+    @Test
+    public void testUndefinedLabel() {
+        translator = new Translator(fileLocation + "test11.sml");
+        assertThrows(IOException.class, () -> translator.readAndTranslate(new Labels(), list));
+    }
+
     @Test
     public void tooManyArguments() {
         translator = new Translator(fileLocation + "test13.sml");
         assertThrows(IOException.class, () -> translator.readAndTranslate(new Labels(), list));
     }
 
+    @Test
+    public void testSources() throws IOException {
+        Program expected = new Translator(fileLocation + "factorial.sml").translate();
+        String text = String.join("\r\n", expected.toString().lines().toList());
+
+        assertEquals(expected, new Translator(Path.of(fileLocation, "factorial.sml")).translate());
+        assertEquals(expected, new Translator(new StringReader(text)).translate());
+        assertEquals(expected, new Translator(
+                new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8))).translate());
+        assertEquals(expected, new Translator(text.lines()).translate());
+    }
+
+    @Test
+    public void testEmptyLineInStream() {
+        translator = new Translator(Stream.of("mov EAX 1", "", "out EAX"));
+        assertThrows(IOException.class, () -> translator.readAndTranslate(new Labels(), list));
+    }
+
+    @Test
+    public void testReaderAcrossWindows() throws IOException {
+        StringBuilder text = new StringBuilder();
+        // Lines far longer than the window, and a line separator split between windows
+        text.append("mov EAX ").append("0".repeat(100_000)).append("1\r\n");
+        for (int i = 0; i < 20_000; i++)
+            text.append("l").append(i).append(": add EAX EAX\r\n");
+        text.append("out EAX");
+        translator = new Translator(new StringReader(text.toString()));
+        translator.readAndTranslate(new Labels(), list);
+        assertEquals(20_002, list.size());
+        assertEquals("l19999: add EAX EAX", list.get(20_000).toString());
+    }
+
+    @Test
+    public void testChunks() throws IOException {
+        translator = new Translator(fileLocation + "factorial.sml");
+        List<List<Instruction>> chunks = new ArrayList<>();
+        Labels labels = translator.translate(2, chunks::add);
+
+        List<Instruction> program = chunks.stream().flatMap(List::stream).toList();
+        assertTrue(chunks.stream().allMatch(chunk -> !chunk.isEmpty() && chunk.size() <= 2));
+        assertEquals(new Translator(fileLocation + "factorial.sml").translate(), new Program(labels, program));
+        assertThrows(IllegalArgumentException.class, () -> translator.translate(0, chunks::add));
+    }
+
+    private static Path writeLargeProgram(Path directory, String lastLabel) throws IOException {
+        StringBuilder text = new StringBuilder("mov EAX 3\n");
+        // Enough lines for the file to be split into several chunks
+        for (int i = 0; i < 200_000; i++)
+            text.append("l").append(i).append(": add EBX EAX\n");
+        text.append(lastLabel).append(": sub EAX ECX\njnz EAX l0\n");
+        Path file = directory.resolve("large.sml");
+        Files.writeString(file, text);
+        return file;
+    }
+
+    @Test
+    public void testParallel(@TempDir Path directory) throws IOException {
+        Path file = writeLargeProgram(directory, "end");
+        assertEquals(new Translator(file).translate(), new Translator(file).translate(ForkJoinPool.commonPool()));
+    }
+
+    @Test
+    public void testParallelDuplicateLabels(@TempDir Path directory) throws IOException {
+        Path file = writeLargeProgram(directory, "l0");
+        translator = new Translator(file);
+        assertThrows(IOException.class,
+                () -> translator.readAndTranslate(new Labels(), list, ForkJoinPool.commonPool()));
+    }
+
+    @Test
+    public void testParallelFromReader() throws IOException {
+        translator = new Translator(new StringReader("mov EAX 1\nout EAX\n"));
+        translator.readAndTranslate(new Labels(), list, ForkJoinPool.commonPool());
+        assertEquals(2, list.size());
+    }
+
 }
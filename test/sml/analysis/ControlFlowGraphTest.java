@@ -0,0 +1,171 @@
+package sml.analysis;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sml.Instruction;
+import sml.Labels;
+import sml.Machine;
+import sml.instruction.JnzInstruction;
+import sml.instruction.MovInstruction;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+import static sml.Registers.Register.*;
+import static sml.TestPrograms.translate;
+
+public class ControlFlowGraphTest {
+
+    private static ControlFlowGraph build(String program) throws IOException {
+        Machine machine = translate(program);
+        return ControlFlowGraph.of(machine.getLabels(), machine.getProgram());
+    }
+
+    private static List<Integer> indices(List<BasicBlock> blocks) {
+        return blocks.stream().map(BasicBlock::getIndex).toList();
+    }
+
+    @Test
+    public void testFactorial() throws IOException {
+        ControlFlowGraph graph = build("mov EAX 6\nmov EBX 1\nmov ECX 1\nf3: mul EBX EAX\nsub EAX ECX\n"
+                + "jnz EAX f3\nout EBX\n");
+        List<BasicBlock> blocks = graph.getBlocks();
+        Assertions.assertEquals(3, blocks.size());
+        Assertions.assertEquals(List.of(0, 3, 6), blocks.stream().map(BasicBlock::getStart).toList());
+        Assertions.assertEquals(List.of(3, 6, 7), blocks.stream().map(BasicBlock::getEnd).toList());
+        Assertions.assertEquals(List.of(1), indices(blocks.get(0).getSuccessors()));
+        Assertions.assertEquals(List.of(1, 2), indices(blocks.get(1).getSuccessors()));
+        Assertions.assertEquals(List.of(0, 1), indices(blocks.get(1).getPredecessors()));
+        Assertions.assertTrue(blocks.get(2).isExit());
+        Assertions.assertFalse(blocks.get(1).isExit());
+        Assertions.assertEquals("jnz EAX f3", blocks.get(1).getLastInstruction().toString());
+
+        Assertions.assertEquals(1, graph.getLoops().size());
+        Loop loop = graph.getLoops().get(0);
+        Assertions.assertSame(blocks.get(1), loop.header());
+        Assertions.assertTrue(loop.isSingleBlock());
+        Assertions.assertEquals(List.of(blocks.get(1)), loop.latches());
+    }
+
+    @Test
+    public void testDefsAndUses() throws IOException {
+        ControlFlowGraph graph = build("mov EAX 6\nmov EBX 1\nmov ECX 1\nf3: mul EBX EAX\nsub EAX ECX\n"
+                + "jnz EAX f3\nout EBX\n");
+        BasicBlock entry = graph.getEntry();
+        Assertions.assertEquals(Set.of(EAX, EBX, ECX), entry.getDefs());
+        Assertions.assertEquals(Set.of(), entry.getUses());
+
+        BasicBlock loop = graph.getBlock(4);
+        Assertions.assertEquals(Set.of(EAX, EBX), loop.getDefs());
+        Assertions.assertEquals(Set.of(EAX, EBX, ECX), loop.getUses());
+
+        BasicBlock exit = graph.getBlock(6);
+        Assertions.assertEquals(Set.of(), exit.getDefs());
+        Assertions.assertEquals(Set.of(EBX), exit.getUses());
+    }
+
+    @Test
+    public void testUsesExcludeRegistersWrittenFirst() throws IOException {
+        ControlFlowGraph graph = build("mov EAX 1\nadd EAX EBX\nmov ECX 0\nadd ECX EAX\nout ECX\n");
+        BasicBlock block = graph.getEntry();
+        Assertions.assertEquals(1, graph.getBlocks().size());
+        Assertions.assertEquals(Set.of(EBX), block.getUses());
+        Assertions.assertEquals(Set.of(EAX, ECX), block.getDefs());
+    }
+
+    @Test
+    public void testDominators() throws IOException {
+        // An if-else: B0 branches to B2 or B1, which jumps over B2 to B3
+        ControlFlowGraph graph = build("mov EAX 1\njnz EAX else\nmov EBX 2\njnz EBX end\n"
+                + "else: mov EBX 3\nend: out EBX\n");
+        List<BasicBlock> blocks = graph.getBlocks();
+        Assertions.assertEquals(4, blocks.size());
+        Assertions.assertNull(graph.getImmediateDominator(blocks.get(0)));
+        Assertions.assertSame(blocks.get(0), graph.getImmediateDominator(blocks.get(1)));
+        Assertions.assertSame(blocks.get(0), graph.getImmediateDominator(blocks.get(2)));
+        Assertions.assertSame(blocks.get(0), graph.getImmediateDominator(blocks.get(3)));
+        Assertions.assertTrue(graph.dominates(blocks.get(0), blocks.get(3)));
+        Assertions.assertTrue(graph.dominates(blocks.get(3), blocks.get(3)));
+        Assertions.assertFalse(graph.dominates(blocks.get(1), blocks.get(3)));
+        Assertions.assertFalse(graph.dominates(blocks.get(2), blocks.get(3)));
+        Assertions.assertTrue(graph.getLoops().isEmpty());
+    }
+
+    @Test
+    public void testNestedLoops() throws IOException {
+        // outer: B1 to B3, inner: B2
+        ControlFlowGraph graph = build("mov EAX 3\nmov ECX 1\nouter: mov EBX 4\ninner: sub EBX ECX\njnz EBX inner\n"
+                + "sub EAX ECX\njnz EAX outer\nout EAX\n");
+        List<BasicBlock> blocks = graph.getBlocks();
+        Assertions.assertEquals(5, blocks.size());
+        List<Loop> loops = graph.getLoops();
+        Assertions.assertEquals(2, loops.size());
+
+        Loop outer = loops.get(0);
+        Assertions.assertSame(blocks.get(1), outer.header());
+        Assertions.assertEquals(List.of(1, 2, 3), indices(outer.blocks()));
+        Assertions.assertEquals(List.of(3), indices(outer.latches()));
+        Assertions.assertFalse(outer.isSingleBlock());
+
+        Loop inner = loops.get(1);
+        Assertions.assertSame(blocks.get(2), inner.header());
+        Assertions.assertTrue(inner.isSingleBlock());
+        Assertions.assertTrue(outer.contains(inner.header()));
+        Assertions.assertFalse(inner.contains(outer.header()));
+        Assertions.assertSame(blocks.get(2), graph.getImmediateDominator(blocks.get(3)));
+    }
+
+    @Test
+    public void testLoopsSharingAHeaderAreMerged() throws IOException {
+        ControlFlowGraph graph = build("mov ECX 1\nmov EAX 5\nl: sub EAX ECX\njnz EBX skip\njnz EAX l\n"
+                + "skip: jnz EAX l\n");
+        Assertions.assertEquals(1, graph.getLoops().size());
+        Loop loop = graph.getLoops().get(0);
+        Assertions.assertEquals(List.of(1, 2, 3), indices(loop.blocks()));
+        Assertions.assertEquals(List.of(2, 3), indices(loop.latches()));
+    }
+
+    @Test
+    public void testReversePostorder() throws IOException {
+        // Every jump may fall through, so every block can be reached
+        ControlFlowGraph graph = build("mov EAX 3\nmov ECX 1\nouter: mov EBX 4\ninner: sub EBX ECX\njnz EBX inner\n"
+                + "sub EAX ECX\njnz EAX outer\nout EAX\n");
+        List<BasicBlock> order = graph.getReversePostorder();
+        Assertions.assertEquals(graph.getBlocks().size(), order.size());
+        Assertions.assertSame(graph.getEntry(), order.get(0));
+        for (BasicBlock block : graph.getBlocks()) {
+            Assertions.assertTrue(graph.isReachable(block));
+            for (BasicBlock successor : block.getSuccessors())
+                if (!graph.dominates(successor, block))
+                    Assertions.assertTrue(order.indexOf(block) < order.indexOf(successor));
+        }
+    }
+
+    @Test
+    public void testGetBlock() throws IOException {
+        ControlFlowGraph graph = build("mov EAX 6\nmov EBX 1\nmov ECX 1\nf3: mul EBX EAX\nsub EAX ECX\n"
+                + "jnz EAX f3\nout EBX\n");
+        Assertions.assertEquals(0, graph.getBlock(0).getIndex());
+        Assertions.assertEquals(0, graph.getBlock(2).getIndex());
+        Assertions.assertEquals(1, graph.getBlock(3).getIndex());
+        Assertions.assertEquals(1, graph.getBlock(5).getIndex());
+        Assertions.assertEquals(2, graph.getBlock(6).getIndex());
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> graph.getBlock(7));
+        Assertions.assertEquals(3, graph.getBlock(3).getInstructions().size());
+    }
+
+    @Test
+    public void testEmptyProgram() throws IOException {
+        ControlFlowGraph graph = build("");
+        Assertions.assertTrue(graph.getBlocks().isEmpty());
+        Assertions.assertNull(graph.getEntry());
+        Assertions.assertTrue(graph.getLoops().isEmpty());
+    }
+
+    @Test
+    public void testMissingLabel() {
+        List<Instruction> program = List.of(new MovInstruction(null, EAX, 1), new JnzInstruction(null, EAX, "nowhere"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> ControlFlowGraph.of(new Labels(), program));
+    }
+}
@@ -0,0 +1,85 @@
+package sml.engine;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sml.Instruction;
+import sml.Machine;
+import sml.Registers;
+import sml.instruction.*;
+
+import static sml.Registers.Register.*;
+
+public class CompilingEngineTest {
+
+    private Machine machine;
+
+    @BeforeEach
+    public void setUp() {
+        machine = new Machine(new Registers());
+        machine.setEngine(new CompilingEngine());
+    }
+
+    private void addFactorial() {
+        machine.getProgram().add(new MovInstruction(null, EAX, 6));
+        machine.getProgram().add(new MovInstruction(null, EBX, 1));
+        machine.getProgram().add(new MovInstruction(null, ECX, 1));
+        machine.getProgram().add(new MulInstruction("f3", EBX, EAX));
+        machine.getLabels().addLabel("f3", 3);
+        machine.getProgram().add(new SubInstruction(null, EAX, ECX));
+        machine.getProgram().add(new JnzInstruction(null, EAX, "f3"));
+    }
+
+    @Test
+    public void testCompile() {
+        addFactorial();
+        Assertions.assertNotNull(BytecodeCompiler.compile(
+                CompactProgram.lower(machine.getProgram(), machine.getLabels())));
+    }
+
+    @Test
+    public void testFactorial() {
+        addFactorial();
+        machine.getProgram().add(new MovInstruction(null, EDX, 100000));
+        machine.getProgram().add(new DivInstruction(null, EDX, ECX));
+        machine.execute();
+        Assertions.assertEquals(0, machine.getRegisters().get(EAX));
+        Assertions.assertEquals(720, machine.getRegisters().get(EBX));
+        Assertions.assertEquals(1, machine.getRegisters().get(ECX));
+        Assertions.assertEquals(100000, machine.getRegisters().get(EDX));
+
+        // Executing again reuses the compiled program, starting from cleared registers
+        machine.execute();
+        Assertions.assertEquals(720, machine.getRegisters().get(EBX));
+    }
+
+    @Test
+    public void testDivideByZero() {
+        machine.getProgram().add(new MovInstruction(null, EAX, 6));
+        machine.getProgram().add(new DivInstruction(null, EAX, EBX));
+        machine.getProgram().add(new MovInstruction(null, ECX, 1));
+        machine.execute();
+        Assertions.assertEquals(new Registers(), machine.getRegisters());
+    }
+
+    @Test
+    public void testFallback() {
+        machine.getProgram().add(new MovInstruction(null, EAX, 3));
+        machine.getProgram().add(new Instruction(null, "inc") {
+            @Override
+            public int execute(Machine m) {
+                m.getRegisters().set(EAX, m.getRegisters().get(EAX) + 1);
+                return NORMAL_PROGRAM_COUNTER_UPDATE;
+            }
+
+            @Override
+            public String toString() {
+                return getLabelString() + "inc EAX";
+            }
+        });
+        Assertions.assertNull(BytecodeCompiler.compile(
+                CompactProgram.lower(machine.getProgram(), machine.getLabels())));
+        machine.execute();
+        Assertions.assertEquals(4, machine.getRegisters().get(EAX));
+    }
+}
@@ -0,0 +1,89 @@
+package sml.engine;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sml.ExecutionEngine;
+import sml.Instruction;
+import sml.Machine;
+import sml.Registers;
+import sml.TestPrograms;
+import sml.instruction.*;
+
+import java.util.function.Supplier;
+
+import static sml.Registers.Register.*;
+
+/**
+ * The checks every ExecutionEngine must pass, run against the engine supplied by each subclass.
+ */
+public abstract class ExecutionEngineTest {
+
+    private final Supplier<ExecutionEngine> engine;
+
+    protected Machine machine;
+
+    protected ExecutionEngineTest(Supplier<ExecutionEngine> engine) {
+        this.engine = engine;
+    }
+
+    @BeforeEach
+    public void setUp() {
+        machine = new Machine(new Registers());
+    }
+
+    /**
+     * Executes the program of machine with the InstructionInterpreter and then a new engine, checking both output the
+     * same values and leave the same register values.
+     */
+    protected void assertSameAsInstructionInterpreter() {
+        TestPrograms.assertSameAsInstructionInterpreter(machine, engine.get());
+    }
+
+    @Test
+    public void testFactorial() {
+        machine.getProgram().add(new MovInstruction(null, EAX, 6));
+        machine.getProgram().add(new MovInstruction(null, EBX, 1));
+        machine.getProgram().add(new MovInstruction(null, ECX, 1));
+        machine.getProgram().add(new MulInstruction("f3", EBX, EAX));
+        machine.getLabels().addLabel("f3", 3);
+        machine.getProgram().add(new SubInstruction(null, EAX, ECX));
+        machine.getProgram().add(new JnzInstruction(null, EAX, "f3"));
+        machine.getProgram().add(new AddInstruction(null, EDX, EBX));
+        machine.getProgram().add(new DivInstruction(null, EDX, ECX));
+        assertSameAsInstructionInterpreter();
+        Assertions.assertEquals(720, machine.getRegisters().get(EBX));
+        Assertions.assertEquals(720, machine.getRegisters().get(EDX));
+    }
+
+    @Test
+    public void testDivideByZero() {
+        machine.getProgram().add(new MovInstruction(null, EAX, 6));
+        machine.getProgram().add(new DivInstruction(null, EAX, EBX));
+        machine.getProgram().add(new MovInstruction(null, ECX, 1));
+        assertSameAsInstructionInterpreter();
+        Assertions.assertEquals(new Registers(), machine.getRegisters());
+    }
+
+    @Test
+    public void testCustomInstruction() {
+        machine.getProgram().add(new MovInstruction(null, EAX, 3));
+        machine.getProgram().add(new Instruction("a", "dec") {
+            @Override
+            public int execute(Machine m) {
+                m.getRegisters().set(EAX, m.getRegisters().get(EAX) - 1);
+                return NORMAL_PROGRAM_COUNTER_UPDATE;
+            }
+
+            @Override
+            public String toString() {
+                return getLabelString() + "dec EAX";
+            }
+        });
+        machine.getLabels().addLabel("a", 1);
+        machine.getProgram().add(new AddInstruction(null, EBX, EAX));
+        machine.getProgram().add(new JnzInstruction(null, EAX, "a"));
+        assertSameAsInstructionInterpreter();
+        Assertions.assertEquals(3, machine.getRegisters().get(EBX));
+    }
+}
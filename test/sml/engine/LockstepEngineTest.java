@@ -0,0 +1,206 @@
+package sml.engine;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sml.Instruction;
+import sml.Labels;
+import sml.Machine;
+import sml.Program;
+import sml.Registers;
+import sml.instruction.JnzInstruction;
+import sml.instruction.MovInstruction;
+import sml.instruction.SubInstruction;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static sml.Registers.Register.*;
+import static sml.TestPrograms.translateShared;
+
+public class LockstepEngineTest {
+
+    /**
+     * Computes the factorial of EAX in EBX, looping EAX times.
+     */
+    private static final String FACTORIAL = "mov EBX 1\nmov ECX 1\nf: mul EBX EAX\nsub EAX ECX\njnz EAX f\nout EBX\n";
+
+    private static int factorial(int n) {
+        int result = 1;
+        for (int i = 2; i <= n; i++)
+            result *= i;
+        return result;
+    }
+
+    @Test
+    public void testStraightLine() throws IOException {
+        Program program = translateShared("mul EAX EBX\nadd EAX ECX\nmov EDX 7\n");
+        Lanes lanes = new Lanes(5000);
+        int[] a = lanes.getColumn(EAX), b = lanes.getColumn(EBX), c = lanes.getColumn(ECX);
+        for (int lane = 0; lane < lanes.size(); lane++) {
+            a[lane] = lane;
+            b[lane] = lane % 7;
+            c[lane] = -lane;
+        }
+        LockstepEngine engine = new LockstepEngine();
+        engine.execute(program, lanes);
+        for (int lane = 0; lane < lanes.size(); lane++) {
+            Assertions.assertEquals(lane * (lane % 7) - lane, lanes.get(lane, EAX));
+            Assertions.assertEquals(7, lanes.get(lane, EDX));
+            Assertions.assertEquals(3, lanes.getProgramCounter(lane));
+        }
+        // Every lane executes every instruction together
+        int blocks = (5000 + LockstepEngine.DEFAULT_BLOCK_SIZE - 1) / LockstepEngine.DEFAULT_BLOCK_SIZE;
+        Assertions.assertEquals(new LockstepEngine.LockstepStatistics(3L * blocks, 3 * 5000, 0),
+                engine.getStatistics());
+    }
+
+    @Test
+    public void testDivergentLoops() throws IOException {
+        Program program = translateShared(FACTORIAL);
+        Lanes lanes = new Lanes(100);
+        for (int lane = 0; lane < lanes.size(); lane++)
+            lanes.set(lane, EAX, 1 + lane % 12);
+        LockstepEngine engine = new LockstepEngine(64, 0);
+        engine.execute(program, lanes);
+        for (int lane = 0; lane < lanes.size(); lane++) {
+            Assertions.assertEquals(factorial(1 + lane % 12), lanes.get(lane, EBX));
+            Assertions.assertArrayEquals(new int[] {factorial(1 + lane % 12)}, lanes.getOutput(lane));
+            Assertions.assertFalse(lanes.hasFailed(lane));
+        }
+        LockstepEngine.LockstepStatistics statistics = engine.getStatistics();
+        Assertions.assertEquals(0, statistics.fallbacks());
+        Assertions.assertTrue(statistics.laneSteps() < statistics.steps() * 64);
+    }
+
+    @Test
+    public void testFallsBackWhenDivergent() throws IOException {
+        Program program = translateShared(FACTORIAL);
+        Lanes lanes = new Lanes(100);
+        for (int lane = 0; lane < lanes.size(); lane++)
+            lanes.set(lane, EAX, (lane == 7) ? 1000 : 3);
+        LockstepEngine engine = new LockstepEngine(100, 0.5);
+        engine.execute(program, lanes);
+        for (int lane = 0; lane < lanes.size(); lane++)
+            Assertions.assertEquals((lane == 7) ? factorial(1000) : 6, lanes.get(lane, EBX));
+        // The long-running lane is left on its own once the others have finished
+        Assertions.assertEquals(1, engine.getStatistics().fallbacks());
+    }
+
+    @Test
+    public void testDivideByZero() throws IOException {
+        Program program = translateShared("mov EDX 100\ndiv EDX EAX\nout EDX\nmov ECX 1\n");
+        Lanes lanes = new Lanes(10);
+        for (int lane = 0; lane < lanes.size(); lane++) {
+            lanes.set(lane, EAX, lane % 3);
+            lanes.set(lane, EBX, 5);
+        }
+        new LockstepEngine().execute(program, lanes);
+        for (int lane = 0; lane < lanes.size(); lane++) {
+            if (lane % 3 == 0) {
+                Assertions.assertTrue(lanes.hasFailed(lane));
+                Assertions.assertEquals(new Registers(), lanes.getRegisters(lane));
+                Assertions.assertArrayEquals(new int[0], lanes.getOutput(lane));
+            } else {
+                Assertions.assertFalse(lanes.hasFailed(lane));
+                Assertions.assertEquals(100 / (lane % 3), lanes.get(lane, EDX));
+                Assertions.assertEquals(1, lanes.get(lane, ECX));
+                Assertions.assertEquals(5, lanes.get(lane, EBX));
+            }
+        }
+    }
+
+    @Test
+    public void testExecutingAgainStartsFromRegisters() throws IOException {
+        Program program = translateShared("add EAX EBX\nout EAX\n");
+        Lanes lanes = new Lanes(3);
+        for (int lane = 0; lane < lanes.size(); lane++)
+            lanes.set(lane, EBX, lane);
+        LockstepEngine engine = new LockstepEngine();
+        engine.execute(program, lanes);
+        engine.execute(program, lanes);
+        for (int lane = 0; lane < lanes.size(); lane++) {
+            Assertions.assertEquals(2 * lane, lanes.get(lane, EAX));
+            Assertions.assertArrayEquals(new int[] {2 * lane}, lanes.getOutput(lane));
+        }
+    }
+
+    @Test
+    public void testInstructionWithoutCompactForm() {
+        List<Instruction> instructions = new ArrayList<>();
+        instructions.add(new MovInstruction(null, ECX, 1));
+        instructions.add(new Instruction("l", "inc") {
+            @Override
+            public int execute(Machine m) {
+                m.getRegisters().set(EBX, m.getRegisters().get(EBX) + 1);
+                return NORMAL_PROGRAM_COUNTER_UPDATE;
+            }
+
+            @Override
+            public String toString() {
+                return getLabelString() + "inc EBX";
+            }
+        });
+        instructions.add(new SubInstruction(null, EAX, ECX));
+        instructions.add(new JnzInstruction(null, EAX, "l"));
+        Labels labels = new Labels();
+        labels.addLabel("l", 1);
+        Program program = new Program(labels, instructions);
+
+        Lanes lanes = new Lanes(8);
+        for (int lane = 0; lane < lanes.size(); lane++)
+            lanes.set(lane, EAX, lane + 1);
+        new LockstepEngine(4, 0.25).execute(program, lanes);
+        for (int lane = 0; lane < lanes.size(); lane++)
+            Assertions.assertEquals(lane + 1, lanes.get(lane, EBX));
+    }
+
+    @Test
+    public void testInstructionWithoutCompactFormDividesByZero() {
+        List<Instruction> instructions = new ArrayList<>();
+        instructions.add(new Instruction(null, "quot") {
+            @Override
+            public int execute(Machine m) {
+                int divisor = m.getRegisters().get(EBX);
+                if (divisor == 0) {
+                    m.divideByZero(this);
+                    return m.getProgram().size();
+                }
+                m.getRegisters().set(EAX, m.getRegisters().get(EAX) / divisor);
+                return NORMAL_PROGRAM_COUNTER_UPDATE;
+            }
+
+            @Override
+            public String toString() {
+                return "quot EAX EBX";
+            }
+        });
+        instructions.add(new MovInstruction(null, ECX, 1));
+        Program program = new Program(new Labels(), instructions);
+
+        Lanes lanes = new Lanes(6);
+        for (int lane = 0; lane < lanes.size(); lane++) {
+            lanes.set(lane, EAX, 12);
+            lanes.set(lane, EBX, lane % 3);
+        }
+        new LockstepEngine().execute(program, lanes);
+        for (int lane = 0; lane < lanes.size(); lane++) {
+            if (lane % 3 == 0) {
+                Assertions.assertTrue(lanes.hasFailed(lane));
+                Assertions.assertEquals(new Registers(), lanes.getRegisters(lane));
+            } else {
+                Assertions.assertFalse(lanes.hasFailed(lane));
+                Assertions.assertEquals(12 / (lane % 3), lanes.get(lane, EAX));
+                Assertions.assertEquals(1, lanes.get(lane, ECX));
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidConfiguration() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new LockstepEngine(0, 0.5));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new LockstepEngine(10, -0.5));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new LockstepEngine(10, 1.5));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new LockstepEngine(10, Double.NaN));
+    }
+}
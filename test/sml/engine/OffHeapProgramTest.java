@@ -0,0 +1,103 @@
+package sml.engine;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sml.*;
+import sml.instruction.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static sml.Registers.Register.*;
+
+public class OffHeapProgramTest {
+
+    @Test
+    public void testFactorial() throws IOException {
+        Program expected = new Translator("./testResources/factorial.sml").translate();
+        OffHeapProgram program = OffHeapProgram.translate(new Translator("./testResources/factorial.sml"));
+        Assertions.assertEquals(expected.size(), program.size());
+        Assertions.assertEquals(expected.getLabels(), program.getLabels());
+        for (int address = 0; address < program.size(); address++)
+            Assertions.assertEquals(expected.getInstructions().get(address), program.getInstruction(address));
+
+        Machine machine = program.newMachine();
+        machine.execute();
+        Assertions.assertEquals(expected.execute(), machine.getRegisters());
+    }
+
+    @Test
+    public void testGrowsAcrossChunks() throws IOException {
+        StringBuilder text = new StringBuilder("mov ECX 1\n");
+        for (int i = 0; i < 40_000; i++)
+            text.append("add EAX ECX\n");
+        text.append("out EAX\n");
+        OffHeapProgram program = OffHeapProgram.translate(new Translator(new StringReader(text.toString())));
+        Assertions.assertEquals(40_002, program.size());
+
+        Machine machine = program.newMachine();
+        List<Integer> output = new ArrayList<>();
+        machine.setOutput(output::add);
+        machine.execute();
+        Assertions.assertEquals(List.of(40_000), output);
+    }
+
+    @Test
+    public void testFusedAndCustomInstructions() {
+        Labels labels = new Labels();
+        labels.addLabel("a", 1);
+        List<Instruction> instructions = List.of(
+                new MovAddInstruction(null, ECX, 1, EDX),
+                new Instruction("a", "dec") {
+                    @Override
+                    public int execute(Machine m) {
+                        m.getRegisters().set(EBX, m.getRegisters().get(EBX) + 1);
+                        return NORMAL_PROGRAM_COUNTER_UPDATE;
+                    }
+
+                    @Override
+                    public String toString() {
+                        return getLabelString() + "inc EBX";
+                    }
+                },
+                new MovInstruction(null, EAX, 5),
+                new SubJnzInstruction(null, EDX, ECX, "a"));
+        OffHeapProgram program = OffHeapProgram.of(instructions, labels);
+        Assertions.assertSame(instructions.get(1), program.getInstruction(1));
+        Assertions.assertEquals(instructions.get(3), program.getInstruction(3));
+
+        Machine machine = program.newMachine();
+        machine.execute();
+        Assertions.assertEquals(1, machine.getRegisters().get(EBX));
+        Assertions.assertEquals(0, machine.getRegisters().get(EDX));
+    }
+
+    @Test
+    public void testDivideByZero() {
+        OffHeapProgram program = OffHeapProgram.of(List.of(
+                new MovInstruction(null, EAX, 6),
+                new DivInstruction(null, EAX, EBX),
+                new MovInstruction(null, ECX, 1)), new Labels());
+        Machine machine = program.newMachine();
+        machine.execute();
+        Assertions.assertEquals(new Registers(), machine.getRegisters());
+    }
+
+    @Test
+    public void testUndefinedLabel() {
+        List<Instruction> instructions = List.of(new JnzInstruction(null, EAX, "missing"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> OffHeapProgram.of(instructions, new Labels()));
+    }
+
+    @Test
+    public void testToString() {
+        Labels labels = new Labels();
+        labels.addLabel("l", 0);
+        OffHeapProgram program = OffHeapProgram.of(List.of(
+                new OutInstruction("l", EAX),
+                new JnzInstruction(null, EAX, "l")), labels);
+        Assertions.assertEquals("l: out EAX\njnz EAX l\n", program.toString());
+    }
+}
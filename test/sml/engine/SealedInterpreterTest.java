@@ -0,0 +1,45 @@
+package sml.engine;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sml.Machine;
+import sml.Program;
+import sml.instruction.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static sml.Registers.Register.*;
+
+public class SealedInterpreterTest extends ExecutionEngineTest {
+
+    public SealedInterpreterTest() {
+        super(SealedInterpreter::new);
+    }
+
+    @Test
+    public void testFusedInstructions() {
+        machine.getProgram().add(new MovAddInstruction(null, ECX, 1, EDX));
+        machine.getProgram().add(new MovAddInstruction(null, EAX, 4, EDX));
+        machine.getProgram().add(new AddInstruction("l", EBX, EDX));
+        machine.getLabels().addLabel("l", 2);
+        machine.getProgram().add(new SubJnzInstruction(null, EAX, ECX, "l"));
+        assertSameAsInstructionInterpreter();
+        Assertions.assertEquals(20, machine.getRegisters().get(EBX));
+    }
+
+    @Test
+    public void testSharedProgram() {
+        machine.getProgram().add(new MovInstruction(null, EAX, 2));
+        machine.getProgram().add(new OutInstruction(null, EAX));
+        Program program = new Program(machine.getLabels(), machine.getProgram());
+        for (int run = 0; run < 2; run++) {
+            Machine shared = program.newMachine();
+            shared.setEngine(new SealedInterpreter());
+            List<Integer> output = new ArrayList<>();
+            shared.setOutput(output::add);
+            shared.execute();
+            Assertions.assertEquals(List.of(2), output);
+        }
+    }
+}
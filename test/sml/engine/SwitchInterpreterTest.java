@@ -0,0 +1,28 @@
+package sml.engine;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sml.instruction.JnzInstruction;
+import sml.instruction.MovInstruction;
+
+import static sml.Registers.Register.*;
+
+public class SwitchInterpreterTest extends ExecutionEngineTest {
+
+    public SwitchInterpreterTest() {
+        super(SwitchInterpreter::new);
+    }
+
+    @Test
+    public void testLower() {
+        machine.getProgram().add(new MovInstruction("a", ESI, 5));
+        machine.getLabels().addLabel("a", 0);
+        machine.getProgram().add(new JnzInstruction(null, ESI, "a"));
+        CompactProgram program = CompactProgram.lower(machine.getProgram(), machine.getLabels());
+        Assertions.assertEquals(2, program.size());
+        Assertions.assertArrayEquals(new int[] {
+                CompactProgram.MOV, ESI.ordinal(), 5, 0,
+                CompactProgram.JNZ, ESI.ordinal(), 0, 0
+        }, program.getCode());
+    }
+}
@@ -0,0 +1,150 @@
+package sml.engine;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sml.Instruction;
+import sml.Machine;
+import sml.Registers;
+import sml.instruction.JnzInstruction;
+import sml.instruction.MovInstruction;
+import sml.instruction.SubInstruction;
+
+import java.io.IOException;
+
+import static sml.Registers.Register.*;
+import static sml.TestPrograms.*;
+
+public class TracingEngineTest {
+
+    private Machine machine;
+
+    @BeforeEach
+    public void setUp() {
+        machine = new Machine(new Registers());
+    }
+
+    @Test
+    public void testTracesHotLoop() throws IOException {
+        machine = translate("mov EAX 100000\nmov EBX 0\nmov ECX 1\nl: add EBX EAX\nsub EAX ECX\njnz EAX l\nout EBX\n");
+        TracingEngine engine = new TracingEngine(10, 20);
+        assertSameAsInstructionInterpreter(machine, engine);
+        TracingEngine.TraceStatistics statistics = engine.getTraceStatistics();
+        Assertions.assertEquals(1, statistics.traces());
+        Assertions.assertEquals(0, statistics.abandoned());
+        Assertions.assertEquals(1, statistics.entries());
+        Assertions.assertEquals(0, statistics.sideExits());
+    }
+
+    @Test
+    public void testColdLoopIsNotTraced() throws IOException {
+        machine = translate("mov EAX 5\nmov ECX 1\nl: sub EAX ECX\njnz EAX l\n");
+        TracingEngine engine = new TracingEngine(10, 20);
+        assertSameAsInstructionInterpreter(machine, engine);
+        Assertions.assertEquals(new TracingEngine.TraceStatistics(0, 0, 0, 0), engine.getTraceStatistics());
+    }
+
+    @Test
+    public void testExecutingAgainReusesTrace() throws IOException {
+        machine = translate("mov EAX 1000\nmov ECX 1\nl: sub EAX ECX\njnz EAX l\n");
+        TracingEngine engine = new TracingEngine(10, 20);
+        machine.setEngine(engine);
+        machine.execute();
+        machine.execute();
+        Assertions.assertEquals(0, machine.getRegisters().get(EAX));
+        // The second execution enters the trace at the first back edge, without recording it again
+        Assertions.assertEquals(new TracingEngine.TraceStatistics(1, 0, 2, 0), engine.getTraceStatistics());
+    }
+
+    @Test
+    public void testGuardFailsOnOtherBranch() throws IOException {
+        // Counts the odd values of EAX in EBX, alternating between the two branches of the loop
+        machine = translate("mov EAX 1000\nmov EBX 0\nmov ECX 1\nmov EDX 2\n"
+                + "l: mov ESI 0\nadd ESI EAX\nmov EDI 0\nadd EDI EAX\ndiv ESI EDX\nmul ESI EDX\nsub EDI ESI\n"
+                + "jnz EDI odd\njnz ECX next\nodd: add EBX ECX\nnext: sub EAX ECX\njnz EAX l\nout EBX\n");
+        TracingEngine engine = new TracingEngine(3, 50);
+        assertSameAsInstructionInterpreter(machine, engine);
+        Assertions.assertEquals(500, machine.getRegisters().get(EBX));
+        TracingEngine.TraceStatistics statistics = engine.getTraceStatistics();
+        Assertions.assertEquals(1, statistics.traces());
+        Assertions.assertTrue(statistics.sideExits() > 0);
+    }
+
+    @Test
+    public void testNestedLoops() throws IOException {
+        machine = translate("mov EAX 20\nmov ECX 1\nouter: mov EBX 50\ninner: add EDX ECX\nsub EBX ECX\njnz EBX inner\n"
+                + "sub EAX ECX\njnz EAX outer\nout EDX\n");
+        TracingEngine engine = new TracingEngine(5, 50);
+        assertSameAsInstructionInterpreter(machine, engine);
+        Assertions.assertEquals(1000, machine.getRegisters().get(EDX));
+        // The inner loop is traced, and the recording of the outer loop is abandoned when it reaches the inner loop
+        TracingEngine.TraceStatistics statistics = engine.getTraceStatistics();
+        Assertions.assertEquals(1, statistics.traces());
+        Assertions.assertEquals(1, statistics.abandoned());
+    }
+
+    @Test
+    public void testTraceTooLong() throws IOException {
+        machine = translate("mov EAX 100\nmov ECX 1\nl: add EBX ECX\nadd EBX ECX\nadd EBX ECX\nsub EAX ECX\n"
+                + "jnz EAX l\n");
+        TracingEngine engine = new TracingEngine(5, 4);
+        assertSameAsInstructionInterpreter(machine, engine);
+        Assertions.assertEquals(new TracingEngine.TraceStatistics(0, 1, 0, 0), engine.getTraceStatistics());
+    }
+
+    @Test
+    public void testOutputInTrace() throws IOException {
+        machine = translate("mov EAX 100\nmov ECX 1\nl: out EAX\nsub EAX ECX\njnz EAX l\n");
+        TracingEngine engine = new TracingEngine(2, 10);
+        assertSameAsInstructionInterpreter(machine, engine);
+        Assertions.assertEquals(1, engine.getTraceStatistics().traces());
+    }
+
+    @Test
+    public void testDivideByZeroInTrace() throws IOException {
+        // EDX reaches zero after 100 iterations, long after the loop is traced
+        machine = translate("mov EAX 1000\nmov ECX 1\nmov EDX 100\nl: mov EBX 1000\ndiv EBX EDX\nsub EDX ECX\n"
+                + "sub EAX ECX\njnz EAX l\n");
+        TracingEngine engine = new TracingEngine(5, 10);
+        machine.setEngine(engine);
+        machine.execute();
+        Assertions.assertEquals(new Registers(), machine.getRegisters());
+        TracingEngine.TraceStatistics statistics = engine.getTraceStatistics();
+        Assertions.assertEquals(1, statistics.traces());
+        Assertions.assertEquals(1, statistics.sideExits());
+    }
+
+    @Test
+    public void testInstructionWithoutCompactForm() {
+        machine.getProgram().add(new MovInstruction(null, EAX, 100));
+        machine.getProgram().add(new MovInstruction(null, ECX, 1));
+        machine.getProgram().add(new Instruction("l", "inc") {
+            @Override
+            public int execute(Machine m) {
+                m.getRegisters().set(EBX, m.getRegisters().get(EBX) + 1);
+                return NORMAL_PROGRAM_COUNTER_UPDATE;
+            }
+
+            @Override
+            public String toString() {
+                return getLabelString() + "inc EBX";
+            }
+        });
+        machine.getLabels().addLabel("l", 2);
+        machine.getProgram().add(new SubInstruction(null, EAX, ECX));
+        machine.getProgram().add(new JnzInstruction(null, EAX, "l"));
+        TracingEngine engine = new TracingEngine(5, 10);
+        assertSameAsInstructionInterpreter(machine, engine);
+        Assertions.assertEquals(100, machine.getRegisters().get(EBX));
+        Assertions.assertEquals(new TracingEngine.TraceStatistics(0, 1, 0, 0), engine.getTraceStatistics());
+    }
+
+    @Test
+    public void testInvalidConfiguration() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new TracingEngine(0, 10));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new TracingEngine(10, 0));
+        TracingEngine engine = new TracingEngine();
+        Assertions.assertEquals(TracingEngine.DEFAULT_THRESHOLD, engine.getThreshold());
+        Assertions.assertEquals(TracingEngine.DEFAULT_MAX_TRACE_LENGTH, engine.getMaxTraceLength());
+    }
+}
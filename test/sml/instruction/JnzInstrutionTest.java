@@ -43,6 +43,25 @@ public class JnzInstrutionTest extends AbstractInstructionTest{
         Assertions.assertEquals(0, machine.getRegisters().get(EAX));
     }
 
+    @Test
+    public void testLink() {
+        machine.getLabels().addLabel("a", 4);
+        Instruction instruction = new JnzInstruction(null, EAX, "a");
+        Instruction linked = instruction.link(machine.getLabels());
+        Assertions.assertEquals(instruction, linked);
+        Assertions.assertSame(linked, linked.link(machine.getLabels()));
+
+        registers.set(EAX, 1);
+        Assertions.assertEquals(4, linked.execute(machine));
+        registers.set(EAX, 0);
+        Assertions.assertEquals(Instruction.NORMAL_PROGRAM_COUNTER_UPDATE, linked.execute(machine));
+    }
+
+    @Test
+    public void testLinkLabelDoesNotExist() {
+        Assertions.assertNull(new JnzInstruction(null, EAX, "a").link(machine.getLabels()));
+    }
+
     @Test
     public void testToStringWithLabel() {
         Instruction instruction = new JnzInstruction("x", EAX, "y");
@@ -0,0 +1,42 @@
+package sml.instruction;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import sml.Instruction;
+import static sml.Registers.Register.*;
+
+public class MovAddInstructionTest extends AbstractInstructionTest {
+
+    @Test
+    public void executeValid() {
+        registers.set(EAX, 5);
+        Instruction instruction = new MovAddInstruction(null, EBX, 3, EAX);
+        instruction.execute(machine);
+        Assertions.assertEquals(8, registers.get(EAX));
+        Assertions.assertEquals(3, registers.get(EBX));
+    }
+
+    @Test
+    public void executeSameRegister() {
+        Instruction instruction = new MovAddInstruction(null, EAX, 3, EAX);
+        instruction.execute(machine);
+        Assertions.assertEquals(6, registers.get(EAX));
+    }
+
+    @Test
+    public void testToString() {
+        Instruction instruction = new MovAddInstruction("x", EBX, 3, EAX);
+        Assertions.assertEquals("x: mov EBX 3\nadd EAX EBX", instruction.toString());
+    }
+
+    @Test
+    public void testEqualsAndHashCode() {
+        Instruction instruction = new MovAddInstruction("x", EBX, 3, EAX);
+        Assertions.assertEquals(instruction, new MovAddInstruction("x", EBX, 3, EAX));
+        Assertions.assertEquals(instruction.hashCode(), new MovAddInstruction("x", EBX, 3, EAX).hashCode());
+        Assertions.assertNotEquals(instruction, new MovAddInstruction(null, EBX, 3, EAX));
+        Assertions.assertNotEquals(instruction, new MovAddInstruction("x", EBX, 4, EAX));
+        Assertions.assertNotEquals(instruction.hashCode(), new MovAddInstruction("x", EBX, 3, ECX).hashCode());
+    }
+}
@@ -0,0 +1,55 @@
+package sml.instruction;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import sml.Instruction;
+import static sml.Registers.Register.*;
+
+public class SubJnzInstructionTest extends AbstractInstructionTest {
+
+    @Test
+    public void executeJump() {
+        registers.set(EAX, 3);
+        registers.set(EBX, 1);
+        machine.getLabels().addLabel("a", 4);
+        Instruction instruction = new SubJnzInstruction(null, EAX, EBX, "a");
+        Assertions.assertEquals(4, instruction.execute(machine));
+        Assertions.assertEquals(2, registers.get(EAX));
+        Assertions.assertEquals(4, instruction.link(machine.getLabels()).execute(machine));
+        Assertions.assertEquals(1, registers.get(EAX));
+    }
+
+    @Test
+    public void executeNoJump() {
+        registers.set(EAX, 1);
+        registers.set(EBX, 1);
+        machine.getLabels().addLabel("a", 4);
+        Instruction instruction = new SubJnzInstruction(null, EAX, EBX, "a").link(machine.getLabels());
+        Assertions.assertEquals(Instruction.NORMAL_PROGRAM_COUNTER_UPDATE, instruction.execute(machine));
+        Assertions.assertEquals(0, registers.get(EAX));
+    }
+
+    @Test
+    public void testLinkLabelDoesNotExist() {
+        Assertions.assertNull(new SubJnzInstruction(null, EAX, EBX, "a").link(machine.getLabels()));
+    }
+
+    @Test
+    public void testToString() {
+        Instruction instruction = new SubJnzInstruction("x", EAX, EBX, "y");
+        Assertions.assertEquals("x: sub EAX EBX\njnz EAX y", instruction.toString());
+    }
+
+    @Test
+    public void testEqualsAndHashCode() {
+        machine.getLabels().addLabel("a", 0);
+        Instruction instruction = new SubJnzInstruction("x", EAX, EBX, "a");
+        Assertions.assertEquals(instruction, new SubJnzInstruction("x", EAX, EBX, "a"));
+        Assertions.assertEquals(instruction, instruction.link(machine.getLabels()));
+        Assertions.assertEquals(instruction.hashCode(), instruction.link(machine.getLabels()).hashCode());
+        Assertions.assertNotEquals(instruction, new SubJnzInstruction(null, EAX, EBX, "a"));
+        Assertions.assertNotEquals(instruction, new SubJnzInstruction("x", EAX, EBX, "b"));
+        Assertions.assertNotEquals(instruction.hashCode(), new SubJnzInstruction("x", ECX, EBX, "a").hashCode());
+    }
+}
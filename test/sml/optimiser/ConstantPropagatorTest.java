@@ -0,0 +1,140 @@
+package sml.optimiser;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sml.*;
+import sml.instruction.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static sml.Registers.Register.*;
+import static sml.TestPrograms.*;
+
+public class ConstantPropagatorTest {
+
+    /**
+     * Optimises the program, checking that it outputs the same values and stops with the same registers.
+     *
+     * @return the optimised Machine
+     */
+    private static Machine assertOptimised(String program, int removed) throws IOException {
+        Machine machine = translate(program);
+        int size = machine.getProgram().size();
+        Assertions.assertEquals(removed, ConstantPropagator.optimise(machine.getLabels(), machine.getProgram()));
+        Assertions.assertEquals(size - removed, machine.getProgram().size());
+        assertSameAsInstructionInterpreter(program, machine);
+        return machine;
+    }
+
+    @Test
+    public void testFoldsConstants() throws IOException {
+        Machine machine = assertOptimised("mov EAX 5\nmov EBX 3\nadd EAX EBX\nmul EAX EBX\nout EAX\n", 2);
+        Assertions.assertEquals(List.of(new MovInstruction(null, EBX, 3), new MovInstruction(null, EAX, 24),
+                new OutInstruction(null, EAX)), machine.getProgram());
+    }
+
+    @Test
+    public void testRemovesDeadStores() throws IOException {
+        Machine machine = assertOptimised("mov EAX 1\nmov EAX 2\nmov EBX 3\nout EBX\nmov EBX 4\n", 1);
+        Assertions.assertEquals(new MovInstruction(null, EAX, 2), machine.getProgram().get(0));
+    }
+
+    @Test
+    public void testRemovesUnreachableCode() throws IOException {
+        Machine machine = assertOptimised("mov EAX 1\njnz EAX end\nmov EBX 5\nout EBX\nend: out EAX\n", 2);
+        Assertions.assertEquals(2, machine.getLabels().getAddress("end"));
+    }
+
+    @Test
+    public void testRemovesJumpNeverTaken() throws IOException {
+        Machine machine = assertOptimised("jnz EAX x\nmov EBX 1\nx: out EBX\n", 1);
+        Assertions.assertEquals(new MovInstruction(null, EBX, 1), machine.getProgram().get(0));
+        Assertions.assertEquals(1, machine.getLabels().getAddress("x"));
+    }
+
+    @Test
+    public void testMovesLabelOfRemovedInstruction() throws IOException {
+        Machine machine = assertOptimised(
+                "mov ECX 3\nmov EBX 1\nl: mov EAX 7\nmov EAX 1\nout ECX\nsub ECX EBX\njnz ECX l\n", 1);
+        Assertions.assertEquals(new MovInstruction("l", EAX, 1), machine.getProgram().get(2));
+        Assertions.assertEquals(2, machine.getLabels().getAddress("l"));
+    }
+
+    @Test
+    public void testRetargetsJumpToMovedLabel() throws IOException {
+        Machine machine = assertOptimised(
+                "mov ECX 3\nmov EBX 1\nl: mov EAX 7\nm: mov EAX 1\nout ECX\nsub ECX EBX\njnz ECX l\n", 1);
+        Assertions.assertEquals(new MovInstruction("m", EAX, 1), machine.getProgram().get(2));
+        Assertions.assertEquals("jnz ECX m", machine.getProgram().get(5).toString());
+    }
+
+    @Test
+    public void testKeepsLoopVariables() throws IOException {
+        assertOptimised("mov EAX 6\nmov EBX 1\nmov ECX 1\nf0: mul ECX EAX\nsub EAX EBX\njnz EAX f0\nout ECX\n", 0);
+    }
+
+    @Test
+    public void testKeepsDivisionByZero() throws IOException {
+        Machine machine = assertOptimised("mov EAX 4\nout EAX\ndiv EAX EBX\nout EAX\nmov ECX 2\n", 2);
+        Assertions.assertInstanceOf(DivInstruction.class, machine.getProgram().get(2));
+    }
+
+    @Test
+    public void testFoldsSafeDivision() throws IOException {
+        Machine machine = assertOptimised("mov EAX 9\nmov EBX 2\ndiv EAX EBX\nout EAX\n", 1);
+        Assertions.assertEquals(new MovInstruction(null, EAX, 4), machine.getProgram().get(1));
+    }
+
+    @Test
+    public void testFusedInstructions() throws IOException {
+        String program = "mov EAX 3\nmov EBX 1\nl: mov EDX 2\nadd ECX EDX\nsub EAX EBX\njnz EAX l\n";
+        Machine machine = translate(program);
+        SuperinstructionFuser.fuse(machine.getLabels(), machine.getProgram());
+        Assertions.assertEquals(0, ConstantPropagator.optimise(machine.getLabels(), machine.getProgram()));
+        assertSameAsInstructionInterpreter(program, machine);
+    }
+
+    @Test
+    public void testTestResources() throws IOException {
+        try (Stream<Path> files = Files.list(Path.of("./testResources"))) {
+            for (Path file : files.toList()) {
+                String program = Files.readString(file);
+                Machine machine;
+                try {
+                    machine = translate(program);
+                } catch (IOException e) {
+                    // Not a valid program
+                    continue;
+                }
+                ConstantPropagator.optimise(machine.getLabels(), machine.getProgram());
+                assertSameAsInstructionInterpreter(program, machine);
+            }
+        }
+    }
+
+    @Test
+    public void testLeavesUnknownInstructions() {
+        Labels labels = new Labels();
+        List<Instruction> program = new ArrayList<>(List.of(
+                new MovInstruction(null, EAX, 1),
+                new MovInstruction(null, EAX, 2),
+                new Instruction(null, "nop") {
+                    @Override
+                    public int execute(Machine m) {
+                        return NORMAL_PROGRAM_COUNTER_UPDATE;
+                    }
+
+                    @Override
+                    public String toString() {
+                        return "nop";
+                    }
+                }));
+        Assertions.assertEquals(0, ConstantPropagator.optimise(labels, program));
+        Assertions.assertEquals(3, program.size());
+    }
+}
@@ -0,0 +1,146 @@
+package sml.optimiser;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sml.*;
+import sml.instruction.CountedLoopInstruction;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+
+import static sml.Registers.Register.*;
+import static sml.TestPrograms.*;
+
+public class LoopOptimiserTest {
+
+    /**
+     * Replaces the loops of the program, checking that it outputs the same values and stops with the same registers.
+     *
+     * @return the optimised Machine, executed
+     */
+    private static Machine assertOptimised(String program, int loops) throws IOException {
+        Machine machine = translate(program);
+        Assertions.assertEquals(loops, LoopOptimiser.optimise(machine.getLabels(), machine.getProgram()));
+        assertSameAsInstructionInterpreter(program, machine);
+        return machine;
+    }
+
+    @Test
+    public void testFactorial() throws IOException {
+        Machine machine = assertOptimised("mov EAX 6\nmov EBX 1\nmov ECX 1\nf3: mul EBX EAX\nsub EAX ECX\n"
+                + "jnz EAX f3\nout EBX\n", 1);
+        Assertions.assertEquals(5, machine.getProgram().size());
+        Assertions.assertInstanceOf(CountedLoopInstruction.class, machine.getProgram().get(3));
+        Assertions.assertEquals(3, machine.getLabels().getAddress("f3"));
+        Assertions.assertEquals(720, machine.getRegisters().get(EBX));
+    }
+
+    @Test
+    public void testFactorialOverflowsToZero() throws IOException {
+        Machine machine = translate("mov EAX 1000000000\nmov EBX 1\nmov ECX 1\nf3: mul EBX EAX\nsub EAX ECX\n"
+                + "jnz EAX f3\n");
+        LoopOptimiser.optimise(machine.getLabels(), machine.getProgram());
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), machine::execute);
+        Assertions.assertEquals(0, machine.getRegisters().get(EBX));
+    }
+
+    @Test
+    public void testSumOfBillion() throws IOException {
+        Machine machine = translate("mov EAX 1000000000\nmov EBX 1\nl: add ECX EAX\nadd EDX EBX\nsub EAX EBX\n"
+                + "jnz EAX l\n");
+        Assertions.assertEquals(1, LoopOptimiser.optimise(machine.getLabels(), machine.getProgram()));
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), machine::execute);
+        long n = 1_000_000_000L;
+        Assertions.assertEquals((int) (n * (n + 1) / 2), machine.getRegisters().get(ECX));
+        Assertions.assertEquals((int) n, machine.getRegisters().get(EDX));
+        Assertions.assertEquals(0, machine.getRegisters().get(EAX));
+    }
+
+    @Test
+    public void testProductWithEvenStep() throws IOException {
+        // The product of the odd numbers never reaches 0, so every term counts
+        Machine machine = translate("mov EAX 1000000000\nmov EBX 1\nmov ECX 1\nmov EDX 2\nmov ESI 1\n"
+                + "l: mul EBX ECX\nadd ECX EDX\nsub EAX ESI\njnz EAX l\n");
+        Assertions.assertEquals(1, LoopOptimiser.optimise(machine.getLabels(), machine.getProgram()));
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), machine::execute);
+        int expected = 1;
+        for (int k = 0; k < 1_000_000_000; k++)
+            expected *= 1 + 2 * k;
+        Assertions.assertEquals(expected, machine.getRegisters().get(EBX));
+        Assertions.assertEquals(1 + 2 * 1_000_000_000, machine.getRegisters().get(ECX));
+    }
+
+    @Test
+    public void testProductsWithEvenSteps() throws IOException {
+        for (int step : new int[] {2, 4, 6, 12, 96, 1 << 16, 1 << 31, -2})
+            for (int start : new int[] {1, 7, -3})
+                assertOptimised("mov EAX 100000\nmov EBX 3\nmov ECX " + start + "\nmov EDX " + step
+                        + "\nmov ESI 1\nl: mul EBX ECX\nadd ECX EDX\nmul EBX EDX\nsub EAX ESI\njnz EAX l\n", 1);
+    }
+
+    @Test
+    public void testGeometric() throws IOException {
+        Machine machine = translate("mov EAX 1000000000\nmov EBX 1\nmov ECX 1\nmov EDX 3\nl: mul ECX EDX\n"
+                + "sub EAX EBX\njnz EAX l\n");
+        Assertions.assertEquals(1, LoopOptimiser.optimise(machine.getLabels(), machine.getProgram()));
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), machine::execute);
+        int expected = 1;
+        int base = 3;
+        for (long exponent = 1_000_000_000L; exponent > 0; exponent >>= 1, base *= base)
+            if ((exponent & 1) != 0)
+                expected *= base;
+        Assertions.assertEquals(expected, machine.getRegisters().get(ECX));
+    }
+
+    @Test
+    public void testCounterWrapsAround() throws IOException {
+        // 10 - 3k is only 0 once k * 3 has wrapped around to 10
+        Machine machine = translate("mov EAX 10\nmov EBX 3\nmov EDX 1\nl: add ECX EDX\nsub EAX EBX\njnz EAX l\n");
+        Assertions.assertEquals(1, LoopOptimiser.optimise(machine.getLabels(), machine.getProgram()));
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), machine::execute);
+        int iterations = machine.getRegisters().get(ECX);
+        Assertions.assertEquals(10, iterations * 3);
+        Assertions.assertTrue(Integer.toUnsignedLong(iterations) > 4);
+    }
+
+    @Test
+    public void testMovedRegisters() throws IOException {
+        assertOptimised("mov EAX 20\nl: mov EBX 2\nadd ECX EBX\nmov EDX 1\nsub EAX EDX\njnz EAX l\n", 1);
+    }
+
+    @Test
+    public void testFusedLoop() throws IOException {
+        String program = "mov EAX 20\nmov EBX 1\nl: mov EDX 2\nadd ECX EDX\nsub EAX EBX\njnz EAX l\n";
+        Machine machine = translate(program);
+        SuperinstructionFuser.fuse(machine.getLabels(), machine.getProgram());
+        Assertions.assertEquals(1, LoopOptimiser.optimise(machine.getLabels(), machine.getProgram()));
+        assertSameAsInstructionInterpreter(program, machine);
+    }
+
+    @Test
+    public void testLoopsWithoutClosedForm() throws IOException {
+        // Outputs
+        assertOptimised("mov EAX 3\nmov EBX 1\nl: out EAX\nsub EAX EBX\njnz EAX l\n", 0);
+        // May divide by zero
+        assertOptimised("mov EAX 3\nmov EBX 1\nl: div ECX EBX\nsub EAX EBX\njnz EAX l\n", 0);
+        // Reads a product
+        assertOptimised("mov EAX 3\nmov EBX 1\nmov ECX 1\nl: mul ECX EAX\nadd EDX ECX\nsub EAX EBX\njnz EAX l\n", 0);
+        // Doubles a register
+        assertOptimised("mov EAX 3\nmov EBX 1\nl: add ECX ECX\nsub EAX EBX\njnz EAX l\n", 0);
+        // Reads a moved register before it is moved
+        assertOptimised("mov EAX 3\nmov EBX 1\nl: add ECX EDX\nmov EDX 5\nsub EAX EBX\njnz EAX l\n", 0);
+        // Has a label inside
+        assertOptimised("mov EAX 3\nmov EBX 1\nl: add ECX EBX\nm: sub EAX EBX\njnz EAX l\n", 0);
+    }
+
+    @Test
+    public void testProgramFile() throws IOException {
+        Machine machine = translate("mov EAX 6\nmov EBX 1\nmov ECX 1\nf3: mul EBX EAX\nsub EAX ECX\njnz EAX f3\n");
+        LoopOptimiser.optimise(machine.getLabels(), machine.getProgram());
+        Program program = new Program(machine.getLabels(), machine.getProgram());
+        Program read = ProgramFile.fromBytes(ByteBuffer.wrap(ProgramFile.toBytes(program)));
+        Assertions.assertEquals(program.getInstructions(), read.getInstructions());
+        Assertions.assertEquals(720, read.execute().get(EBX));
+    }
+}
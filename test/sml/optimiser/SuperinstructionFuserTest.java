@@ -0,0 +1,82 @@
+package sml.optimiser;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sml.Labels;
+import sml.Machine;
+import sml.Registers;
+import sml.engine.CompilingEngine;
+import sml.engine.SwitchInterpreter;
+import sml.instruction.*;
+
+import static sml.Registers.Register.*;
+
+public class SuperinstructionFuserTest {
+
+    private Machine machine;
+
+    @BeforeEach
+    public void setUp() {
+        machine = new Machine(new Registers());
+        // Sums 5 + 4 + ... + 1 into EBX, adding 10 to ECX on each iteration
+        machine.getProgram().add(new MovInstruction(null, EAX, 5));
+        machine.getProgram().add(new MovInstruction(null, EDX, 1));
+        machine.getProgram().add(new AddInstruction("loop", EBX, EAX));
+        machine.getLabels().addLabel("loop", 2);
+        machine.getProgram().add(new MovInstruction(null, ESI, 10));
+        machine.getProgram().add(new AddInstruction(null, ECX, ESI));
+        machine.getProgram().add(new SubInstruction(null, EAX, EDX));
+        machine.getProgram().add(new JnzInstruction(null, EAX, "loop"));
+        machine.getProgram().add(new OutInstruction("end", EBX));
+        machine.getLabels().addLabel("end", 7);
+    }
+
+    private void assertResult() {
+        Assertions.assertEquals(0, machine.getRegisters().get(EAX));
+        Assertions.assertEquals(15, machine.getRegisters().get(EBX));
+        Assertions.assertEquals(50, machine.getRegisters().get(ECX));
+        Assertions.assertEquals(10, machine.getRegisters().get(ESI));
+    }
+
+    @Test
+    public void testFuse() {
+        Assertions.assertEquals(2, SuperinstructionFuser.fuse(machine.getLabels(), machine.getProgram()));
+        Assertions.assertEquals(6, machine.getProgram().size());
+        Assertions.assertInstanceOf(MovAddInstruction.class, machine.getProgram().get(3));
+        Assertions.assertInstanceOf(SubJnzInstruction.class, machine.getProgram().get(4));
+
+        Labels expected = new Labels();
+        expected.addLabel("loop", 2);
+        expected.addLabel("end", 5);
+        Assertions.assertEquals(expected, machine.getLabels());
+
+        machine.execute();
+        assertResult();
+        machine.setEngine(new SwitchInterpreter());
+        machine.execute();
+        assertResult();
+        machine.setEngine(new CompilingEngine());
+        machine.execute();
+        assertResult();
+    }
+
+    @Test
+    public void testNoFusionAcrossLabel() {
+        machine.getProgram().set(4, new AddInstruction("x", ECX, ESI));
+        machine.getLabels().addLabel("x", 4);
+        Assertions.assertEquals(1, SuperinstructionFuser.fuse(machine.getLabels(), machine.getProgram()));
+        Assertions.assertInstanceOf(AddInstruction.class, machine.getProgram().get(4));
+        Assertions.assertEquals(4, machine.getLabels().getAddress("x"));
+        machine.execute();
+        assertResult();
+    }
+
+    @Test
+    public void testNoFusionOfDifferentRegisters() {
+        machine.getProgram().set(6, new JnzInstruction(null, EDX, "end"));
+        machine.getProgram().set(4, new AddInstruction(null, ECX, EDI));
+        Assertions.assertEquals(0, SuperinstructionFuser.fuse(machine.getLabels(), machine.getProgram()));
+        Assertions.assertEquals(8, machine.getProgram().size());
+    }
+}